@@ -0,0 +1,152 @@
+/*
+ * EscPrinterBenchmark.java
+ *
+ * JMH benchmarks of the EscPrinter command emission, written to an in-memory sink so only the encoding is measured.
+ * Besides ops/s, the "bytes" counter reports the ESC/P bytes produced per second.
+ *
+ * Build the library first (mvn install at the root), then:
+ *     mvn -f benchmarks/pom.xml package
+ *     java -jar benchmarks/target/benchmarks.jar -prof gc
+ * The gc profiler adds the allocation rate (gc.alloc.rate.norm is the number of bytes allocated per operation).
+ */
+
+package net.drayah.matrixprinter.benchmarks;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import net.drayah.matrixprinter.EscPrinter;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EscPrinterBenchmark
+{
+    private static final String LINE = "Qtd 12  Parafuso sextavado M8 x 40 zincado    R$ 1,35";
+
+    private CountingSink sink;
+    private EscPrinter printer;
+
+    /** Counts the bytes reaching the "device", reported by JMH as a rate next to ops/s */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes
+    {
+        public long bytes;
+    }
+
+    private static final class CountingSink extends OutputStream
+    {
+        long count;
+
+        @Override
+        public void write(int b)
+        {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            count += len;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp()
+    {
+        sink = new CountingSink();
+        printer = new EscPrinter("benchmark", false);
+        printer.initialize(sink);
+    }
+
+    @Benchmark
+    public void printText(Bytes bytes)
+    {
+        printer.print(LINE);
+        account(bytes);
+    }
+
+    @Benchmark
+    public void setCharacterSet(Bytes bytes)
+    {
+        printer.setCharacterSet(EscPrinter.BRAZIL);
+        account(bytes);
+    }
+
+    @Benchmark
+    public void advanceVerticalLarge(Bytes bytes)
+    {
+        printer.advanceVertical(25.0f);
+        account(bytes);
+    }
+
+    @Benchmark
+    public void setAbsoluteHorizontalPosition(Bytes bytes)
+    {
+        printer.setAbsoluteHorizontalPosition(12.5f);
+        account(bytes);
+    }
+
+    @Benchmark
+    public void invoicePage(Bytes bytes)
+    {
+        invoice();
+        account(bytes);
+    }
+
+    private void invoice()
+    {
+        //header
+        printer.select10CPI();
+        printer.advanceVertical(1.5f);
+        printer.setAbsoluteHorizontalPosition(1);
+        printer.bold(true);
+        printer.print("NOTA FISCAL 000123456");
+        printer.bold(false);
+        printer.setAbsoluteHorizontalPosition(14);
+        printer.print("Emissao 18/10/2026");
+        printer.advanceVertical(1);
+
+        //items
+        printer.select15CPI();
+        for (int i = 0; i < 40; i++)
+        {
+            printer.advanceVertical(0.42f);
+            printer.setAbsoluteHorizontalPosition(1);
+            printer.print(LINE);
+            printer.setAbsoluteHorizontalPosition(16.5f);
+            printer.print("R$ 16,20");
+        }
+
+        //totals
+        printer.select10CPI();
+        printer.advanceVertical(1);
+        printer.setAbsoluteHorizontalPosition(12);
+        printer.bold(true);
+        printer.print("TOTAL R$ 648,00");
+        printer.bold(false);
+        printer.formFeed();
+    }
+
+    private void account(Bytes bytes)
+    {
+        printer.flush();
+        bytes.bytes += sink.count;
+        sink.count = 0;
+    }
+}
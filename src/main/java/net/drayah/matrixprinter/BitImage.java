@@ -0,0 +1,137 @@
+/*
+ * BitImage.java
+ *
+ * Monochrome bitmap to print with EscPrinter.printImage: one bit per printer dot, rows packed most significant bit
+ * first (bit set = dot printed), each row padded to a whole byte. Pixels are printed as dots one to one, so an image
+ * must be scaled to the densities of the BitImageEncoder.Mode it is printed with.
+ *
+ * Immutable; equals and hashCode compare the content, so equal logos share one cached encoding.
+ */
+
+package net.drayah.matrixprinter;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+public final class BitImage
+{
+    private final int width;
+    private final int height;
+    private final int rowBytes;
+    private final byte[] data;
+    private final int hash;
+
+    /** Creates a bitmap from packed rows
+     *  @param width width in dots
+     *  @param height height in dots
+     *  @param data height rows of (width + 7) / 8 bytes, copied; the padding bits past {@code width} are ignored
+     */
+    public BitImage(int width, int height, byte[] data)
+    {
+        this(width, height, data.clone(), true);
+    }
+
+    private BitImage(int width, int height, byte[] data, boolean check)
+    {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("image dimensions must be positive");
+        this.rowBytes = (width + 7) / 8;
+        if (check && data.length != rowBytes * height)
+            throw new IllegalArgumentException("expected " + rowBytes * height + " bytes of packed rows, got " + data.length);
+
+        int padding = rowBytes * 8 - width;
+        if (check && padding > 0)
+        {
+            byte mask = (byte) (0xFF << padding);
+            for (int last = rowBytes - 1; last < data.length; last += rowBytes)
+                data[last] &= mask; //padding dots would be printed past the width (raster) or outside the columns (column modes)
+        }
+
+        this.width = width;
+        this.height = height;
+        this.data = data;
+        this.hash = 31 * (31 * width + height) + Arrays.hashCode(data);
+    }
+
+    /**
+     *  converts {@code image}, a pixel becomes a dot when it is opaque and darker than {@code threshold}
+     *  @param threshold luminance limit between 0 and 255, 128 for a plain black and white logo
+     */
+    public static BitImage fromImage(BufferedImage image, int threshold)
+    {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int rowBytes = (width + 7) / 8;
+        byte[] data = new byte[rowBytes * height];
+        int[] row = new int[width];
+
+        for (int y = 0; y < height; y++)
+        {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++)
+            {
+                int argb = row[x];
+                int luminance = (299 * ((argb >> 16) & 0xFF) + 587 * ((argb >> 8) & 0xFF) + 114 * (argb & 0xFF)) / 1000;
+                if ((argb >>> 24) >= 128 && luminance < threshold)
+                    data[y * rowBytes + (x >> 3)] |= (byte) (0x80 >>> (x & 7));
+            }
+        }
+
+        return new BitImage(width, height, data, false);
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /** @return true if the dot at ({@code x}, {@code y}) is printed, false outside the image */
+    public boolean isSet(int x, int y)
+    {
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            return false;
+        return (data[y * rowBytes + (x >> 3)] & (0x80 >>> (x & 7))) != 0;
+    }
+
+    int getRowBytes()
+    {
+        return rowBytes;
+    }
+
+    /** @return byte {@code index} of row {@code y}, 0 below the image (bands are padded with blank rows) */
+    byte rowByte(int y, int index)
+    {
+        return y < height ? data[y * rowBytes + index] : 0;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof BitImage))
+            return false;
+
+        BitImage other = (BitImage) obj;
+        return hash == other.hash && width == other.width && height == other.height && Arrays.equals(data, other.data);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder strb = new StringBuilder();
+        strb.append("<BitImage[").append(width).append('x').append(height).append("]>");
+        return strb.toString();
+    }
+}
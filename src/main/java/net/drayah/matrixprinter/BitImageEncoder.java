@@ -0,0 +1,293 @@
+/*
+ * BitImageEncoder.java
+ *
+ * Encodes a BitImage into ESC/P graphics: column bit images (ESC *) for 9 pin and 24 pin printers, or ESC/P2 raster
+ * graphics (ESC .) with run-length compression. The image is cut into bands as high as the print head (8 or 24 dots),
+ * every band followed by CR and an ESC J paper advance of the band height. Bands are independent, so large images are
+ * encoded in parallel on a fork-join pool. Encoded images are cached by content: printing the same logo again only
+ * copies bytes.
+ */
+
+package net.drayah.matrixprinter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+public class BitImageEncoder
+{
+    /** graphics command and dot densities */
+    public enum Mode
+    {
+        /** ESC * 1: 8-dot columns, 120 x 72 dpi, for 9 pin printers */
+        COLUMN_9PIN(8, 120, 72),
+        /** ESC * 39: 24-dot columns, 180 x 180 dpi, for 24 pin printers */
+        COLUMN_24PIN(24, 180, 180),
+        /** ESC . 1: run-length compressed raster graphics, 180 x 180 dpi, for ESC/P2 printers */
+        RASTER_ESCP2(24, 180, 180);
+
+        private final int bandHeight;
+        private final int horizontalDpi;
+        private final int verticalDpi;
+
+        Mode(int bandHeight, int horizontalDpi, int verticalDpi)
+        {
+            this.bandHeight = bandHeight;
+            this.horizontalDpi = horizontalDpi;
+            this.verticalDpi = verticalDpi;
+        }
+
+        /** @return dots printed per inch across the paper, scale images to it */
+        public int getHorizontalDpi()
+        {
+            return horizontalDpi;
+        }
+
+        /** @return dots printed per inch along the paper, scale images to it */
+        public int getVerticalDpi()
+        {
+            return verticalDpi;
+        }
+
+        /** @return the default mode for a 9 pin or a 24 pin printer */
+        public static Mode forPrinter(boolean escp24pin)
+        {
+            return escp24pin ? COLUMN_24PIN : COLUMN_9PIN;
+        }
+    }
+
+    /* decimal ascii values for epson ESC/P commands */
+    private static final int ESC = 27;
+    private static final int CR = 13;
+    private static final int ASTERISK = 42; //column bit image
+    private static final int PERIOD = 46; //raster graphics
+    private static final int J = 74;
+    private static final int $ = 36;
+    private static final int RASTER_180_DPI = 20; //density parameter of ESC ., in 1/3600 inch
+    private static final int BAND_ADVANCE = 24; //8/72 inch in 1/216 units on 9 pin printers, 24/180 inch in 1/180 units on 24 pin ones
+    private static final int PARALLEL_BANDS = 4; //fewer bands are encoded on the calling thread
+    private static final int MAX_COLUMNS = 65535; //nL nH
+
+    private static final BitImageEncoder DEFAULT = new BitImageEncoder(ForkJoinPool.commonPool(), 64);
+
+    private final ForkJoinPool pool;
+    private final Map<Key, byte[]> cache; //guarded by itself
+
+    /** Creates an encoder
+     *  @param pool pool encoding the bands of large images
+     *  @param cacheEntries number of encoded images kept (least recently used ones are dropped), 0 for no cache
+     */
+    public BitImageEncoder(ForkJoinPool pool, int cacheEntries)
+    {
+        if (pool == null)
+            throw new IllegalArgumentException("the pool cannot be null");
+        if (cacheEntries < 0)
+            throw new IllegalArgumentException("cache size cannot be negative");
+
+        this.pool = pool;
+        this.cache = new LinkedHashMap<Key, byte[]>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest)
+            {
+                return size() > cacheEntries;
+            }
+        };
+    }
+
+    /** @return the encoder used by EscPrinter, on the common pool with 64 cached images */
+    public static BitImageEncoder getDefault()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     *  encode {@code image}
+     *  @param mode graphics command and densities
+     *  @param left absolute horizontal position of every band in 1/60 inch (as EscPrinter.setAbsoluteHorizontalPosition), negative to print at the left margin
+     *  @return the ESC/P sequences printing the image, shared with the cache: do not modify
+     */
+    public byte[] encode(BitImage image, Mode mode, int left)
+    {
+        if (image.getWidth() > MAX_COLUMNS)
+            throw new IllegalArgumentException("image is wider than " + MAX_COLUMNS + " dots");
+
+        Key key = new Key(image, mode, left);
+        byte[] encoded;
+        synchronized (cache)
+        {
+            encoded = cache.get(key);
+        }
+        if (encoded != null)
+            return encoded;
+
+        encoded = encodeBands(image, mode, left);
+        synchronized (cache)
+        {
+            cache.put(key, encoded);
+        }
+        return encoded;
+    }
+
+    private byte[] encodeBands(BitImage image, Mode mode, int left)
+    {
+        int bands = (image.getHeight() + mode.bandHeight - 1) / mode.bandHeight;
+        byte[][] encoded;
+
+        if (bands < PARALLEL_BANDS)
+        {
+            encoded = new byte[bands][];
+            for (int band = 0; band < bands; band++)
+                encoded[band] = encodeBand(image, mode, left, band);
+        }
+        else
+        {
+            encoded = pool.submit(() -> IntStream.range(0, bands).parallel()
+                .mapToObj(band -> encodeBand(image, mode, left, band))
+                .toArray(byte[][]::new)).join();
+        }
+
+        EscCommandBuffer out = new EscCommandBuffer(Math.max(1, encoded.length * (encoded.length > 0 ? encoded[0].length : 1)));
+        for (byte[] band : encoded)
+            out.write(band);
+        return out.toByteArray();
+    }
+
+    private byte[] encodeBand(BitImage image, Mode mode, int left, int band)
+    {
+        int top = band * mode.bandHeight;
+        EscCommandBuffer out = new EscCommandBuffer(64 + image.getWidth() * mode.bandHeight / 8);
+
+        if (!isBlank(image, top, mode.bandHeight))
+        {
+            if (left >= 0)
+                out.write(ESC, $, left % 256, left / 256);
+
+            if (mode == Mode.RASTER_ESCP2)
+                rasterBand(image, top, mode.bandHeight, out);
+            else
+                columnBand(image, top, mode, out);
+        }
+
+        out.write(CR);
+        out.write(ESC, J, BAND_ADVANCE);
+        return out.toByteArray();
+    }
+
+    private static boolean isBlank(BitImage image, int top, int rows)
+    {
+        for (int y = top; y < top + rows; y++)
+        {
+            for (int i = 0; i < image.getRowBytes(); i++)
+            {
+                if (image.rowByte(y, i) != 0)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static void columnBand(BitImage image, int top, Mode mode, EscCommandBuffer out)
+    {
+        //ESC * m nL nH, then one byte (8 dots) or three bytes (24 dots) per column, top dot in the most significant bit
+        int width = image.getWidth();
+        int bytesPerColumn = mode.bandHeight / 8;
+        byte[] columns = new byte[width * bytesPerColumn];
+
+        for (int row = 0; row < mode.bandHeight; row++)
+        {
+            int bit = 0x80 >>> (row & 7);
+            int slot = row >> 3;
+            for (int i = 0; i < image.getRowBytes(); i++)
+            {
+                int b = image.rowByte(top + row, i) & 0xFF;
+                for (int x = i * 8; b != 0; x++, b = (b << 1) & 0xFF)
+                {
+                    if ((b & 0x80) != 0)
+                        columns[x * bytesPerColumn + slot] |= (byte) bit;
+                }
+            }
+        }
+
+        out.write(ESC, ASTERISK, mode == Mode.COLUMN_9PIN ? 1 : 39);
+        out.write(width % 256, width / 256);
+        out.write(columns);
+    }
+
+    private static void rasterBand(BitImage image, int top, int rows, EscCommandBuffer out)
+    {
+        //ESC . c v h m nL nH, then every dot row run-length compressed on its own
+        int width = image.getWidth();
+        out.write(ESC, PERIOD, 1);
+        out.write(RASTER_180_DPI, RASTER_180_DPI, rows);
+        out.write(width % 256, width / 256);
+
+        byte[] row = new byte[image.getRowBytes()];
+        for (int y = top; y < top + rows; y++)
+        {
+            for (int i = 0; i < row.length; i++)
+                row[i] = image.rowByte(y, i);
+            compress(row, out);
+        }
+    }
+
+    static void compress(byte[] data, EscCommandBuffer out)
+    {
+        //ESC/P2 run-length encoding: counter 0..127 is followed by counter + 1 literal bytes,
+        //counter 257 - n (129..255) by one byte repeated n times (2 <= n <= 128)
+        int i = 0;
+        while (i < data.length)
+        {
+            int run = 1;
+            while (i + run < data.length && run < 128 && data[i + run] == data[i])
+                run++;
+
+            if (run >= 2)
+            {
+                out.write(257 - run, data[i]);
+                i += run;
+                continue;
+            }
+
+            int start = i;
+            while (i < data.length && i - start < 128 && (i + 1 >= data.length || data[i + 1] != data[i]))
+                i++;
+            if (i == start) //next two bytes repeat, they start a run
+                continue;
+            out.write(i - start - 1);
+            out.write(data, start, i - start);
+        }
+    }
+
+    private static final class Key
+    {
+        final BitImage image;
+        final Mode mode;
+        final int left;
+
+        Key(BitImage image, Mode mode, int left)
+        {
+            this.image = image;
+            this.mode = mode;
+            this.left = left;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+                return false;
+
+            Key other = (Key) obj;
+            return mode == other.mode && left == other.left && image.equals(other.image);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(image, mode, left);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * BulkRenderer.java
+ *
+ * Prints long runs of records (statements, labels, slips) encoding them on every core. Each record is rendered by the
+ * render function on an in-memory EscPrinter of a pool thread, into a buffer of its own; the calling thread writes the
+ * buffers to the target printer in the order of the records as soon as each one is ready. Encoding of the next records
+ * thus overlaps with the device write of the previous ones (through the DeviceWriter of an initialized printer), and
+ * the output is identical to rendering the records one after the other.
+ *
+ * A record must not rely on the printer state left by the previous one (bold, pitch, margins...): the render function
+ * selects what it needs, as it would after any other job. Text is translated with the character table of the target
+ * printer. At most {@code window} records are rendered ahead of the device, so memory use does not depend on the
+ * number of records.
+ *
+ * Usage:
+ *     BulkRenderer<Statement> renderer = new BulkRenderer<>((p, statement) -> statement.print(p));
+ *     renderer.print(printer, statements.stream());
+ */
+
+package net.drayah.matrixprinter;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+public class BulkRenderer<T>
+{
+    private final BiConsumer<EscPrinter, ? super T> document;
+    private final ForkJoinPool pool;
+    private final int window;
+    private final ThreadLocal<Renderer> renderers = new ThreadLocal<>(); //one per pool thread, kept across print calls
+
+    /** Creates a renderer on the common pool, rendering up to 4 records per core ahead of the device
+     *  @param render encodes one record with the EscPrinter commands
+     */
+    public BulkRenderer(BiConsumer<EscPrinter, ? super T> render)
+    {
+        this(render, ForkJoinPool.commonPool(), 4 * ForkJoinPool.commonPool().getParallelism());
+    }
+
+    /** Creates a renderer
+     *  @param render encodes one record with the EscPrinter commands, called concurrently from the threads of {@code pool}
+     *  @param window maximum number of records rendered and not written yet
+     */
+    public BulkRenderer(BiConsumer<EscPrinter, ? super T> render, ForkJoinPool pool, int window)
+    {
+        if (render == null || pool == null)
+            throw new IllegalArgumentException("the render function and pool cannot be null");
+        if (window <= 0)
+            throw new IllegalArgumentException("window must be positive");
+
+        this.document = render;
+        this.pool = pool;
+        this.window = window;
+    }
+
+    /** @see #print(EscPrinter, Iterator) */
+    public long print(EscPrinter printer, Iterable<? extends T> records)
+    {
+        return print(printer, records.iterator());
+    }
+
+    /** @see #print(EscPrinter, Iterator) */
+    public long print(EscPrinter printer, Stream<? extends T> records)
+    {
+        return print(printer, records.iterator());
+    }
+
+    /**
+     *  renders {@code records} in parallel and prints them in their order, pending commands are flushed at the end
+     *  @param printer an initialized printer, or an in-memory one; its pin model, character table and optimizing mode are used
+     *  @return the number of records printed
+     *  @throws RuntimeException the first exception thrown by the render function, records after it are not printed
+     */
+    public long print(EscPrinter printer, Iterator<? extends T> records)
+    {
+        long count = render(printer, records, printer::printEncoded);
+        printer.flush();
+        return count;
+    }
+
+    /**
+     *  renders {@code records} in parallel for printers like {@code model} and hands each job to {@code sink} in their
+     *  order, on the calling thread, e.g. to submit the jobs to an EscSpooler or a SpoolJournal
+     *  @return the number of records rendered
+     */
+    public long render(EscPrinter model, Iterator<? extends T> records, Consumer<byte[]> sink)
+    {
+        boolean escp24pin = model.isEscp24pin();
+        CharacterTable table = model.getCharacterTable();
+        boolean optimizing = model.isOptimizing();
+        PrintMetrics metrics = model.getMetrics();
+        String printerName = model.getShare();
+
+        Deque<CompletableFuture<byte[]>> rendering = new ArrayDeque<>(window);
+        long count = 0;
+        try
+        {
+            while (records.hasNext() || !rendering.isEmpty())
+            {
+                while (rendering.size() < window && records.hasNext())
+                {
+                    T record = records.next();
+                    rendering.add(CompletableFuture.supplyAsync(() -> renderer(escp24pin).render(record, table, optimizing, metrics, printerName), pool));
+                }
+
+                sink.accept(rendering.removeFirst().join());
+                count++;
+            }
+        }
+        catch (CompletionException ex)
+        {
+            throw ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : ex;
+        }
+        finally
+        {
+            for (CompletableFuture<byte[]> pending : rendering)
+                pending.cancel(false);
+        }
+        return count;
+    }
+
+    private Renderer renderer(boolean escp24pin)
+    {
+        //post: the renderer of the current pool thread, replaced when the pin model changed since its last record
+        Renderer renderer = renderers.get();
+        if (renderer == null || renderer.escp24pin != escp24pin)
+        {
+            renderer = new Renderer(escp24pin);
+            renderers.set(renderer);
+        }
+        return renderer;
+    }
+
+    private final class Renderer
+    {
+        final EscCommandBuffer buffer = new EscCommandBuffer();
+        final EscPrinter printer;
+        final boolean escp24pin;
+
+        Renderer(boolean escp24pin)
+        {
+            this.escp24pin = escp24pin;
+            printer = new EscPrinter(escp24pin, buffer);
+        }
+
+        byte[] render(T record, CharacterTable table, boolean optimizing, PrintMetrics metrics, String printerName)
+        {
+            //post: returns the commands encoding record alone, the buffer is reused for the next record of this thread
+            long start = System.nanoTime();
+            boolean success = false;
+            try
+            {
+                buffer.reset();
+                printer.prepareRenderer(table, optimizing);
+                document.accept(printer, record);
+                printer.flush();
+                byte[] job = buffer.toByteArray();
+                success = true;
+                return job;
+            }
+            finally
+            {
+                metrics.phase(printerName, PrintPhase.ENCODE, System.nanoTime() - start, success);
+            }
+        }
+    }
+}
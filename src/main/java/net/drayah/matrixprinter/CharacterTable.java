@@ -0,0 +1,229 @@
+/*
+ * CharacterTable.java
+ *
+ * Precomputed translation of Java chars to the bytes of an ESC/P registered character table (the table selected with
+ * ESC ( t, see EscPrinter.setCharacterSet). The whole char range is resolved once when the table is built, including
+ * the fallback: a character missing from the printer table is replaced by its unaccented letter (ã -> a) or a close
+ * ASCII substitute when substitution is on, else by the fallback byte. Translating text is then one array lookup per
+ * char, written straight into the command buffer, without any encoder or allocation.
+ *
+ * Tables are immutable and can be shared between threads.
+ */
+
+package net.drayah.matrixprinter;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public final class CharacterTable
+{
+    private static final byte DEFAULT_FALLBACK = 63; //?
+    private static final String PC437 = "IBM437";
+    private static final int SUBSTITUTION_LIMIT = 0x3000; //no char above has an ASCII base letter or look-alike
+
+    private final char registeredTable;
+    final byte[] map; //indexed by char, read by EscCommandBuffer
+
+    private CharacterTable(char registeredTable, byte[] map)
+    {
+        this.registeredTable = registeredTable;
+        this.map = map;
+    }
+
+    /**
+     *  @param charset a registered character table, e.g. EscPrinter.USA or EscPrinter.BRAZIL
+     *  @return the shared default table for {@code charset} ('?' fallback, substitution on), an ASCII table for unknown ones
+     */
+    public static CharacterTable forCharset(char charset)
+    {
+        if (charset == EscPrinter.USA)
+            return Defaults.USA;
+        if (charset == EscPrinter.BRAZIL)
+            return Defaults.BRAZIL;
+        return Defaults.OTHERS.computeIfAbsent(charset, table -> new CharacterTable(table, Defaults.ASCII.map));
+    }
+
+    /**
+     *  start a custom table
+     *  @param registeredTable the registered character table number sent with ESC ( t
+     *  @param layout a Java charset with the same byte layout as the printer table
+     */
+    public static Builder builder(char registeredTable, Charset layout)
+    {
+        return new Builder(registeredTable, layout);
+    }
+
+    /** @return the registered character table number sent with ESC ( t */
+    public char getRegisteredTable()
+    {
+        return registeredTable;
+    }
+
+    /** @return the printer byte for {@code c} */
+    public byte encode(char c)
+    {
+        return map[c];
+    }
+
+    /**
+     *  translates {@code text[start, end)} into {@code dst} starting at {@code offset}
+     *  @return the number of bytes written (end - start)
+     */
+    public int encode(CharSequence text, int start, int end, byte[] dst, int offset)
+    {
+        for (int i = start; i < end; i++)
+            dst[offset++] = map[text.charAt(i)];
+        return end - start;
+    }
+
+    public void encode(CharSequence text, int start, int end, EscCommandBuffer out)
+    {
+        out.writeTranslated(text, start, end, map);
+    }
+
+    public void encode(char[] chars, int offset, int length, EscCommandBuffer out)
+    {
+        out.writeTranslated(chars, offset, length, map);
+    }
+
+    private static Charset pc437()
+    {
+        return Charset.isSupported(PC437) ? Charset.forName(PC437) : StandardCharsets.US_ASCII;
+    }
+
+    private static final class Defaults
+    {
+        //built on first use, resolving the whole char range takes a few milliseconds per table
+        static final CharacterTable USA = builder(EscPrinter.USA, pc437()).build();
+        static final CharacterTable BRAZIL = builder(EscPrinter.BRAZIL, StandardCharsets.ISO_8859_1).build(); //BRASCII follows the ISO 8859-1 layout for the letters used in Portuguese
+        static final CharacterTable ASCII = builder(EscPrinter.USA, StandardCharsets.US_ASCII).build();
+        static final ConcurrentMap<Character, CharacterTable> OTHERS = new ConcurrentHashMap<>(); //unknown tables, sharing the ASCII map
+    }
+
+    public static final class Builder
+    {
+        private final char registeredTable;
+        private final Charset layout;
+        private final char[] substituteChars = new char[64];
+        private final byte[] substituteBytes = new byte[64];
+        private int substitutes;
+        private byte fallback = DEFAULT_FALLBACK;
+        private boolean substitution = true;
+
+        private Builder(char registeredTable, Charset layout)
+        {
+            if (layout == null)
+                throw new IllegalArgumentException("the charset layout cannot be null");
+
+            this.registeredTable = registeredTable;
+            this.layout = layout;
+        }
+
+        /** byte printed for characters the table cannot represent, '?' by default */
+        public Builder fallback(byte fallback)
+        {
+            this.fallback = fallback;
+            return this;
+        }
+
+        /** replace missing characters by their base letter or an ASCII look-alike before using the fallback, on by default */
+        public Builder substitution(boolean substitution)
+        {
+            this.substitution = substitution;
+            return this;
+        }
+
+        /** forces the byte printed for {@code c}, e.g. a currency sign the printer table has at another position */
+        public Builder map(char c, byte b)
+        {
+            if (substitutes == substituteChars.length)
+                throw new IllegalStateException("too many explicit mappings");
+
+            substituteChars[substitutes] = c;
+            substituteBytes[substitutes++] = b;
+            return this;
+        }
+
+        public CharacterTable build()
+        {
+            byte[] map = new byte[Character.MAX_VALUE + 1];
+            boolean[] mapped = new boolean[map.length];
+            Arrays.fill(map, fallback);
+
+            //what the printer table holds, the lowest byte wins when a char appears twice
+            for (int b = 255; b >= 0; b--)
+            {
+                char c = decode(b);
+                if (c != 0xFFFD)
+                {
+                    map[c] = (byte) b;
+                    mapped[c] = true;
+                }
+            }
+
+            if (substitution)
+            {
+                for (int c = 0; c < SUBSTITUTION_LIMIT; c++)
+                {
+                    if (mapped[c])
+                        continue;
+                    char base = substitute((char) c);
+                    if (base != c && mapped[base])
+                        map[c] = map[base];
+                }
+            }
+
+            for (int i = 0; i < substitutes; i++)
+                map[substituteChars[i]] = substituteBytes[i];
+
+            return new CharacterTable(registeredTable, map);
+        }
+
+        private char decode(int b)
+        {
+            try
+            {
+                CharBuffer decoded = layout.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(new byte[] { (byte) b }));
+                return decoded.length() == 1 ? decoded.get(0) : 0xFFFD;
+            }
+            catch (CharacterCodingException ex)
+            {
+                return 0xFFFD;
+            }
+        }
+
+        private static char substitute(char c)
+        {
+            switch (c)
+            {
+                case '\u2018': case '\u2019': case '\u201A': case '\u2032': //quotes and prime
+                    return '\'';
+                case '\u201C': case '\u201D': case '\u201E': case '\u2033':
+                    return '"';
+                case '\u2010': case '\u2011': case '\u2012': case '\u2013': case '\u2014': case '\u2212': //dashes and minus
+                    return '-';
+                case '\u00A0': case '\u2007': case '\u202F': //no-break spaces
+                    return ' ';
+                default:
+                    break;
+            }
+
+            if (Character.isSurrogate(c))
+                return c;
+
+            String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            return decomposed.isEmpty() ? c : decomposed.charAt(0);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * DefaultPrintMetrics.java
+ *
+ * PrintMetrics keeping counters and latency histograms per printer name (see PrinterStats), optionally exposed
+ * through JMX as net.drayah.matrixprinter:type=PrinterStats,printer="<name>".
+ *
+ * Usage:
+ *     EscPrinter.setDefaultMetrics(new DefaultPrintMetrics(true));
+ */
+
+package net.drayah.matrixprinter;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public class DefaultPrintMetrics implements PrintMetrics
+{
+    private final ConcurrentMap<String, PrinterStats> printers = new ConcurrentHashMap<>();
+    private final boolean jmx;
+
+    /** Creates metrics
+     *  @param jmx register the statistics of every printer on the platform MBean server when it is first seen
+     */
+    public DefaultPrintMetrics(boolean jmx)
+    {
+        this.jmx = jmx;
+    }
+
+    @Override
+    public void bytesWritten(String printerName, long bytes, long commands)
+    {
+        stats(printerName).bytesWritten(bytes, commands);
+    }
+
+    @Override
+    public void phase(String printerName, PrintPhase phase, long nanos, boolean success)
+    {
+        stats(printerName).phase(phase, nanos, success);
+    }
+
+    /** @return the statistics of the printer named {@code printerName}, created empty if needed */
+    public PrinterStats stats(String printerName)
+    {
+        PrinterStats stats = printers.get(printerName);
+        if (stats == null)
+        {
+            PrinterStats created = new PrinterStats(printerName);
+            stats = printers.putIfAbsent(printerName, created);
+            if (stats == null)
+            {
+                stats = created;
+                if (jmx)
+                    register(created);
+            }
+        }
+        return stats;
+    }
+
+    public List<PrinterStats> allStats()
+    {
+        return new ArrayList<>(printers.values());
+    }
+
+    private void register(PrinterStats stats)
+    {
+        try
+        {
+            ObjectName name = new ObjectName("net.drayah.matrixprinter:type=PrinterStats,printer=" + ObjectName.quote(stats.getPrinterName()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(stats, name);
+        }
+        catch (JMException ex)
+        {
+            Logger.getLogger(DefaultPrintMetrics.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+}
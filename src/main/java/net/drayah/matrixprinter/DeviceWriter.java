@@ -0,0 +1,502 @@
+/*
+ * DeviceWriter.java
+ *
+ * Output side of an EscPrinter: a bounded ring buffer drained into the printer device by a dedicated I/O thread.
+ * A printer out of paper or jammed blocks the device write forever; with the writer only the I/O thread blocks.
+ * Callers wait for buffer space or for the buffer to drain at most the write timeout, then get an
+ * InterruptedIOException and the writer reports STALLED until the device accepts data again. A device error is
+ * remembered (FAILED) and thrown by every later call instead of being swallowed. A caller giving up on a job after a
+ * timeout aborts the writer, so the printer does not get the part of the job still buffered.
+ *
+ * Backpressure: isWritable() turns false when the buffered bytes reach the high watermark and true again once they
+ * fall to the low watermark, a Listener is told of both transitions and of failures, so producers can slow down or
+ * reroute jobs before they would have to wait.
+ */
+
+package net.drayah.matrixprinter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class DeviceWriter extends OutputStream
+{
+    public enum State
+    {
+        /** the device accepts data */
+        OPEN,
+        /** a device write has been blocked for longer than the write timeout, e.g. paper out */
+        STALLED,
+        /** the device reported an error, see getFailure() */
+        FAILED,
+        CLOSED
+    }
+
+    /** notified on the thread that caused the transition, must not block */
+    public interface Listener
+    {
+        default void writabilityChanged(DeviceWriter writer, boolean writable)
+        {
+        }
+
+        default void failed(DeviceWriter writer, IOException ex)
+        {
+        }
+    }
+
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+    public static final long DEFAULT_WRITE_TIMEOUT_MILLIS = 30000;
+
+    private final OutputStream out;
+    private final String name;
+    private final byte[] ring;
+    private final int lowWatermark;
+    private final int highWatermark;
+    private final long timeoutNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition drained = lock.newCondition(); //signalled whenever bytes left the ring
+    private int head; //next byte to write to the device
+    private int count; //bytes in the ring
+    private long deviceWriteStart; //nanoTime of the device write in progress, 0 when none
+    private boolean writable = true;
+    private boolean closing;
+    private State state = State.OPEN;
+    private IOException failure;
+    private Thread ioThread;
+    private volatile Listener listener;
+
+    /** Creates a writer with a 64 KiB buffer, watermarks at 1/4 and 3/4 of it and a 30 s write timeout */
+    public DeviceWriter(OutputStream out, String name)
+    {
+        this(out, name, DEFAULT_CAPACITY, DEFAULT_CAPACITY / 4, DEFAULT_CAPACITY / 4 * 3, DEFAULT_WRITE_TIMEOUT_MILLIS);
+    }
+
+    /** Creates a writer
+     *  @param out the device, only written to by the I/O thread
+     *  @param name printer name, used for the thread name and the messages
+     *  @param capacity size of the ring buffer in bytes
+     *  @param lowWatermark buffered bytes at which the writer is writable again
+     *  @param highWatermark buffered bytes at which the writer stops being writable
+     *  @param writeTimeoutMillis longest time a caller waits for the device
+     */
+    public DeviceWriter(OutputStream out, String name, int capacity, int lowWatermark, int highWatermark, long writeTimeoutMillis)
+    {
+        if (out == null || name == null)
+            throw new IllegalArgumentException("the device stream and name cannot be null");
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        if (lowWatermark < 0 || lowWatermark > highWatermark || highWatermark > capacity)
+            throw new IllegalArgumentException("watermarks must satisfy 0 <= low <= high <= capacity");
+        if (writeTimeoutMillis <= 0)
+            throw new IllegalArgumentException("write timeout must be positive");
+
+        this.out = out;
+        this.name = name;
+        this.ring = new byte[capacity];
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+    }
+
+    /**
+     *  wraps the streams opened by {@code transport} in writers
+     *  @see #DeviceWriter(OutputStream, String, int, int, int, long)
+     */
+    public static PrinterTransport transport(PrinterTransport transport, int capacity, int lowWatermark, int highWatermark, long writeTimeoutMillis)
+    {
+        if (transport == null)
+            throw new IllegalArgumentException("the transport cannot be null");
+        return printerName -> new DeviceWriter(transport.open(printerName), printerName, capacity, lowWatermark, highWatermark, writeTimeoutMillis);
+    }
+
+    public void setListener(Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    /** @return false from the high watermark until the buffer drains to the low watermark */
+    public boolean isWritable()
+    {
+        lock.lock();
+        try
+        {
+            return writable;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** @return the number of bytes waiting for the device */
+    public int buffered()
+    {
+        lock.lock();
+        try
+        {
+            return count;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public State getState()
+    {
+        lock.lock();
+        try
+        {
+            updateStall(System.nanoTime());
+            return state;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** @return the device error when FAILED, else null */
+    public IOException getFailure()
+    {
+        lock.lock();
+        try
+        {
+            return failure;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    /**
+     *  copies {@code b} into the buffer, waiting for space at most the write timeout at a time
+     *  @throws InterruptedIOException when the device did not take any data during the write timeout (bytesTransferred tells how much was buffered)
+     *  @throws IOException the device error once the writer FAILED
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        boolean becameFull = false;
+        int copied = 0;
+
+        lock.lock();
+        try
+        {
+            check();
+            start();
+            long deadline = System.nanoTime() + timeoutNanos;
+            while (copied < len)
+            {
+                int space = ring.length - count;
+                if (space == 0)
+                {
+                    if (becameFull) //tell the listener before waiting, the I/O thread may make it writable again meanwhile
+                    {
+                        becameFull = false;
+                        lock.unlock();
+                        try
+                        {
+                            notifyWritability(false);
+                        }
+                        finally
+                        {
+                            lock.lock();
+                        }
+                        continue;
+                    }
+                    deadline = await(drained, deadline, copied);
+                    check();
+                    continue;
+                }
+
+                int tail = (head + count) % ring.length;
+                int n = Math.min(Math.min(space, len - copied), ring.length - tail); //contiguous part
+                System.arraycopy(b, off + copied, ring, tail, n);
+                count += n;
+                copied += n;
+                deadline = System.nanoTime() + timeoutNanos; //progress
+                notEmpty.signal();
+
+                if (writable && count >= highWatermark)
+                {
+                    writable = false;
+                    becameFull = true;
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+            if (becameFull)
+                notifyWritability(false);
+        }
+    }
+
+    /**
+     *  waits until the device has taken every buffered byte
+     *  @throws InterruptedIOException when the device did not take any data during the write timeout
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        lock.lock();
+        try
+        {
+            check();
+            long deadline = System.nanoTime() + timeoutNanos;
+            int last = count;
+            while (count > 0)
+            {
+                deadline = await(drained, deadline, 0);
+                check();
+                if (count < last) //progress
+                {
+                    last = count;
+                    deadline = System.nanoTime() + timeoutNanos;
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        out.flush();
+    }
+
+    /**
+     *  discards the buffered bytes and fails the writer: the bytes already handed to the device (the write in progress)
+     *  still reach it, nothing after them does. The I/O thread stops once that write returns; close() releases the device
+     */
+    public void abort()
+    {
+        IOException ex;
+        lock.lock();
+        try
+        {
+            if (state == State.CLOSED || failure != null)
+                return;
+            ex = failure = new IOException("job to printer " + name + " aborted");
+            state = State.FAILED;
+            closing = true;
+            count = 0;
+            notEmpty.signal();
+            drained.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        Listener l = listener;
+        if (l != null)
+            l.failed(this, ex);
+    }
+
+    /** flushes, stops the I/O thread and closes the device; the device is closed even if it is stalled */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            if (getState() == State.OPEN)
+                flush();
+        }
+        finally
+        {
+            Thread thread = null;
+            boolean open = false;
+            lock.lock();
+            try
+            {
+                if (state != State.CLOSED)
+                {
+                    open = true;
+                    closing = true;
+                    state = State.CLOSED;
+                    thread = ioThread;
+                    notEmpty.signal();
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            if (open)
+            {
+                out.close(); //also unblocks a stalled device write on most platforms
+                if (thread != null)
+                    thread.interrupt();
+            }
+        }
+    }
+
+    private void check() throws IOException
+    {
+        //pre: lock held
+        if (failure != null)
+            throw failure;
+        if (closing)
+            throw new IOException("device writer of printer " + name + " is closed");
+    }
+
+    private void start()
+    {
+        //pre: lock held
+        if (ioThread != null)
+            return;
+        ioThread = new Thread(this::drain, "device-writer-" + name);
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    private long await(Condition condition, long deadline, int transferred) throws IOException
+    {
+        //pre: lock held; post: returns the same deadline or throws once it is reached
+        long now = System.nanoTime();
+        if (now - deadline >= 0)
+        {
+            updateStall(now);
+            InterruptedIOException ex = new InterruptedIOException("printer " + name + " did not accept data for "
+                + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms");
+            ex.bytesTransferred = transferred;
+            throw ex;
+        }
+
+        try
+        {
+            condition.awaitNanos(deadline - now);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("interrupted while writing to printer " + name);
+            interrupted.bytesTransferred = transferred;
+            throw interrupted;
+        }
+        return deadline;
+    }
+
+    private void updateStall(long now)
+    {
+        //pre: lock held
+        if (state == State.OPEN && deviceWriteStart != 0 && now - deviceWriteStart > timeoutNanos)
+            state = State.STALLED;
+    }
+
+    private void drain()
+    {
+        while (true)
+        {
+            int offset;
+            int length;
+            lock.lock();
+            try
+            {
+                while (count == 0 && !closing)
+                    notEmpty.awaitUninterruptibly();
+                if (closing)
+                    return; //close() flushed whatever could be written
+
+                offset = head;
+                length = Math.min(count, ring.length - head); //callers only fill the free part, this region stays as is
+                deviceWriteStart = System.nanoTime();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            boolean becameWritable = false;
+            IOException error = null;
+            try
+            {
+                out.write(ring, offset, length);
+            }
+            catch (IOException ex)
+            {
+                error = ex;
+            }
+
+            lock.lock();
+            try
+            {
+                deviceWriteStart = 0;
+                if (closing && failure != null)
+                {
+                    //aborted during the write, the ring was discarded
+                }
+                else if (error != null)
+                {
+                    if (state != State.CLOSED)
+                    {
+                        failure = error;
+                        state = State.FAILED;
+                    }
+                    count = 0;
+                }
+                else
+                {
+                    head = (head + length) % ring.length;
+                    count -= length;
+                    if (state == State.STALLED)
+                        state = State.OPEN;
+                    if (!writable && count <= lowWatermark)
+                    {
+                        writable = true;
+                        becameWritable = true;
+                    }
+                }
+                drained.signalAll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            if (error != null)
+            {
+                if (!closing)
+                {
+                    Logger.getLogger(DeviceWriter.class.getName()).log(Level.SEVERE, null, error);
+                    Listener l = listener;
+                    if (l != null)
+                        l.failed(this, error);
+                }
+                return;
+            }
+            if (becameWritable)
+                notifyWritability(true);
+        }
+    }
+
+    private void notifyWritability(boolean writable)
+    {
+        Listener l = listener;
+        if (l != null)
+            l.writabilityChanged(this, writable);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder strb = new StringBuilder();
+        strb.append("<DeviceWriter[printer=").append(name).append(", state=").append(getState());
+        strb.append(", buffered=").append(buffered()).append('/').append(ring.length).append("]>");
+        return strb.toString();
+    }
+}
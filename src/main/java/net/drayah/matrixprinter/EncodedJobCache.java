@@ -0,0 +1,258 @@
+/*
+ * EncodedJobCache.java
+ *
+ * Cache of fully encoded print jobs, so a reprint goes from memory to the printer without running the EscPrinter
+ * commands again. Entries are keyed by document identity (an invoice number) or by a hash of the document content
+ * (see contentKey), and the least recently used ones are dropped once the total size exceeds the limit.
+ *
+ * Off-heap, the jobs are kept in direct buffers: a large cache then adds nothing to the heap the garbage collector
+ * scans and copies, the cost is one copy when a job is handed out as a byte array (get, submit). writeTo streams it
+ * out in small chunks instead.
+ *
+ * Usage:
+ *     EncodedJobCache cache = new EncodedJobCache(64 * 1024 * 1024, true);
+ *     printer.printCached(cache, "invoice-" + number, p -> invoice.print(p));
+ */
+
+package net.drayah.matrixprinter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+public class EncodedJobCache
+{
+    private final long maxBytes;
+    private final boolean offHeap;
+    private final Map<Object, ByteBuffer> jobs = new LinkedHashMap<>(16, 0.75f, true); //guarded by this, access order
+    private long bytes; //guarded by this
+    private long hits; //guarded by this
+    private long misses; //guarded by this
+    private long evictions; //guarded by this
+
+    /** Creates an empty cache
+     *  @param maxBytes total size of the jobs kept, a job larger than that is not cached
+     *  @param offHeap keep the jobs in direct buffers instead of heap arrays
+     */
+    public EncodedJobCache(long maxBytes, boolean offHeap)
+    {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("cache size must be positive");
+
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+    }
+
+    /** @return a key identifying a document by its content, SHA-256 of {@code content} in hex */
+    public static String contentKey(byte[] content)
+    {
+        try
+        {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException(ex); //every java platform provides SHA-256
+        }
+    }
+
+    /** @see #contentKey(byte[]) */
+    public static String contentKey(CharSequence content)
+    {
+        return contentKey(content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** @return a copy of the job cached under {@code key}, null if there is none (counted as a miss) */
+    public byte[] get(Object key)
+    {
+        ByteBuffer job = lookup(key);
+        if (job == null)
+            return null;
+
+        byte[] data = new byte[job.remaining()];
+        job.get(data);
+        return data;
+    }
+
+    /**
+     *  caches a copy of {@code data} under {@code key}, replacing the previous job, then drops the least recently used
+     *  jobs until the size limit is met
+     */
+    public void put(Object key, byte[] data)
+    {
+        if (key == null || data == null)
+            throw new IllegalArgumentException("the key and data cannot be null");
+
+        if (data.length > maxBytes)
+        {
+            invalidate(key);
+            return;
+        }
+
+        ByteBuffer job = offHeap ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length);
+        job.put(data).flip();
+        synchronized (this)
+        {
+            ByteBuffer previous = jobs.put(key, job);
+            if (previous != null)
+                bytes -= previous.capacity();
+            bytes += data.length;
+
+            Iterator<ByteBuffer> eldest = jobs.values().iterator();
+            while (bytes > maxBytes)
+            {
+                bytes -= eldest.next().capacity();
+                eldest.remove();
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     *  @param encoder encodes the job when it is not cached, e.g. {@code () -> group.render(invoice::print)}
+     *  @return a copy of the job cached under {@code key}, encoded and cached first on a miss
+     */
+    public byte[] get(Object key, Supplier<byte[]> encoder)
+    {
+        byte[] data = get(key);
+        if (data == null)
+        {
+            data = encoder.get();
+            put(key, data);
+        }
+        return data;
+    }
+
+    /**
+     *  writes the job cached under {@code key} to {@code out}, does not flush it
+     *  @return the number of bytes written, -1 if there is no such job (counted as a miss)
+     */
+    public long writeTo(Object key, OutputStream out) throws IOException
+    {
+        ByteBuffer job = lookup(key);
+        if (job == null)
+            return -1;
+
+        int length = job.remaining();
+        if (job.hasArray())
+        {
+            out.write(job.array(), job.arrayOffset() + job.position(), length);
+        }
+        else
+        {
+            WritableByteChannel channel = Channels.newChannel(out);
+            while (job.hasRemaining())
+                channel.write(job);
+        }
+        return length;
+    }
+
+    /**
+     *  queues the job cached under {@code key} on {@code printerName}
+     *  @return the spooler's future, null if there is no such job (counted as a miss)
+     */
+    public CompletableFuture<Void> submit(Object key, EscSpooler spooler, String printerName)
+    {
+        byte[] data = get(key);
+        return data == null ? null : spooler.submit(printerName, data);
+    }
+
+    private ByteBuffer lookup(Object key)
+    {
+        //post: returns a private view of the job, so concurrent readers do not share a position
+        synchronized (this)
+        {
+            ByteBuffer job = jobs.get(key);
+            if (job == null)
+            {
+                misses++;
+                return null;
+            }
+            hits++;
+            return job.duplicate();
+        }
+    }
+
+    public synchronized boolean contains(Object key)
+    {
+        return jobs.containsKey(key);
+    }
+
+    public synchronized void invalidate(Object key)
+    {
+        ByteBuffer previous = jobs.remove(key);
+        if (previous != null)
+            bytes -= previous.capacity();
+    }
+
+    public synchronized void clear()
+    {
+        jobs.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size()
+    {
+        return jobs.size();
+    }
+
+    /** @return total size of the cached jobs */
+    public synchronized long getBytes()
+    {
+        return bytes;
+    }
+
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    public boolean isOffHeap()
+    {
+        return offHeap;
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /** @return jobs dropped to stay within the size limit */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /** @return hits over lookups, 0 before the first one */
+    public synchronized double getHitRatio()
+    {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder strb = new StringBuilder();
+        strb.append("<EncodedJobCache[jobs=").append(jobs.size()).append(", bytes=").append(bytes).append('/').append(maxBytes);
+        strb.append(offHeap ? ", off-heap" : "").append(", hits=").append(hits).append(", misses=").append(misses);
+        strb.append(", evictions=").append(evictions).append("]>");
+        return strb.toString();
+    }
+}
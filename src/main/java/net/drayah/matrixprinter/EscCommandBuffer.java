@@ -0,0 +1,153 @@
+/*
+ * EscCommandBuffer.java
+ *
+ * Growable byte buffer holding raw ESC/P opcodes until they are written to the printer in one large write.
+ * Command methods of EscPrinter append here instead of going through PrintStream one char at a time,
+ * so there is no charset encoding, no locking and no flushing per byte.
+ *
+ * Not thread safe, like the EscPrinter that owns it.
+ */
+
+package net.drayah.matrixprinter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+public class EscCommandBuffer
+{
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    private byte[] buf;
+    private int count;
+
+    /** Creates an empty buffer with the default capacity (8 KiB) */
+    public EscCommandBuffer()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /** Creates an empty buffer
+     *  @param capacity initial capacity in bytes, grows when needed
+     */
+    public EscCommandBuffer(int capacity)
+    {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+
+        buf = new byte[capacity];
+    }
+
+    public void write(int b) {
+        if (count == buf.length)
+            grow(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    public void write(int b1, int b2) {
+        if (count + 2 > buf.length)
+            grow(count + 2);
+        buf[count++] = (byte) b1;
+        buf[count++] = (byte) b2;
+    }
+
+    public void write(int b1, int b2, int b3) {
+        if (count + 3 > buf.length)
+            grow(count + 3);
+        buf[count++] = (byte) b1;
+        buf[count++] = (byte) b2;
+        buf[count++] = (byte) b3;
+    }
+
+    public void write(int b1, int b2, int b3, int b4) {
+        if (count + 4 > buf.length)
+            grow(count + 4);
+        buf[count++] = (byte) b1;
+        buf[count++] = (byte) b2;
+        buf[count++] = (byte) b3;
+        buf[count++] = (byte) b4;
+    }
+
+    public void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    public void write(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > bytes.length)
+            throw new IndexOutOfBoundsException();
+
+        if (count + length > buf.length)
+            grow(count + length);
+        System.arraycopy(bytes, offset, buf, count, length);
+        count += length;
+    }
+
+    /** Appends {@code text[start, end)} translated through {@code table} (one byte per char, see CharacterTable) */
+    void writeTranslated(CharSequence text, int start, int end, byte[] table) {
+        if (start < 0 || end < start || end > text.length())
+            throw new IndexOutOfBoundsException(); //checked first, a bad range must not leave part of the text in the buffer
+
+        int length = end - start;
+        if (count + length > buf.length)
+            grow(count + length);
+        for (int i = start; i < end; i++)
+            buf[count++] = table[text.charAt(i)];
+    }
+
+    void writeTranslated(char[] chars, int offset, int length, byte[] table) {
+        if (offset < 0 || length < 0 || offset + length > chars.length)
+            throw new IndexOutOfBoundsException();
+
+        if (count + length > buf.length)
+            grow(count + length);
+        for (int i = offset; i < offset + length; i++)
+            buf[count++] = table[chars[i]];
+    }
+
+    /** Repeats the byte {@code b} {@code times} times (e.g. runs of TAB) */
+    public void fill(int b, int times) {
+        if (times <= 0)
+            return;
+
+        if (count + times > buf.length)
+            grow(count + times);
+        Arrays.fill(buf, count, count + times, (byte) b);
+        count += times;
+    }
+
+    /**
+     *  writes the whole content of the buffer to {@code out} in a single call and empties the buffer
+     *  @param out the device or stream receiving the bytes
+     *  @throws IOException if {@code out} fails, the buffer is left untouched in that case
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (count == 0)
+            return;
+
+        out.write(buf, 0, count);
+        count = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void reset() {
+        count = 0;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    private void grow(int minCapacity) {
+        //post: doubles the capacity (at least minCapacity), existing content is kept
+        if (minCapacity < 0)
+            throw new OutOfMemoryError("command buffer too large");
+
+        int newCapacity = Math.max(buf.length << 1, minCapacity);
+        if (newCapacity < 0)
+            newCapacity = Integer.MAX_VALUE - 8;
+        buf = Arrays.copyOf(buf, newCapacity);
+    }
+}
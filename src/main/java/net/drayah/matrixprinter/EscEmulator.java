@@ -0,0 +1,593 @@
+/*
+ * EscEmulator.java
+ *
+ * Virtual ESC/P printer running in memory, to test and load-test printing code without a device or a print service.
+ * It interprets what EscPrinter emits: ESC @, ESC P/g/p, ESC x, ESC ( t and ESC t, ESC E/F, ESC J, ESC $, ESC \,
+ * ESC l/Q, ESC C, line spacing (ESC 0/1/2/3/A) and CR, LF, FF, TAB, with the print head position and the page length,
+ * wrapping at the right margin as the printer does. Other commands and graphics data are counted and skipped.
+ *
+ * Every character printed is kept with its position on the current page. Pages are rendered to text grids or images
+ * once ejected; only the last pages are retained (see setRetainedPages), so millions of documents can be pushed
+ * through with constant memory.
+ *
+ * Positions are in 1/1080 inch, the smallest unit every ESC/P step (1/60, 1/120, 1/180, 1/216, 1/72) is a multiple of.
+ *
+ * Usage:
+ *     EscEmulator emulator = new EscEmulator(false);
+ *     EscPrinter printer = new EscPrinter("emulated", false);
+ *     printer.initialize(emulator); //or initialize(emulator.asTransport()), or new EscSpooler(emulator, ...)
+ *     ...
+ *     printer.formFeed();
+ *     printer.flush();
+ *     System.out.println(emulator.getPages().get(0).toText());
+ */
+
+package net.drayah.matrixprinter;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+public class EscEmulator extends OutputStream implements PrintSink
+{
+    public static final int UNITS_PER_INCH = 1080;
+
+    private static final int PAGE_WIDTH = 8 * UNITS_PER_INCH; //80 columns at 10 cpi
+    private static final int DEFAULT_PAGE_LENGTH = 11 * UNITS_PER_INCH;
+    private static final int DEFAULT_LINE_SPACING = UNITS_PER_INCH / 6;
+    private static final int TAB_COLUMNS = 8;
+    private static final char[][] TABLES = new char[26][]; //printer byte to char, by registered table number
+
+    private final boolean escp24pin;
+    private final EscTokenizer tokenizer = new EscTokenizer(new Interpreter());
+    private final Deque<Page> pages = new ArrayDeque<>();
+    private int retainedPages = 100;
+    private Consumer<Page> pageListener;
+
+    /* printer state */
+    private int x; //head position from the left edge
+    private int y; //from the top of form
+    private int pitch;
+    private boolean proportional;
+    private boolean bold;
+    private boolean letterQuality;
+    private int leftMargin;
+    private int rightMargin;
+    private int lineSpacing;
+    private int pageLength;
+    private final int[] assigned = new int[4]; //registered table of each selectable table (ESC ( t)
+    private char[] table;
+    private Page page;
+
+    /* counters */
+    private long bytes;
+    private long commands;
+    private long ignoredCommands;
+    private long characters;
+    private long pageCount;
+
+    /** @param escp24pin interpret the vertical and relative horizontal units of a 24 pin esc/p2 printer */
+    public EscEmulator(boolean escp24pin)
+    {
+        this.escp24pin = escp24pin;
+        this.page = new Page(1);
+        powerOn();
+    }
+
+    /** number of ejected pages kept for getPages(), the oldest are dropped, 100 by default */
+    public synchronized void setRetainedPages(int pages)
+    {
+        if (pages < 0)
+            throw new IllegalArgumentException("retained pages cannot be negative");
+        retainedPages = pages;
+        while (this.pages.size() > pages)
+            this.pages.removeFirst();
+    }
+
+    /** receives every page when it is ejected, on the writing thread */
+    public synchronized void setPageListener(Consumer<Page> listener)
+    {
+        this.pageListener = listener;
+    }
+
+    /** interprets {@code data} as if it had been received by the printer */
+    @Override
+    public synchronized void write(byte[] data, int offset, int length)
+    {
+        bytes += length;
+        tokenizer.feed(data, offset, length);
+    }
+
+    @Override
+    public void write(int b)
+    {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    /** the emulator stays usable, closing only ends the current job (a command left incomplete is dropped) */
+    @Override
+    public synchronized void close()
+    {
+        tokenizer.end();
+    }
+
+    /** interprets {@code data} as one job, whatever the printer name, for EscSpooler and PrintBatcher */
+    @Override
+    public synchronized void print(String printerName, byte[] data)
+    {
+        write(data, 0, data.length);
+        tokenizer.end();
+    }
+
+    /**
+     *  @return a transport opening this emulator whatever the printer name. A view rather than an interface of the emulator,
+     *  so initialize(emulator) is not ambiguous between initialize(OutputStream) and initialize(PrinterTransport)
+     */
+    public PrinterTransport asTransport()
+    {
+        return printerName -> this;
+    }
+
+    /** clears the pages, the counters and the printer state, as if the printer was switched off and on */
+    public synchronized void clear()
+    {
+        tokenizer.end();
+        pages.clear();
+        bytes = commands = ignoredCommands = characters = pageCount = 0;
+        page = new Page(1);
+        powerOn();
+    }
+
+    /** @return the last ejected pages, oldest first */
+    public synchronized List<Page> getPages()
+    {
+        return new ArrayList<>(pages);
+    }
+
+    /** @return the page being printed, not ejected yet: only read it from the thread writing to the emulator */
+    public synchronized Page getCurrentPage()
+    {
+        return page;
+    }
+
+    public synchronized long getPageCount()
+    {
+        return pageCount;
+    }
+
+    public synchronized long getBytes()
+    {
+        return bytes;
+    }
+
+    /** @return escape sequences received, ignored ones included */
+    public synchronized long getCommands()
+    {
+        return commands;
+    }
+
+    /** @return escape sequences received that the emulator does not interpret */
+    public synchronized long getIgnoredCommands()
+    {
+        return ignoredCommands;
+    }
+
+    public synchronized long getCharacters()
+    {
+        return characters;
+    }
+
+    /** @return the horizontal head position from the left edge of the paper, in 1/1080 inch */
+    public synchronized int getX()
+    {
+        return x;
+    }
+
+    /** @return the vertical print position from the top of form, in 1/1080 inch */
+    public synchronized int getY()
+    {
+        return y;
+    }
+
+    public synchronized boolean isBold()
+    {
+        return bold;
+    }
+
+    public synchronized int getCharactersPerInch()
+    {
+        return UNITS_PER_INCH / pitch;
+    }
+
+    private void powerOn()
+    {
+        y = 0;
+        Arrays.fill(assigned, 0);
+        assigned[1] = EscPrinter.USA;
+        initialize();
+    }
+
+    private void initialize()
+    {
+        //ESC @: settings back to their defaults, the vertical position is kept
+        pitch = UNITS_PER_INCH / 10;
+        proportional = false;
+        bold = false;
+        letterQuality = false;
+        leftMargin = 0;
+        rightMargin = PAGE_WIDTH;
+        lineSpacing = DEFAULT_LINE_SPACING;
+        pageLength = DEFAULT_PAGE_LENGTH;
+        table = table(assigned[1]);
+        x = leftMargin;
+    }
+
+    private static char[] table(int registered)
+    {
+        synchronized (TABLES)
+        {
+            int index = registered < TABLES.length ? registered : 0;
+            if (TABLES[index] == null)
+            {
+                Charset charset = registered == EscPrinter.USA && Charset.isSupported("IBM437") ? Charset.forName("IBM437")
+                    : registered == EscPrinter.BRAZIL ? StandardCharsets.ISO_8859_1 : StandardCharsets.US_ASCII;
+                char[] chars = new char[256];
+                for (int b = 0; b < 256; b++)
+                {
+                    String decoded = new String(new byte[] { (byte) b }, charset);
+                    chars[b] = b < 32 || decoded.length() != 1 ? '?' : decoded.charAt(0);
+                }
+                TABLES[index] = chars;
+            }
+            return TABLES[index];
+        }
+    }
+
+    private void text(byte[] data, int offset, int length)
+    {
+        int width = pitch;
+        for (int i = offset; i < offset + length; i++)
+        {
+            if (x + width > rightMargin)
+                newLine(lineSpacing); //the printer wraps at the right margin
+            page.add(x, y, table[data[i] & 0xFF], bold);
+            x += width;
+        }
+        characters += length;
+    }
+
+    private void newLine(int advance)
+    {
+        x = leftMargin;
+        advance(advance);
+    }
+
+    private void advance(int units)
+    {
+        y += units;
+        while (y >= pageLength) //past the bottom of the form, continuous paper goes on to the next page
+        {
+            y -= pageLength;
+            eject();
+        }
+    }
+
+    private void eject()
+    {
+        Page ejected = page;
+        pageCount++;
+        page = new Page(pageCount + 1);
+        if (retainedPages > 0)
+        {
+            if (pages.size() == retainedPages)
+                pages.removeFirst();
+            pages.addLast(ejected);
+        }
+        if (pageListener != null)
+            pageListener.accept(ejected);
+    }
+
+    private void command(int command, byte[] params, int count)
+    {
+        int n = count > 0 ? params[0] & 0xFF : 0;
+        int n16 = count > 1 ? n | (params[1] & 0xFF) << 8 : n;
+        commands++;
+
+        switch (command)
+        {
+            case '@':
+                initialize();
+                break;
+            case 'P':
+                pitch = UNITS_PER_INCH / 10;
+                break;
+            case 'M':
+                pitch = UNITS_PER_INCH / 12;
+                break;
+            case 'g':
+                pitch = UNITS_PER_INCH / 15;
+                break;
+            case 'p':
+                proportional = (n & 1) != 0; //widths are not emulated, characters keep the pitch width
+                break;
+            case 'x':
+                letterQuality = (n & 1) != 0;
+                break;
+            case 'E':
+                bold = true;
+                break;
+            case 'F':
+                bold = false;
+                break;
+            case 't':
+                table = table(assigned[n & 3]);
+                break;
+            case '(':
+                if (count >= 6 && params[0] == 't') //ESC ( t 3 0 d1 d2 d3
+                    assigned[params[3] & 3] = params[4] & 0xFF;
+                else
+                    ignoredCommands++;
+                break;
+            case 'J':
+                advance(n * verticalUnit());
+                break;
+            case '$':
+                x = leftMargin + n16 * (UNITS_PER_INCH / 60);
+                break;
+            case '\\':
+                x += (short) n16 * (escp24pin && letterQuality ? UNITS_PER_INCH / 180 : UNITS_PER_INCH / 120);
+                break;
+            case 'l':
+                leftMargin = n * pitch;
+                x = Math.max(x, leftMargin);
+                break;
+            case 'Q':
+                rightMargin = Math.min(PAGE_WIDTH, n * pitch);
+                break;
+            case 'C':
+                pageLength = count == 2 ? (params[1] & 0xFF) * UNITS_PER_INCH : n * lineSpacing;
+                y = 0; //the current position becomes the top of form
+                break;
+            case '0':
+                lineSpacing = UNITS_PER_INCH / 8;
+                break;
+            case '1':
+                lineSpacing = UNITS_PER_INCH * 7 / 72;
+                break;
+            case '2':
+                lineSpacing = DEFAULT_LINE_SPACING;
+                break;
+            case '3':
+                lineSpacing = n * verticalUnit();
+                break;
+            case 'A':
+                lineSpacing = n * (escp24pin ? UNITS_PER_INCH / 60 : UNITS_PER_INCH / 72);
+                break;
+            default:
+                ignoredCommands++;
+                break;
+        }
+    }
+
+    private int verticalUnit()
+    {
+        return escp24pin ? UNITS_PER_INCH / 180 : UNITS_PER_INCH / 216;
+    }
+
+    private void control(int code)
+    {
+        switch (code)
+        {
+            case 13: //CR
+                x = leftMargin;
+                break;
+            case 10: //LF
+                newLine(lineSpacing);
+                break;
+            case 12: //FF
+                x = leftMargin;
+                y = 0;
+                eject();
+                break;
+            case 9: //TAB
+            {
+                int tab = TAB_COLUMNS * pitch;
+                x = leftMargin + ((x - leftMargin) / tab + 1) * tab;
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder strb = new StringBuilder();
+        strb.append("<EscEmulator[24pin=").append(escp24pin).append(", pages=").append(pageCount);
+        strb.append(", characters=").append(characters).append(", commands=").append(commands).append("]>");
+        return strb.toString();
+    }
+
+    /** receives the tokens, the emulator lock is held by write() */
+    private final class Interpreter implements EscTokenizer.Handler
+    {
+        @Override
+        public void text(byte[] data, int offset, int length)
+        {
+            EscEmulator.this.text(data, offset, length);
+        }
+
+        @Override
+        public void control(int code)
+        {
+            EscEmulator.this.control(code);
+        }
+
+        @Override
+        public void command(int command, byte[] params, int count)
+        {
+            EscEmulator.this.command(command, params, count);
+        }
+
+        @Override
+        public void data(byte[] data, int offset, int length)
+        {
+            //graphics are not rendered
+        }
+    }
+
+    /** characters printed on one sheet with their positions, immutable once ejected */
+    public static final class Page
+    {
+        private final long number;
+        private int[] xs = new int[256];
+        private int[] ys = new int[256];
+        private char[] chars = new char[256];
+        private boolean[] bolds = new boolean[256];
+        private int length;
+
+        Page(long number)
+        {
+            this.number = number;
+        }
+
+        void add(int x, int y, char c, boolean bold)
+        {
+            if (length == chars.length)
+            {
+                int capacity = length * 2;
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+                chars = Arrays.copyOf(chars, capacity);
+                bolds = Arrays.copyOf(bolds, capacity);
+            }
+            xs[length] = x;
+            ys[length] = y;
+            chars[length] = c;
+            bolds[length++] = bold;
+        }
+
+        /** @return the page number, from 1 */
+        public long getNumber()
+        {
+            return number;
+        }
+
+        /** @return the number of characters printed */
+        public int length()
+        {
+            return length;
+        }
+
+        public char charAt(int index)
+        {
+            return chars[index];
+        }
+
+        /** @return the position of character {@code index} from the left edge, in 1/1080 inch */
+        public int getX(int index)
+        {
+            return xs[index];
+        }
+
+        /** @return the position of character {@code index} from the top of form, in 1/1080 inch */
+        public int getY(int index)
+        {
+            return ys[index];
+        }
+
+        public boolean isBold(int index)
+        {
+            return bolds[index];
+        }
+
+        /** @return the page on a grid of 10 characters per inch and 6 lines per inch */
+        public String toText()
+        {
+            return toText(10, 6);
+        }
+
+        /**
+         *  @return the page on a grid of {@code charactersPerInch} x {@code linesPerInch} cells, trailing spaces and
+         *  blank lines at the bottom removed; characters printed in the same cell overwrite each other
+         */
+        public String toText(int charactersPerInch, int linesPerInch)
+        {
+            int cellWidth = UNITS_PER_INCH / charactersPerInch;
+            int cellHeight = UNITS_PER_INCH / linesPerInch;
+            int rows = 0;
+            int columns = 0;
+            for (int i = 0; i < length; i++)
+            {
+                rows = Math.max(rows, (ys[i] + cellHeight / 2) / cellHeight + 1);
+                columns = Math.max(columns, (xs[i] + cellWidth / 2) / cellWidth + 1);
+            }
+
+            char[][] grid = new char[rows][columns];
+            for (char[] row : grid)
+                Arrays.fill(row, ' ');
+            for (int i = 0; i < length; i++)
+            {
+                if (chars[i] != ' ')
+                    grid[(ys[i] + cellHeight / 2) / cellHeight][(xs[i] + cellWidth / 2) / cellWidth] = chars[i];
+            }
+
+            StringBuilder strb = new StringBuilder(rows * (columns + 1));
+            for (char[] row : grid)
+            {
+                int end = row.length;
+                while (end > 0 && row[end - 1] == ' ')
+                    end--;
+                strb.append(row, 0, end).append('\n');
+            }
+            return strb.toString();
+        }
+
+        /** @return a picture of the page (8.5 x 11 inch) at {@code dpi} dots per inch, in a monospaced font */
+        public BufferedImage toImage(int dpi)
+        {
+            BufferedImage image = new BufferedImage(dpi * 17 / 2, dpi * 11, BufferedImage.TYPE_BYTE_GRAY);
+            Graphics2D g = image.createGraphics();
+            try
+            {
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, image.getWidth(), image.getHeight());
+                g.setColor(Color.BLACK);
+                int size = Math.max(1, dpi / 7); //about 10 points
+                Font plain = new Font(Font.MONOSPACED, Font.PLAIN, size);
+                Font bold = plain.deriveFont(Font.BOLD);
+                char[] c = new char[1];
+                for (int i = 0; i < length; i++)
+                {
+                    g.setFont(bolds[i] ? bold : plain);
+                    c[0] = chars[i];
+                    g.drawChars(c, 0, 1, (int) ((long) xs[i] * dpi / UNITS_PER_INCH), (int) ((long) ys[i] * dpi / UNITS_PER_INCH) + size);
+                }
+            }
+            finally
+            {
+                g.dispose();
+            }
+            return image;
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder strb = new StringBuilder();
+            strb.append("<Page[number=").append(number).append(", characters=").append(length).append("]>");
+            return strb.toString();
+        }
+    }
+}
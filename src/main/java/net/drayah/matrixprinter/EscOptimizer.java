@@ -0,0 +1,331 @@
+/*
+ * EscOptimizer.java
+ *
+ * Rewrites an ESC/P stream into a shorter one that prints the same, in one pass over the EscTokenizer tokens.
+ * The rules follow the optimizing mode of EscPrinter:
+ *  - mode switches (bold, pitch, quality, proportional, character table, underline, italic, double strike, line
+ *    spacing) are held back until something is printed, and only sent if they change the printer state;
+ *  - an ESC @ is held back the same way, so repeated resets and the switches made useless by a reset disappear;
+ *  - consecutive ESC J advances are merged and only the last of consecutive ESC $ positions is kept.
+ * Everything else (text, other commands, graphics data) is copied unchanged, in order. After a construct whose length
+ * cannot be known (see EscTokenizer) the rest of the stream is copied as is.
+ *
+ * Usage:
+ *     EscStreamReport report = EscOptimizer.optimize(Paths.get("legacy.prn"), Paths.get("job.prn"));
+ *     System.out.println(report.getPages() + " pages, " + report.getSavedBytes() + " bytes saved");
+ */
+
+package net.drayah.matrixprinter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class EscOptimizer implements EscTokenizer.Handler
+{
+    private static final int ESC = 27;
+    private static final int CR = 13;
+    private static final int FLUSH_THRESHOLD = 8192;
+    private static final int MAX_ADVANCE = 127; //ESC J n, capped like EscPrinter, larger advances misbehave on some printers
+    private static final int UNKNOWN = -1;
+
+    /* tracked printer state, the value of a key is its command byte << 8 | normalized parameter */
+    private static final int BOLD = 0, DOUBLE_STRIKE = 1, ITALIC = 2, PITCH = 3, QUALITY = 4, PROPORTIONAL = 5,
+        TABLE = 6, UNDERLINE = 7, SPACING = 8, KEYS = 9;
+    private static final int[] AFTER_RESET = new int[KEYS]; //state defined by ESC @, UNKNOWN where it comes from the panel settings
+
+    static
+    {
+        Arrays.fill(AFTER_RESET, UNKNOWN);
+        AFTER_RESET[BOLD] = 'F' << 8;
+        AFTER_RESET[DOUBLE_STRIKE] = 'H' << 8;
+        AFTER_RESET[ITALIC] = '5' << 8;
+        AFTER_RESET[UNDERLINE] = '-' << 8;
+        AFTER_RESET[SPACING] = '2' << 8;
+    }
+
+    private final OutputStream out;
+    private final EscValidator validator = new EscValidator(); //counts pages, commands and problems of the input
+    private final EscCommandBuffer buffer = new EscCommandBuffer(FLUSH_THRESHOLD * 2);
+    private final int[] desired = new int[KEYS];
+    private final int[] actual = new int[KEYS];
+    private final byte[] raw = new byte[KEYS * 2]; //bytes to send for the desired state: command, parameter
+    private boolean pendingReset;
+    private int pendingVertical;
+    private int pendingHorizontal = UNKNOWN;
+    private long bytesOut;
+
+    /** @param out receives the rewritten stream, not closed */
+    public EscOptimizer(OutputStream out)
+    {
+        if (out == null)
+            throw new IllegalArgumentException("the output stream cannot be null");
+
+        this.out = out;
+        Arrays.fill(desired, UNKNOWN);
+        Arrays.fill(actual, UNKNOWN);
+    }
+
+    /** rewrites {@code source} into {@code target} */
+    public static EscStreamReport optimize(Path source, Path target) throws IOException
+    {
+        try (InputStream in = Files.newInputStream(source); OutputStream out = Files.newOutputStream(target))
+        {
+            return optimize(in, out);
+        }
+    }
+
+    /** rewrites {@code in} to its end into {@code out}, closes neither */
+    public static EscStreamReport optimize(InputStream in, OutputStream out) throws IOException
+    {
+        EscOptimizer optimizer = new EscOptimizer(out);
+        try
+        {
+            new EscTokenizer(optimizer).tokenize(in, EscValidator.BUFFER_SIZE);
+        }
+        catch (UncheckedIOException ex)
+        {
+            throw ex.getCause();
+        }
+        return optimizer.finish();
+    }
+
+    /**
+     *  writes what is held back that still matters (a final reset, mode switches, the last paper advance) and flushes the
+     *  output, so whatever is printed after the stream starts in the state the stream left
+     *  @return the report, bytes out included
+     */
+    public EscStreamReport finish() throws IOException
+    {
+        pendingHorizontal = UNKNOWN; //nothing printed at that position
+        flushPending();
+        writeBuffer();
+        out.flush();
+
+        EscStreamReport report = validator.finish();
+        report.bytesOut = bytesOut;
+        return report;
+    }
+
+    @Override
+    public void text(byte[] bytes, int offset, int length)
+    {
+        validator.text(bytes, offset, length);
+        flushPending();
+        buffer.write(bytes, offset, length);
+        endToken();
+    }
+
+    @Override
+    public void control(int code)
+    {
+        validator.control(code);
+        if (code == CR)
+            pendingHorizontal = UNKNOWN; //carriage return goes back to the left margin anyway
+        flushPending();
+        buffer.write(code);
+        endToken();
+    }
+
+    @Override
+    public void data(byte[] bytes, int offset, int length)
+    {
+        validator.data(bytes, offset, length);
+        buffer.write(bytes, offset, length); //graphics data follows its command, nothing can be pending
+        endToken();
+    }
+
+    @Override
+    public void problem(long offset, String message)
+    {
+        validator.problem(offset, message);
+    }
+
+    @Override
+    public void command(int command, byte[] params, int count)
+    {
+        validator.command(command, params, count);
+        int n = count > 0 ? params[0] & 0xFF : 0;
+
+        switch (command)
+        {
+            case '@':
+                flushMotion(); //ESC J prints the line buffer the reset would clear
+                pendingReset = true;
+                System.arraycopy(AFTER_RESET, 0, desired, 0, KEYS);
+                for (int key = 0; key < KEYS; key++)
+                {
+                    raw[key * 2] = (byte) (AFTER_RESET[key] >> 8);
+                    raw[key * 2 + 1] = 0;
+                }
+                return;
+            case 'E': case 'F': case 'G': case 'H': case '4': case '5': case 'P': case 'M': case 'g': case '0': case '1': case '2':
+                hold(key(command), command, -1);
+                return;
+            case 'x': case 'p': case '-': case 't': case '3': case 'A': case '+':
+                if (count == 1)
+                {
+                    hold(key(command), command, n);
+                    return;
+                }
+                break;
+            case 'J':
+                if (count == 1)
+                {
+                    pendingVertical += n;
+                    return;
+                }
+                break;
+            case '$':
+                if (count == 2)
+                {
+                    pendingHorizontal = n | (params[1] & 0xFF) << 8;
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+
+        flushPending();
+        buffer.write(ESC, command);
+        buffer.write(params, 0, count);
+        invalidate(command, count > 0 ? n : UNKNOWN);
+        endToken();
+    }
+
+    private static int key(int command)
+    {
+        switch (command)
+        {
+            case 'E': case 'F':
+                return BOLD;
+            case 'G': case 'H':
+                return DOUBLE_STRIKE;
+            case '4': case '5':
+                return ITALIC;
+            case 'P': case 'M': case 'g':
+                return PITCH;
+            case 'x':
+                return QUALITY;
+            case 'p':
+                return PROPORTIONAL;
+            case 't':
+                return TABLE;
+            case '-':
+                return UNDERLINE;
+            default:
+                return SPACING; //ESC 0, 1, 2, 3, A, +
+        }
+    }
+
+    private void hold(int key, int command, int param)
+    {
+        //post: the state change is sent before the next output, if it changes anything then
+        int value = param < 0 ? command << 8 : command << 8 | normalize(command, param);
+        desired[key] = value;
+        raw[key * 2] = (byte) command;
+        raw[key * 2 + 1] = (byte) param;
+    }
+
+    private static int normalize(int command, int param)
+    {
+        //ESC x, p, - accept 0/1 or '0'/'1', ESC t 0..3 or '0'..'3'
+        if ((command == 'x' || command == 'p' || command == '-' || command == 't') && param >= 48 && param <= 51)
+            return param - 48;
+        return param;
+    }
+
+    private void invalidate(int command, int param)
+    {
+        //post: keys changed by a command copied unchanged are unknown
+        switch (command)
+        {
+            case '!': //master select
+                actual[BOLD] = actual[DOUBLE_STRIKE] = actual[ITALIC] = actual[PITCH] = actual[UNDERLINE] = actual[PROPORTIONAL] = UNKNOWN;
+                break;
+            case '(': //ESC ( t reassigns the character tables
+                if (param == 't')
+                    actual[TABLE] = UNKNOWN;
+                break;
+            case 'X': //ESC/P2 font selection by pitch and point
+            case 'c':
+                actual[PITCH] = actual[PROPORTIONAL] = UNKNOWN;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void flushPending()
+    {
+        //post: held back reset, state changes and moves are written, in an order equivalent to the input
+        if (pendingReset)
+            reset();
+
+        for (int key = 0; key < KEYS; key++)
+        {
+            if (desired[key] == UNKNOWN || desired[key] == actual[key])
+                continue;
+
+            buffer.write(ESC, raw[key * 2]);
+            if (hasParameter(raw[key * 2]))
+                buffer.write(raw[key * 2 + 1]);
+            actual[key] = desired[key];
+        }
+        flushMotion();
+    }
+
+    private static boolean hasParameter(int command)
+    {
+        return command == 'x' || command == 'p' || command == '-' || command == 't' || command == '3' || command == 'A' || command == '+';
+    }
+
+    private void reset()
+    {
+        buffer.write(ESC, '@');
+        pendingReset = false;
+        System.arraycopy(AFTER_RESET, 0, actual, 0, KEYS);
+    }
+
+    private void flushMotion()
+    {
+        //ESC J and ESC $ commute, neither moves the other axis
+        if (pendingReset && (pendingVertical > 0 || pendingHorizontal != UNKNOWN))
+            reset();
+        while (pendingVertical > 0)
+        {
+            int n = Math.min(pendingVertical, MAX_ADVANCE);
+            buffer.write(ESC, 'J', n);
+            pendingVertical -= n;
+        }
+        if (pendingHorizontal != UNKNOWN)
+        {
+            buffer.write(ESC, '$', pendingHorizontal & 0xFF, pendingHorizontal >> 8);
+            pendingHorizontal = UNKNOWN;
+        }
+    }
+
+    private void endToken()
+    {
+        if (buffer.size() >= FLUSH_THRESHOLD)
+            writeBuffer();
+    }
+
+    private void writeBuffer()
+    {
+        try
+        {
+            bytesOut += buffer.size();
+            buffer.writeTo(out);
+        }
+        catch (IOException ex)
+        {
+            throw new UncheckedIOException(ex); //the tokenizer callbacks cannot throw, unwrapped by optimize()
+        }
+    }
+}
@@ -0,0 +1,1100 @@
+/*
+ 
+Copyright (c) 2006-2007, Giovanni Martina
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that 
+the following conditions are met:
+
+- Redistributions of source code must retain the above copyright notice, this list of conditions and the 
+following disclaimer.
+
+- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the 
+following disclaimer in the documentation and/or other materials provided with the distribution.
+
+- Neither the name of Drayah, Giovanni Martina nor the names of its contributors may be used to endorse or 
+promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED 
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A 
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY 
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH 
+DAMAGE.
+ * 
+ * ESCPrinter.java
+ *
+ * Created on 10 de Setembro de 2006, 13:57
+ *
+ * @author Giovanni <gio@drayah.net>
+ * Copyright © 2006 G.M. Martina
+ *
+ * Class that enables printing to ESC/P and ESC/P2 dot matrix printers (e.g. Epson LQ-570, Epson LX-300) by writing directly to a stream using standard I/O
+ * Like this we have direct control over the printerName and bypass Java2D printing which is considerably slower printing in graphics to a dotmatrix
+ *
+ */
+
+/*
+ *   Edited on 30/03/2015
+ *   @author Clement <fc86@outlook.fr>
+ *   Class that doesn't change the great work of Giovanni but add Linux Compatibility (maybe also on Mac, not tested). In Linux, use Windows sample, and just add print() call before closing streams
+ */
+
+package net.drayah.matrixprinter;
+
+import java.awt.image.BufferedImage;
+import java.awt.print.PrinterJob;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.print.Doc;
+import javax.print.DocFlavor;
+import javax.print.PrintException;
+import javax.print.PrintService;
+import javax.print.SimpleDoc;
+import javax.print.attribute.HashDocAttributeSet;
+import javax.print.attribute.PrintRequestAttributeSet;
+
+public class EscPrinter 
+{    
+    /* fields */
+    private String printerName;
+    private boolean escp24pin;
+    private OutputStream ostream;
+    private boolean ownsStream; //ostream was opened by this printer (device, transport), closed when initializing again
+    private FileInputStream istream;
+    private final EscCommandBuffer buffer;
+    private boolean streamOpenSuccess;
+    private boolean ioError;
+    private PrintMetrics metrics = defaultMetrics;
+    private long commands; //command calls encoded since the last flush
+    private boolean optimizing;
+    private CharacterTable characterTable = CharacterTable.forCharset(USA);
+    private char[] readBuffer; //print(Reader) chunk, allocated on first use
+    private static final int READ_CHUNK = 2048;
+    
+    /* printer state as set by the last commands sent, UNKNOWN when it cannot be known (e.g. margins after ESC @) */
+    private static final int UNKNOWN = -1;
+    private int boldState = UNKNOWN;
+    private int pitchState = UNKNOWN;
+    private int qualityState = UNKNOWN;
+    private int proportionalState = UNKNOWN;
+    private int charsetState = UNKNOWN;
+    private int leftMarginState = UNKNOWN;
+    private int rightMarginState = UNKNOWN;
+    private int pendingVertical; //ESC J units not sent yet (optimizing mode)
+    private int pendingHorizontal = NO_MOVE; //ESC $ units not sent yet (optimizing mode)
+    private static final int NO_MOVE = Integer.MIN_VALUE;
+    private static volatile PrintMetrics defaultMetrics = PrintMetrics.NONE;
+    private static final int FLUSH_THRESHOLD = 4096; //pending bytes are written to the device in one call once this size is reached
+    private static final int MAX_ADVANCE_9PIN = 216; //for 24/48 pin esc/p2 printers this should be 180
+    private static final int MAX_ADVANCE_24PIN = 180;
+    private static final int MAX_UNITS = 127; //for vertical positioning range is between 0 - 255 (0 <= n <= 255) according to epson ref. but 255 gives weird errors at 1.5f, 127 as max (0 - 128) seems to be working
+    private static final float CM_PER_INCH = 2.54f;
+    
+    /* decimal ascii values for epson ESC/P commands */
+    private static final char ESC = 27; //escape
+    private static final char AT = 64; //@
+    private static final char LINE_FEED = 10; //line feed/new line
+    private static final char PARENTHESIS_LEFT = 40;
+    private static final char BACKSLASH = 92;
+    private static final char CR = 13; //carriage return
+    private static final char TAB = 9; //horizontal tab
+    private static final char FF = 12; //form feed
+    private static final char g = 103; //15cpi pitch
+    private static final char p = 112; //used for choosing proportional mode or fixed-pitch
+    private static final char t = 116; //used for character set assignment/selection
+    private static final char l = 108; //used for setting left margin
+    private static final char x = 120; //used for setting draft or letter quality (LQ) printing
+    private static final char E = 69; //bold font on
+    private static final char F = 70; //bold font off
+    private static final char J = 74; //used for advancing paper vertically
+    private static final char P = 80; //10cpi pitch
+    private static final char Q = 81; //used for setting right margin
+    private static final char $ = 36; //used for absolute horizontal positioning
+    private static final char C = 67; //used for setting the page length
+    private static final char ARGUMENT_0 = 0;
+    private static final char ARGUMENT_1 = 1;
+    private static final char ARGUMENT_2 = 2;
+    private static final char ARGUMENT_3 = 3;
+    private static final char ARGUMENT_4 = 4;
+    private static final char ARGUMENT_5 = 5;
+    private static final char ARGUMENT_6 = 6;
+    private static final char ARGUMENT_7 = 7;
+    private static final char ARGUMENT_25 = 25;
+    
+    /* character sets */
+    public static final char USA = ARGUMENT_1;
+    public static final char BRAZIL = ARGUMENT_25;
+    
+    /** Creates a new instance of ESCPrinter
+     *  @param printerName the name or location of the printerName. On windows, you can specify the {@code printerName} by using \\computername\printername. 
+        In Linux, you can just give the name of the printerName as it is registered by the current user. To find all printers available, use the static method
+        EscPrinter.printServices() (the name of printers are available with the method getName() of a printService instance)
+     *  @param escp24pin indicates whether the printerName is a 24 pin esc/p2 epson
+     */
+    public EscPrinter(String printerName, boolean escp24pin) 
+    {
+        if (printerName == null)
+            throw new IllegalArgumentException("the printer name or location cannot be null");
+
+        this.printerName = printerName;
+        this.escp24pin = escp24pin;
+        this.buffer = new EscCommandBuffer();
+    }
+    
+    /** Creates an instance without any device, commands are only encoded into {@code buffer} (templates, in-memory jobs)
+     *  @param escp24pin indicates whether the target printer is a 24 pin esc/p2 epson
+     *  @param buffer receives the encoded commands, never flushed by this instance
+     */
+    EscPrinter(boolean escp24pin, EscCommandBuffer buffer) 
+    {
+        this.printerName = "";
+        this.escp24pin = escp24pin;
+        this.buffer = buffer;
+    }
+    
+    
+    /**
+     *  check if a printService is available for the printerName named {@code printerName}
+     *  @param printerName the name of the printer
+     *  @return a possibly empty array of PrintService (service of printerName).
+     */
+    public static boolean printerExists(String printerName)
+    {
+        return printService(printerName) != null;
+    }
+    
+    /**
+     *  retrieve a list of services of all registered printers for current user
+     *  @return a possibly empty array of PrintService (service of printerName).
+     */
+    public static PrintService[] printServices()
+    {               
+        return PrintServiceRegistry.getDefault().services();
+    }
+    
+    /**
+     *  try to retrieve a PrintService of the printer named {@code printerName}.
+     *  Services are cached by the {@link PrintServiceRegistry#getDefault() default registry}, call its {@code refresh()} after adding a printer
+     *  @param printerName the name of the printer to find
+     *  @return a PrintService of the printer printerName if found, else null.
+     */
+    public static PrintService printService(String printerName) 
+    {        
+        long start = System.nanoTime();
+        PrintService service = PrintServiceRegistry.getDefault().lookup(printerName);
+        defaultMetrics.phase(printerName, PrintPhase.LOOKUP, System.nanoTime() - start, service != null);
+        return service;
+    }
+    
+    /**
+     *  set the metrics used by the static lookups and by every EscPrinter created afterwards
+     *  @param metrics the listener, e.g. a {@link DefaultPrintMetrics}
+     */
+    public static void setDefaultMetrics(PrintMetrics metrics)
+    {
+        if (metrics == null)
+            throw new IllegalArgumentException("metrics cannot be null, use PrintMetrics.NONE");
+        
+        defaultMetrics = metrics;
+    }
+    
+    /** @return the metrics given to new printers, see setDefaultMetrics */
+    public static PrintMetrics getDefaultMetrics()
+    {
+        return defaultMetrics;
+    }
+    
+    /**
+     *  set the metrics receiving the bytes, commands and phase latencies of this printer
+     *  @param metrics the listener, PrintMetrics.NONE to disable
+     */
+    public void setMetrics(PrintMetrics metrics)
+    {
+        if (metrics == null)
+            throw new IllegalArgumentException("metrics cannot be null, use PrintMetrics.NONE");
+        
+        this.metrics = metrics;
+    }
+    
+    /**
+     *  try to retrieve a PrintService of the printer named {@code printerName}
+     *  @return a PrintService of the current printer if found, else null. 
+     *  @throws java.lang.Exception 
+     */
+    public PrinterJob createPrinterJob() throws Exception 
+    {
+        PrintService printService = EscPrinter.printService(printerName);
+
+        if (printService == null)
+            throw new IllegalStateException("Could not find Printer Service \"" + printerName + '"');
+
+        PrinterJob printerJob = PrinterJob.getPrinterJob();
+
+        printerJob.setPrintService(printService);
+
+        return printerJob;
+    }
+    
+    public void close() 
+    {
+        flush();
+        try 
+        {
+            if (istream != null)
+                istream.close();
+            if (ostream != null)
+                ostream.close();
+        } 
+        catch (IOException ex) 
+        {
+            ioError = true;
+            Logger.getLogger(EscPrinter.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+    
+    /**
+     *  writes all pending commands to the printer in a single write and waits until the device took them.
+     *  Like {@code PrintStream} did before, an I/O failure is logged and remembered (see {@link #checkError()}) instead of being thrown
+     */
+    public void flush()
+    {
+        flushMotion();
+        write(true);
+    }
+    
+    private void write(boolean drain)
+    {
+        //post: pending commands handed to the stream in one write, drain also waits for the device (DeviceWriter.flush)
+        if (ostream == null || buffer.size() == 0)
+        {
+            if (drain && ostream != null && !ioError)
+                drainDevice(); //earlier commands may still be on their way to the device
+            return; //nothing to write, no device write to time
+        }
+
+        int bytes = buffer.size();
+        long start = System.nanoTime();
+        boolean success = false;
+        try 
+        {
+            buffer.writeTo(ostream);
+            if (drain)
+                ostream.flush();
+            success = true;
+        } 
+        catch (IOException ex) 
+        {
+            ioError = true;
+            buffer.reset();
+            abortDevice(); //the rest of the job is dropped, the part already buffered must not be printed without it
+            Logger.getLogger(EscPrinter.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        finally
+        {
+            metrics.phase(printerName, PrintPhase.DEVICE_WRITE, System.nanoTime() - start, success);
+            if (success)
+                metrics.bytesWritten(printerName, bytes, commands);
+            commands = 0;
+        }
+    }
+    
+    private void drainDevice()
+    {
+        try 
+        {
+            ostream.flush();
+        } 
+        catch (IOException ex) 
+        {
+            ioError = true;
+            abortDevice();
+            Logger.getLogger(EscPrinter.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+    
+    /**
+     *  @return true if writing to the printer failed since it was initialized
+     */
+    public boolean checkError()
+    {
+        return ioError;
+    }
+    
+    public boolean initialize() 
+    {
+        long start = System.nanoTime();
+        try 
+        {
+            streamOpenSuccess = false;
+            ioError = false;
+            buffer.reset();
+            commands = 0;
+            pendingVertical = 0;
+            pendingHorizontal = NO_MOVE;
+            release(null);
+            
+            //create stream objs
+            ostream = new DeviceWriter(new FileOutputStream(printerName), printerName); //a stalled printer cannot block the caller forever
+            ownsStream = true;
+            istream = new FileInputStream(printerName);
+            
+            sendDefaults();
+            streamOpenSuccess = true;
+        } 
+        catch (FileNotFoundException ex)
+        {
+            Logger.getLogger(EscPrinter.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        
+        metrics.phase(printerName, PrintPhase.INITIALIZE, System.nanoTime() - start, streamOpenSuccess);
+        return streamOpenSuccess;
+    }
+    
+    /**
+     *  initialize the printer on an already open stream (socket, in-memory sink...) instead of opening the printer device.
+     *  print() cannot be used afterwards as there is no printer file to read back, close() closes {@code out}
+     *  @param out the stream receiving the commands
+     *  @return true
+     */
+    public boolean initialize(OutputStream out) 
+    {
+        if (out == null)
+            throw new IllegalArgumentException("the output stream cannot be null");
+        
+        ioError = false;
+        buffer.reset();
+        commands = 0;
+        pendingVertical = 0;
+        pendingHorizontal = NO_MOVE;
+        release(out);
+        ostream = out;
+        ownsStream = false;
+        istream = null;
+        
+        sendDefaults();
+        streamOpenSuccess = true;
+        return streamOpenSuccess;
+    }
+    
+    /**
+     *  initialize the printer on the stream opened by {@code transport} for the printer name, e.g. a RawTcpTransport for
+     *  network print servers. As with initialize(OutputStream), print() cannot be used afterwards
+     *  @return true if the transport could reach the printer
+     */
+    public boolean initialize(PrinterTransport transport) 
+    {
+        if (transport == null)
+            throw new IllegalArgumentException("the transport cannot be null");
+        
+        long start = System.nanoTime();
+        streamOpenSuccess = false;
+        try 
+        {
+            initialize(transport.open(printerName));
+            ownsStream = true; //a RawTcpTransport stream holds its connection until closed
+        } 
+        catch (IOException ex) 
+        {
+            Logger.getLogger(EscPrinter.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        
+        metrics.phase(printerName, PrintPhase.INITIALIZE, System.nanoTime() - start, streamOpenSuccess);
+        return streamOpenSuccess;
+    }
+    
+    private void release(OutputStream next)
+    {
+        //pre: initializing again; the stream the previous initialization opened (device writer, transport stream) keeps its I/O thread or connection until it is closed
+        try 
+        {
+            if (istream != null)
+                istream.close();
+            if ((ownsStream || ostream instanceof DeviceWriter) && ostream != null && ostream != next)
+                ostream.close(); //the previous job is still drained, a failed or stalled writer is just closed
+        } 
+        catch (IOException ex) 
+        {
+            Logger.getLogger(EscPrinter.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        istream = null;
+        ostream = null;
+    }
+    
+    private void abortDevice()
+    {
+        if (ostream instanceof DeviceWriter)
+            ((DeviceWriter) ostream).abort();
+    }
+    
+    /**
+     *  @return the writer draining commands into the device, to watch its state and backpressure, or null when the
+     *  printer was initialized on a stream that is not a DeviceWriter
+     */
+    public DeviceWriter getDeviceWriter() 
+    {
+        return ostream instanceof DeviceWriter ? (DeviceWriter) ostream : null;
+    }
+    
+    /**
+     *  reset the printer (ESC @) and select the defaults of initialize() again, without reopening the device.
+     *  Used between two jobs sent through the same open printer
+     */
+    public void reset()
+    {
+        sendDefaults();
+    }
+    
+    private void sendDefaults()
+    {
+        //reset default settings
+        flushMotion();
+        buffer.write(ESC, AT);
+        boldState = F;
+        proportionalState = 48;
+        pitchState = UNKNOWN;
+        qualityState = UNKNOWN;
+        charsetState = UNKNOWN;
+        leftMarginState = UNKNOWN;
+        rightMarginState = UNKNOWN;
+        
+        //select 10-cpi character pitch
+        select10CPI();
+        
+        //select draft quality printing
+        selectDraftPrinting();
+        
+        //set character set
+        setCharacterSet(USA);
+    }
+    
+    public void print()
+    {
+        flush(); //pending commands must reach the printer file before it is read back
+        printFile(null, null);
+    }
+    
+    public void printFile(String filename)
+    {
+        printFile(filename, null);
+    }
+    
+    /**
+     *  print a file containing ESC/P or ESC/P2 sequences. When the printer has no registered print service but names a device,
+     *  spool file or Windows share, the file is copied to it directly (see {@link #transferFile}), else it goes through javax.print
+     *  @param filename the file to print, null to print what was written to the printer file since initialize()
+     *  @param attributes print request attributes, may be null (they force the javax.print path)
+     */
+    public void printFile(String filename, PrintRequestAttributeSet attributes)
+    {
+        try 
+        {
+            if (filename != null && attributes == null && printService(printerName) == null && RawFileTransfer.isDirectTarget(printerName))
+            {
+                transferFile(filename, RawFileTransfer.DEFAULT_CHUNK_SIZE, null);
+                return;
+            }
+            
+            PrinterJob job = createPrinterJob();
+            
+            if (job != null)
+            {
+                Doc simpleDoc;
+                if (filename == null)
+                {
+                    simpleDoc = new SimpleDoc(
+                        istream,
+                        DocFlavor.INPUT_STREAM.AUTOSENSE,
+                        new HashDocAttributeSet());
+                }
+                else
+                {
+                    simpleDoc = new SimpleDoc(
+                        new FileInputStream(filename),
+                        DocFlavor.INPUT_STREAM.AUTOSENSE,
+                        new HashDocAttributeSet());
+                }
+                
+                submit(job.getPrintService(), simpleDoc, attributes);
+            }
+            
+        } catch (Exception ex) {
+            Logger.getLogger(EscPrinter.class.getName()).log(Level.SEVERE, null, ex);
+        } 
+    }    
+    
+    /**
+     *  print a file of ESC/P or ESC/P2 sequences after shrinking it with EscOptimizer (merged paper moves, no repeated
+     *  resets nor redundant mode switches). An initialized printer receives the rewritten stream directly, else it is
+     *  written to a temporary file printed with printFile(String). The printer state is unknown afterwards, as after printFile
+     *  @return the pages, bytes saved and problems found in the file
+     *  @throws IOException if the file cannot be read or rewritten, or the printer failed (see checkError())
+     */
+    public EscStreamReport printOptimizedFile(String filename) throws IOException
+    {
+        Path source = Paths.get(filename);
+        if (ostream != null)
+        {
+            flush();
+            if (ioError)
+                throw new IOException("pending commands could not be written to printer " + printerName);
+            
+            InputStream in = Files.newInputStream(source); //nothing is sent when the file cannot be opened
+            long start = System.nanoTime();
+            boolean success = false;
+            try (in)
+            {
+                EscStreamReport report = EscOptimizer.optimize(in, ostream);
+                ostream.flush();
+                success = true;
+                metrics.bytesWritten(printerName, report.getBytesOut(), report.getCommands());
+                return report;
+            }
+            catch (IOException ex)
+            {
+                ioError = true;
+                abortDevice(); //the printer must not get the rest of a file it only got part of
+                throw ex;
+            }
+            finally
+            {
+                metrics.phase(printerName, PrintPhase.DEVICE_WRITE, System.nanoTime() - start, success);
+                forgetState();
+            }
+        }
+        
+        Path optimized = Files.createTempFile("escprinter", ".prn");
+        try
+        {
+            EscStreamReport report = EscOptimizer.optimize(source, optimized);
+            printFile(optimized.toString());
+            return report;
+        }
+        finally
+        {
+            Files.deleteIfExists(optimized);
+        }
+    }
+    
+    /**
+     *  print the job cached under {@code key}, a reprint goes from the cache to the device without encoding it again.
+     *  On a miss {@code document} encodes the job on a separate printer, reset to the defaults and the character table of
+     *  this one, and it is cached before being printed. The printer state is unknown afterwards, as after printFile
+     *  @return true if the job was cached
+     */
+    public boolean printCached(EncodedJobCache cache, Object key, Consumer<EscPrinter> document)
+    {
+        flush();
+        if (ostream != null)
+        {
+            long start = System.nanoTime();
+            long bytes = -1;
+            boolean failed = false;
+            try
+            {
+                bytes = cache.writeTo(key, ostream);
+                if (bytes >= 0)
+                    ostream.flush();
+            }
+            catch (IOException ex)
+            {
+                ioError = failed = true;
+                abortDevice();
+                Logger.getLogger(EscPrinter.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            if (bytes >= 0 || failed)
+            {
+                metrics.phase(printerName, PrintPhase.DEVICE_WRITE, System.nanoTime() - start, !failed);
+                if (!failed)
+                    metrics.bytesWritten(printerName, bytes, 1);
+                forgetState();
+                return true;
+            }
+        }
+        else
+        {
+            byte[] job = cache.get(key);
+            if (job != null)
+            {
+                printEncoded(job);
+                return true;
+            }
+        }
+
+        long start = System.nanoTime();
+        boolean success = false;
+        byte[] job;
+        try
+        {
+            EscCommandBuffer encoded = new EscCommandBuffer();
+            EscPrinter renderer = new EscPrinter(escp24pin, encoded);
+            renderer.reset();
+            renderer.setCharacterTable(characterTable);
+            document.accept(renderer);
+            renderer.flushMotion();
+            job = encoded.toByteArray();
+            success = true;
+        }
+        finally
+        {
+            metrics.phase(printerName, PrintPhase.ENCODE, System.nanoTime() - start, success);
+        }
+        cache.put(key, job);
+        buffer.write(job);
+        forgetState();
+        commands++;
+        flush();
+        return false;
+    }
+    
+    private void forgetState()
+    {
+        boldState = pitchState = qualityState = proportionalState = charsetState = leftMarginState = rightMarginState = UNKNOWN;
+    }
+    
+    void printEncoded(byte[] job)
+    {
+        //post: commands encoded by another EscPrinter are queued as one command, the printer state is unknown afterwards
+        flushMotion();
+        buffer.write(job);
+        forgetState();
+        endCommand();
+    }
+    
+    void prepareRenderer(CharacterTable table, boolean optimizing)
+    {
+        //pre: in-memory printer (see EscPrinter(boolean, EscCommandBuffer))
+        //post: encodes a piece of job independent of what it encoded before: printer state unknown, text translated with table
+        pendingVertical = 0;
+        pendingHorizontal = NO_MOVE;
+        forgetState();
+        characterTable = table;
+        this.optimizing = optimizing;
+    }
+    
+    PrintMetrics getMetrics()
+    {
+        return metrics;
+    }
+    
+    /**
+     *  copies a file straight to the device or spool file named by the printer name (zero-copy when the platform allows it).
+     *  If this printer is initialized, pending commands are written first and the file goes through the same open stream,
+     *  whatever it was initialized on: device, socket, transport or in-memory sink. A device is then written through its
+     *  DeviceWriter, so a stalled printer fails the transfer after the write timeout instead of blocking it. The printer
+     *  state is unknown afterwards, mode commands are sent again even in optimizing mode
+     *  @param filename the file to copy
+     *  @param chunkSize maximum number of bytes copied between two progress reports
+     *  @param listener receives the progress, may be null
+     *  @return the number of bytes copied
+     *  @throws IOException if the file cannot be read or the device cannot be written
+     */
+    public long transferFile(String filename, long chunkSize, RawFileTransfer.ProgressListener listener) throws IOException
+    {
+        if (ostream == null)
+            return RawFileTransfer.transfer(Paths.get(filename), printerName, chunkSize, listener);
+        
+        flush(); //also drains the device writer, nothing is left in its buffer
+        if (ioError)
+            throw new IOException("pending commands could not be written to printer " + printerName);
+        
+        forgetState(); //the file leaves the printer in a state of its own, even if only part of it is copied
+        if (ostream instanceof FileOutputStream)
+            return RawFileTransfer.transfer(Paths.get(filename), ((FileOutputStream) ostream).getChannel(), chunkSize, listener);
+        
+        long bytes;
+        try 
+        {
+            bytes = RawFileTransfer.transfer(Paths.get(filename), Channels.newChannel(ostream), chunkSize, listener); //through the device writer flow control
+            ostream.flush();
+        } 
+        catch (IOException ex) 
+        {
+            ioError = true;
+            abortDevice(); //the printer must not get the rest of a file it only got part of
+            throw ex;
+        }
+        return bytes;
+    }
+    
+    /**
+     *  sends {@code data} (ESC/P or ESC/P2 sequences) to the print service of the printer as a single job.
+     *  Unlike printFile, failures are thrown to the caller instead of being logged
+     *  @param data the job content
+     *  @param attributes print request attributes, may be null
+     *  @throws java.lang.Exception if the print service cannot be found or refuses the job
+     */
+    public void printData(byte[] data, PrintRequestAttributeSet attributes) throws Exception
+    {
+        PrinterJob job = createPrinterJob();
+        Doc simpleDoc = new SimpleDoc(
+            data,
+            DocFlavor.BYTE_ARRAY.AUTOSENSE,
+            new HashDocAttributeSet());
+        
+        submit(job.getPrintService(), simpleDoc, attributes);
+    }
+    
+    private void submit(PrintService service, Doc doc, PrintRequestAttributeSet attributes) throws PrintException
+    {
+        long start = System.nanoTime();
+        boolean success = false;
+        try 
+        {
+            service.createPrintJob().print(doc, attributes);
+            success = true;
+        } 
+        finally 
+        {
+            metrics.phase(printerName, PrintPhase.SUBMIT, System.nanoTime() - start, success);
+        }
+    }
+        
+    /**
+     *  in optimizing mode, the printer state is tracked so commands that would not change it (bold(true) twice, reselecting the
+     *  current pitch, quality, proportional mode, character table or margins) are not sent, and vertical and absolute horizontal
+     *  moves are held back until something is printed, then sent merged in as few ESC J / ESC $ as possible.
+     *  Saves bytes on slow serial and parallel links. Off by default
+     */
+    public void setOptimizing(boolean optimizing) {
+        flushMotion();
+        this.optimizing = optimizing;
+    }
+    
+    public boolean isOptimizing() {
+        return optimizing;
+    }
+    
+    public void print(String text) {
+        print(text, 0, text.length());
+    }
+    
+    public void print(CharSequence text) {
+        print(text, 0, text.length());
+    }
+    
+    /**
+     *  print {@code text[start, end)} translated to the printer character table selected with setCharacterSet (see CharacterTable),
+     *  without creating any object
+     */
+    public void print(CharSequence text, int start, int end) {
+        flushMotion();
+        characterTable.encode(text, start, end, buffer);
+        endCommand();
+    }
+    
+    public void print(char[] chars, int offset, int length) {
+        flushMotion();
+        characterTable.encode(chars, offset, length, buffer);
+        endCommand();
+    }
+    
+    /**
+     *  print everything {@code reader} provides, translated to the selected printer character table. Large texts are written
+     *  to the device as they are read
+     *  @throws IOException if reading fails, the reader is not closed
+     */
+    public void print(Reader reader) throws IOException {
+        if (readBuffer == null)
+            readBuffer = new char[READ_CHUNK];
+        
+        flushMotion();
+        int n;
+        while ((n = reader.read(readBuffer, 0, readBuffer.length)) >= 0) {
+            characterTable.encode(readBuffer, 0, n, buffer);
+            endCommand();
+        }
+    }
+    
+    /**
+     *  select {@code table} on the printer (ESC ( t with its registered table number) and use it to translate the text printed
+     *  afterwards, e.g. a table built with a different fallback
+     */
+    public void setCharacterTable(CharacterTable table) {
+        if (table == null)
+            throw new IllegalArgumentException("the character table cannot be null");
+        
+        setCharacterSet(table.getRegisteredTable());
+        characterTable = table;
+    }
+    
+    public CharacterTable getCharacterTable() {
+        return characterTable;
+    }
+    
+    public void select10CPI() { //10 characters per inch (condensed available)
+        if (optimizing && pitchState == P)
+            return;
+        buffer.write(ESC, P);
+        pitchState = P;
+        endCommand();
+    }
+    
+    public void select15CPI() { //15 characters per inch (condensend not available)
+        if (optimizing && pitchState == g)
+            return;
+        buffer.write(ESC, g);
+        pitchState = g;
+        endCommand();
+    }
+    
+    public void selectDraftPrinting() { //set draft quality printing
+        if (optimizing && qualityState == 48)
+            return;
+        buffer.write(ESC, x, 48);
+        qualityState = 48;
+        endCommand();
+    }
+    
+    public void selectLQPrinting() { //set letter quality printing
+        if (optimizing && qualityState == 49)
+            return;
+        buffer.write(ESC, x, 49);
+        qualityState = 49;
+        endCommand();
+    }
+    
+    public void setCharacterSet(char charset) {
+        if (optimizing && charsetState == charset) {
+            characterTable = CharacterTable.forCharset(charset);
+            return;
+        }
+        
+        //assign character table
+        buffer.write(ESC, PARENTHESIS_LEFT, t);
+        buffer.write(ARGUMENT_3, ARGUMENT_0); //always 3, always 0
+        buffer.write(ARGUMENT_1, charset, ARGUMENT_0); //selectable character table 1, registered character table (arg_25 is brascii), always 0
+        
+        //select character table
+        buffer.write(ESC, t, ARGUMENT_1); //selectable character table 1
+        charsetState = charset;
+        characterTable = CharacterTable.forCharset(charset);
+        endCommand();
+    }
+    
+    public void lineFeed() {
+        //post: performs new line
+        pendingHorizontal = NO_MOVE; //carriage return goes back to the left margin anyway
+        flushMotion();
+        buffer.write(CR, LINE_FEED); //according to epson esc/p ref. manual always send carriage return before line feed
+        endCommand();
+    }
+    
+    public void formFeed() {
+        //post: ejects single sheet
+        pendingHorizontal = NO_MOVE; //carriage return goes back to the left margin anyway
+        flushMotion();
+        buffer.write(CR, FF); //according to epson esc/p ref. manual it is recommended to send carriage return before form feed
+        endCommand();
+    }
+    
+    public void bold(boolean bold) {
+        char command = bold ? E : F;
+        if (optimizing && boldState == command)
+            return;
+        buffer.write(ESC, command);
+        boldState = command;
+        endCommand();
+    }
+    
+    public void proportionalMode(boolean proportional) {
+        int mode = proportional ? 49 : 48;
+        if (optimizing && proportionalState == mode)
+            return;
+        buffer.write(ESC, p, mode);
+        proportionalState = mode;
+        endCommand();
+    }
+    
+    public void advanceVertical(float centimeters) {
+        //pre: centimeters >= 0 (cm)
+        //post: advances vertical print position approx. y centimeters (not precise due to truncation)
+        float inches = centimeters / CM_PER_INCH;
+        int units = (int) (inches * (escp24pin ? MAX_ADVANCE_24PIN : MAX_ADVANCE_9PIN));
+        
+        if (optimizing) {
+            pendingVertical += Math.max(units, 0); //sent with the next output, merged with the following advances
+            return;
+        }
+        writeVertical(units);
+        endCommand();
+    }
+    
+    private void writeVertical(int units) {
+        while (units > 0) {
+            char n;
+            if (units > MAX_UNITS)
+                n = (char) MAX_UNITS; //want to move more than range of parameter allows (0 - 255) so move max amount
+            else
+                n = (char) units; //want to move a distance which fits in range of parameter (0 - 255)
+                        
+            buffer.write(ESC, J, n);
+            
+            units -= MAX_UNITS;
+        }
+    }
+    
+    public void advanceHorizontal(float centimeters) {
+        //pre: centimeters >= 0
+        //post: advances horizontal print position approx. centimeters
+        float inches = centimeters / CM_PER_INCH;
+        int units_low = (int) (inches * 120) % 256;
+        int units_high = (int) (inches * 120) / 256;
+        
+        flushMotion();
+        buffer.write(ESC, BACKSLASH, units_low, units_high);
+        endCommand();
+    }
+    
+    public void setAbsoluteHorizontalPosition(float centimeters) {
+        //pre: centimenters >= 0 (cm)
+        //post: sets absolute horizontal print position to x centimeters from left margin
+        float inches = centimeters / CM_PER_INCH;
+        int units = (int) (inches * 60);
+        
+        if (optimizing) {
+            pendingHorizontal = units; //only the last position before the next output matters
+            return;
+        }
+        writeHorizontal(units);
+        endCommand();
+    }
+    
+    private void writeHorizontal(int units) {
+        int units_low = units % 256;
+        int units_high = units / 256;
+        
+        buffer.write(ESC, $, units_low, units_high);
+    }
+    
+    public void horizontalTab(int tabs) {
+        //pre: tabs >= 0
+        //post: performs horizontal tabs tabs number of times
+        flushMotion();
+        buffer.fill(TAB, tabs);
+        endCommand();
+    }
+    
+    public void setMargins(int columnsLeft, int columnsRight) {
+        //pre: columnsLeft > 0 && <= 255, columnsRight > 0 && <= 255
+        //post: sets left margin to columnsLeft columns and right margin to columnsRight columns
+        if (optimizing && leftMarginState == columnsLeft && rightMarginState == columnsRight)
+            return;
+        flushMotion(); //absolute positions are relative to the left margin
+        
+        //left
+        if (!optimizing || leftMarginState != columnsLeft)
+            buffer.write(ESC, l, columnsLeft);
+        
+        //right
+        if (!optimizing || rightMarginState != columnsRight)
+            buffer.write(ESC, Q, columnsRight);
+        leftMarginState = columnsLeft;
+        rightMarginState = columnsRight;
+        endCommand();
+    }
+    
+    public void setPageLength(int lines) {
+        //pre: 1 <= lines <= 127
+        //post: page length is lines times the current line spacing (1/6 inch after initialization), top of form is the current position
+        if (lines < 1 || lines > 127)
+            throw new IllegalArgumentException("page length must be between 1 and 127 lines");
+        
+        flushMotion();
+        buffer.write(ESC, C, lines);
+        endCommand();
+    }
+    
+    /**
+     *  prints {@code image} at the left margin with the default graphics of this printer (ESC * 24-dot columns on
+     *  24 pin printers, 8-dot columns otherwise), leaving the print position at the left margin under the image
+     */
+    public void printImage(BitImage image) {
+        printImage(image, BitImageEncoder.Mode.forPrinter(escp24pin), -1);
+    }
+    
+    /**
+     *  prints {@code image} with its left edge {@code centimeters} from the left margin
+     *  @param mode graphics command, RASTER_ESCP2 for compressed raster graphics on ESC/P2 printers
+     */
+    public void printImage(BitImage image, BitImageEncoder.Mode mode, float centimeters) {
+        //pre: centimeters >= 0 or negative for the left margin, image scaled to the densities of mode
+        if (image == null || mode == null)
+            throw new IllegalArgumentException("the image and the mode cannot be null");
+        
+        int units = centimeters < 0 ? -1 : (int) (centimeters / CM_PER_INCH * 60);
+        pendingHorizontal = NO_MOVE; //every band sets its own position
+        flushMotion();
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            buffer.write(BitImageEncoder.getDefault().encode(image, mode, units));
+            success = true;
+        } finally {
+            metrics.phase(printerName, PrintPhase.ENCODE, System.nanoTime() - start, success);
+        }
+        endCommand();
+    }
+    
+    /** converts {@code image} to dots (pixels darker than mid gray) and prints it at the left margin, see BitImage.fromImage */
+    public void printImage(BufferedImage image) {
+        printImage(BitImage.fromImage(image, 128));
+    }
+    
+    void flushMotion() {
+        //post: vertical and horizontal moves held back in optimizing mode are written (ESC J and ESC $ commute, neither moves the other axis)
+        if (pendingVertical > 0) {
+            writeVertical(pendingVertical);
+            pendingVertical = 0;
+            commands++;
+        }
+        if (pendingHorizontal != NO_MOVE) {
+            writeHorizontal(pendingHorizontal);
+            pendingHorizontal = NO_MOVE;
+            commands++;
+        }
+    }
+    
+    private void endCommand() {
+        //post: command counted for the metrics, pending commands are handed to the device once enough of them are buffered
+        commands++;
+        if (buffer.size() >= FLUSH_THRESHOLD)
+            write(false); //only handed to the device writer, its buffer and backpressure absorb the job until flush()
+    }
+    
+    public boolean isInitialized() {
+        //post: returns true iff printerName was successfully initialized
+        return streamOpenSuccess;
+    }
+    
+    public String getShare() {
+        //post: returns printerName share name (Windows network)
+        return printerName;
+    }
+    
+    public boolean isEscp24pin() {
+        return escp24pin;
+    }
+    
+    @Override
+    public String toString() {
+        //post: returns String representation of ESCPrinter e.g. <ESCPrinter[share=...]>
+        StringBuilder strb = new StringBuilder();
+        strb.append("<ESCPrinter[share=").append(printerName).append(", 24pin=").append(escp24pin).append("]>");
+        return strb.toString();
+    }    
+}
@@ -0,0 +1,335 @@
+/*
+ * EscSpooler.java
+ *
+ * Asynchronous print spooler: jobs are queued per printer name and the caller gets a CompletableFuture instead of
+ * waiting for the print service. Jobs of one printer run one at a time in submission order (FIFO), different printers
+ * run in parallel. A printer queue is drained by a virtual thread started when work arrives, no thread is kept while idle,
+ * and the queue itself is dropped once it is empty so printers used once do not stay in memory.
+ *
+ * Queues are bounded, see OverflowPolicy for what happens when a queue is full.
+ */
+
+package net.drayah.matrixprinter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EscSpooler
+{
+    /** what submit does when the queue of a printer is full */
+    public enum OverflowPolicy
+    {
+        /** wait for room in the queue */
+        BLOCK,
+        /** fail the new job with a RejectedExecutionException */
+        REJECT,
+        /** fail the oldest queued job with a RejectedExecutionException and queue the new one */
+        DROP_OLDEST
+    }
+
+    private final PrintSink sink;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ThreadFactory threadFactory;
+    private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<>();
+    private volatile boolean shutdown;
+
+    /** Creates a spooler sending jobs through javax.print, with queues of 1024 jobs that block when full */
+    public EscSpooler()
+    {
+        this(PrintSink.JAVAX_PRINT, 1024, OverflowPolicy.BLOCK);
+    }
+
+    /** Creates a spooler running its printer queues on virtual threads
+     *  @param sink where byte jobs are sent
+     *  @param capacity maximum number of queued jobs per printer
+     *  @param policy what to do when a printer queue is full
+     */
+    public EscSpooler(PrintSink sink, int capacity, OverflowPolicy policy)
+    {
+        this(sink, capacity, policy, Thread.ofVirtual().name("esc-spooler-", 0).factory());
+    }
+
+    public EscSpooler(PrintSink sink, int capacity, OverflowPolicy policy, ThreadFactory threadFactory)
+    {
+        if (sink == null || policy == null || threadFactory == null)
+            throw new IllegalArgumentException("the sink, policy and thread factory cannot be null");
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+
+        this.sink = sink;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     *  queues {@code data} to be sent to the printer named {@code printerName} through the sink
+     *  @return a future completed once the job is printed, or exceptionally if it failed, was dropped or rejected
+     */
+    public CompletableFuture<Void> submit(String printerName, byte[] data)
+    {
+        if (data == null)
+            throw new IllegalArgumentException("the job data cannot be null");
+
+        return submit(printerName, () -> {
+            sink.print(printerName, data);
+            return null;
+        });
+    }
+
+    /**
+     *  queues any task for the printer named {@code printerName}, it runs after every task submitted before for that printer.
+     *  Cancelling the future before the task starts skips the task and frees its place in the queue
+     *  @return a future completed with the result of the task, failures and rejections are reported through it
+     */
+    public <V> CompletableFuture<V> submit(String printerName, Callable<V> task)
+    {
+        if (printerName == null || task == null)
+            throw new IllegalArgumentException("the printer name and task cannot be null");
+
+        if (shutdown)
+        {
+            Job<V> job = new Job<>(task, null);
+            job.completeExceptionally(new RejectedExecutionException("spooler is shut down"));
+            return job;
+        }
+
+        //the lane cannot be retired while a submitter holds it, a later submit would otherwise start a second lane
+        Lane lane = lanes.compute(printerName, (name, current) -> {
+            Lane held = current == null ? new Lane(name) : current;
+            held.submitters.incrementAndGet();
+            return held;
+        });
+        Job<V> job = new Job<>(task, lane);
+        try
+        {
+            lane.enqueue(job);
+        }
+        finally
+        {
+            lane.submitters.decrementAndGet();
+            lane.retireIfIdle();
+        }
+        return job;
+    }
+
+    /**
+     *  @return the number of jobs waiting (not yet started) for the printer named {@code printerName}
+     */
+    public int queued(String printerName)
+    {
+        Lane lane = lanes.get(printerName);
+        return lane == null ? 0 : lane.queue.size();
+    }
+
+    /** @return the maximum number of queued jobs per printer */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /** @return the number of printers with a queue, idle printers have none */
+    int getLaneCount()
+    {
+        return lanes.size();
+    }
+
+    /** stops accepting jobs, jobs already queued are still printed (graceful drain) */
+    public void shutdown()
+    {
+        shutdown = true;
+        synchronized (this)
+        {
+            notifyAll();
+        }
+    }
+
+    /**
+     *  stops accepting jobs and cancels every queued job, running jobs complete normally
+     *  @return the number of cancelled jobs
+     */
+    public int shutdownNow()
+    {
+        shutdown();
+        int cancelled = 0;
+        List<Job<?>> jobs = new ArrayList<>();
+        for (Lane lane : lanes.values())
+            lane.queue.drainTo(jobs); //emptied first, each cancel then has nothing left to remove
+        for (Job<?> job : jobs)
+        {
+            if (job.cancel(false))
+                cancelled++;
+        }
+        return cancelled;
+    }
+
+    public boolean isShutdown()
+    {
+        return shutdown;
+    }
+
+    /**
+     *  @return true once shut down and every printer queue is empty and idle
+     */
+    public boolean isTerminated()
+    {
+        if (!shutdown)
+            return false;
+
+        for (Lane lane : lanes.values())
+        {
+            if (lane.running.get() || !lane.queue.isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     *  waits until the spooler is terminated after a shutdown request
+     *  @return true if terminated, false if the timeout elapsed first
+     */
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated())
+        {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    private synchronized void laneIdle()
+    {
+        notifyAll();
+    }
+
+    private static final class Job<V> extends CompletableFuture<V>
+    {
+        private final Callable<V> task;
+        private final Lane lane;
+
+        Job(Callable<V> task, Lane lane)
+        {
+            this.task = task;
+            this.lane = lane;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && lane != null)
+                lane.queue.remove(this); //no-op once started, else frees the place for BLOCK submitters
+            return cancelled;
+        }
+
+        void run()
+        {
+            if (isDone()) //cancelled or dropped while queued
+                return;
+
+            try
+            {
+                complete(task.call());
+            }
+            catch (Throwable ex)
+            {
+                completeExceptionally(ex);
+            }
+        }
+    }
+
+    private final class Lane implements Runnable
+    {
+        final String printerName;
+        final BlockingQueue<Job<?>> queue = new LinkedBlockingQueue<>(capacity);
+        final AtomicBoolean running = new AtomicBoolean();
+        final AtomicInteger submitters = new AtomicInteger(); //incremented under the map lock of printerName, see submit
+
+        Lane(String printerName)
+        {
+            this.printerName = printerName;
+        }
+
+        void enqueue(Job<?> job)
+        {
+            switch (policy)
+            {
+                case BLOCK:
+                    try
+                    {
+                        queue.put(job);
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        Thread.currentThread().interrupt();
+                        job.completeExceptionally(new RejectedExecutionException("interrupted while waiting for queue space", ex));
+                        return;
+                    }
+                    break;
+                case REJECT:
+                    if (!queue.offer(job))
+                    {
+                        job.completeExceptionally(new RejectedExecutionException("print queue is full"));
+                        return;
+                    }
+                    break;
+                case DROP_OLDEST:
+                    while (!queue.offer(job))
+                    {
+                        Job<?> oldest = queue.poll();
+                        if (oldest != null)
+                            oldest.completeExceptionally(new RejectedExecutionException("dropped from full print queue"));
+                    }
+                    break;
+            }
+            schedule();
+        }
+
+        void schedule()
+        {
+            if (running.compareAndSet(false, true))
+                threadFactory.newThread(this).start();
+        }
+
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                Job<?> job;
+                while ((job = queue.poll()) != null)
+                    job.run();
+
+                running.set(false);
+                //a job queued between the last poll and the reset above must not be left behind
+                if (queue.isEmpty() || !running.compareAndSet(false, true))
+                    break;
+            }
+            retireIfIdle();
+            laneIdle();
+        }
+
+        void retireIfIdle()
+        {
+            //post: removed from the map if no job, no drain thread and no submitter; submitters only join under the same lock
+            if (submitters.get() == 0 && !running.get() && queue.isEmpty())
+                lanes.computeIfPresent(printerName, (name, lane) -> lane == this && submitters.get() == 0 && !running.get() && queue.isEmpty() ? null : lane);
+        }
+    }
+}
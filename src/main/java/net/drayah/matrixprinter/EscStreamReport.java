@@ -0,0 +1,88 @@
+/*
+ * EscStreamReport.java
+ *
+ * What EscValidator and EscOptimizer found in an ESC/P stream: size, pages, commands and the problems met.
+ */
+
+package net.drayah.matrixprinter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public final class EscStreamReport
+{
+    static final int MAX_PROBLEMS = 100; //only the first ones are kept, the others are counted
+
+    long bytesIn;
+    long bytesOut;
+    long pages;
+    long commands;
+    long problemCount;
+    private final List<String> problems = new ArrayList<>();
+
+    EscStreamReport()
+    {
+    }
+
+    void problem(long offset, String message)
+    {
+        if (problems.size() < MAX_PROBLEMS)
+            problems.add("byte " + offset + ": " + message);
+        problemCount++;
+    }
+
+    public long getBytesIn()
+    {
+        return bytesIn;
+    }
+
+    /** @return the size of the rewritten stream, the input size when it was only validated */
+    public long getBytesOut()
+    {
+        return bytesOut;
+    }
+
+    public long getSavedBytes()
+    {
+        return bytesIn - bytesOut;
+    }
+
+    /** @return form feeds, plus one if something is printed after the last one */
+    public long getPages()
+    {
+        return pages;
+    }
+
+    /** @return escape sequences in the input */
+    public long getCommands()
+    {
+        return commands;
+    }
+
+    public long getProblemCount()
+    {
+        return problemCount;
+    }
+
+    /** @return the first 100 problems, with their byte offset in the input */
+    public List<String> getProblems()
+    {
+        return Collections.unmodifiableList(problems);
+    }
+
+    public boolean isValid()
+    {
+        return problemCount == 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder strb = new StringBuilder();
+        strb.append("<EscStreamReport[bytesIn=").append(bytesIn).append(", bytesOut=").append(bytesOut);
+        strb.append(", pages=").append(pages).append(", commands=").append(commands);
+        strb.append(", problems=").append(problemCount).append("]>");
+        return strb.toString();
+    }
+}
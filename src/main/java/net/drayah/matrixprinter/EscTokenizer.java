@@ -0,0 +1,411 @@
+/*
+ * EscTokenizer.java
+ *
+ * Streaming tokenizer of ESC/P and ESC/P2 byte streams. Bytes are pushed in chunks of any size (feed) and the tokens
+ * are handed to a Handler as soon as they are complete: runs of text, control codes, escape sequences with their
+ * parameters, and the data of graphics commands. Only the parameters of the sequence being read are kept (a few bytes),
+ * graphics data is passed through in the chunks it arrived in, so files of any size are processed in one pass with
+ * constant memory.
+ *
+ * Structural problems (unknown command, invalid graphics mode, stream ending inside a sequence) are reported to
+ * Handler.problem with their byte offset; the bytes are still passed on so a rewriting handler can keep them.
+ */
+
+package net.drayah.matrixprinter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+public class EscTokenizer
+{
+    /** receives the tokens, the arrays passed are reused: copy what must be kept */
+    public interface Handler
+    {
+        /** printable characters (space and above, including the upper half of the character table) */
+        void text(byte[] bytes, int offset, int length);
+
+        /** a control code below space other than ESC, e.g. CR, LF, FF */
+        void control(int code);
+
+        /**
+         *  a complete escape sequence
+         *  @param command the byte following ESC; for ESC ( sequences '(' with the sub-command in params[0] followed by
+         *  the parameter bytes announced by nL nH
+         *  @param params parameters, graphics data excluded
+         */
+        void command(int command, byte[] params, int count);
+
+        /** graphics data following the last command, possibly in several chunks */
+        void data(byte[] bytes, int offset, int length);
+
+        /** malformed input at byte {@code offset} of the stream */
+        default void problem(long offset, String message)
+        {
+        }
+    }
+
+    private static final int ESC = 27;
+    private static final int MAX_PARAMS = 64; //longer ESC ( parameter blocks are passed as data
+
+    /* parameter counts of the escape sequences, indexed by the command byte */
+    private static final int VARIABLE = -1; //read by a dedicated state
+    private static final int UNKNOWN = -2;
+    private static final int[] PARAMS = new int[256];
+
+    static
+    {
+        Arrays.fill(PARAMS, UNKNOWN);
+        for (char c : "@EFGHPMgT012456789<>=#O\u000E\u000F".toCharArray())
+            PARAMS[c] = 0;
+        for (char c : "xptlQJj3A+-WwkSNaUhm!q%RIis/r \u0019".toCharArray())
+            PARAMS[c] = 1;
+        for (char c : "$\\fce?".toCharArray())
+            PARAMS[c] = 2;
+        PARAMS['X'] = 3;
+        PARAMS[':'] = 3;
+        for (char c : "KLYZ*^.(BDC&b".toCharArray())
+            PARAMS[c] = VARIABLE;
+    }
+
+    private enum State
+    {
+        TEXT, ESCAPE, PARAMS, TABS, DATA, RASTER, RAW
+    }
+
+    private final Handler handler;
+    private final byte[] params = new byte[MAX_PARAMS];
+    private State state = State.TEXT;
+    private int command;
+    private int count; //parameters read
+    private int expected; //parameters expected
+    private long remaining; //graphics or parameter data left
+    private long rasterLeft; //uncompressed raster bytes left (ESC . 1)
+    private int rasterRun; //literal bytes left before the next run-length counter, or minus the count of the repeated byte that follows
+    private long offset; //of the next byte fed
+    private long commandOffset;
+
+    public EscTokenizer(Handler handler)
+    {
+        if (handler == null)
+            throw new IllegalArgumentException("the handler cannot be null");
+        this.handler = handler;
+    }
+
+    /** tokenizes {@code in} to its end with a buffer of {@code bufferSize} bytes, does not close it */
+    public void tokenize(InputStream in, int bufferSize) throws IOException
+    {
+        byte[] buffer = new byte[bufferSize];
+        int n;
+        while ((n = in.read(buffer)) >= 0)
+            feed(buffer, 0, n);
+        end();
+    }
+
+    /** @return the number of bytes fed so far */
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    public void feed(byte[] bytes, int off, int len)
+    {
+        int end = off + len;
+        int i = off;
+        while (i < end)
+        {
+            switch (state)
+            {
+                case TEXT:
+                {
+                    int start = i;
+                    while (i < end && (bytes[i] & 0xFF) >= 32 && bytes[i] != 127)
+                        i++;
+                    if (i > start)
+                    {
+                        handler.text(bytes, start, i - start);
+                        offset += i - start;
+                        continue;
+                    }
+
+                    int b = bytes[i++] & 0xFF;
+                    offset++;
+                    if (b == ESC)
+                    {
+                        commandOffset = offset - 1;
+                        state = State.ESCAPE;
+                    }
+                    else
+                    {
+                        handler.control(b);
+                    }
+                    break;
+                }
+                case ESCAPE:
+                {
+                    command = bytes[i++] & 0xFF;
+                    offset++;
+                    count = 0;
+                    start(PARAMS[command]);
+                    break;
+                }
+                case PARAMS:
+                {
+                    params[count++] = bytes[i++];
+                    offset++;
+                    if (count == expected)
+                        parameters();
+                    break;
+                }
+                case TABS:
+                {
+                    int b = bytes[i++] & 0xFF;
+                    offset++;
+                    params[count++] = (byte) b;
+                    if (b == 0 || count == MAX_PARAMS)
+                    {
+                        if (b != 0)
+                            handler.problem(commandOffset, "tab stops of ESC " + (char) command + " not terminated by NUL");
+                        complete();
+                    }
+                    break;
+                }
+                case DATA:
+                {
+                    int n = (int) Math.min(remaining, end - i);
+                    handler.data(bytes, i, n);
+                    i += n;
+                    offset += n;
+                    remaining -= n;
+                    if (remaining == 0)
+                        state = State.TEXT;
+                    break;
+                }
+                case RASTER:
+                {
+                    i = raster(bytes, i, end);
+                    break;
+                }
+                case RAW:
+                {
+                    handler.data(bytes, i, end - i);
+                    offset += end - i;
+                    i = end;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException(state.toString());
+            }
+        }
+    }
+
+    /** signals the end of the stream, reports a sequence left incomplete */
+    public void end()
+    {
+        if (state == State.ESCAPE)
+        {
+            handler.problem(commandOffset, "stream ends with ESC");
+        }
+        else if (state != State.TEXT && state != State.RAW)
+        {
+            handler.problem(commandOffset, "stream ends inside ESC " + printable(command) + " (" + state.toString().toLowerCase() + ")");
+            if (state == State.PARAMS || state == State.TABS)
+                handler.command(command, params, count); //keep the bytes read
+        }
+        state = State.TEXT;
+    }
+
+    private void start(int params)
+    {
+        if (params == UNKNOWN)
+        {
+            handler.problem(commandOffset, "unknown command ESC " + printable(command));
+            params = 0;
+        }
+
+        if (command == 'B' || command == 'D')
+        {
+            state = State.TABS;
+            return;
+        }
+        if (params == VARIABLE)
+            params = header(command);
+        expected = params;
+        if (expected == 0)
+            complete();
+        else
+            state = State.PARAMS;
+    }
+
+    private static int header(int command)
+    {
+        //parameters read before the length of a variable command is known
+        switch (command)
+        {
+            case 'K': case 'L': case 'Y': case 'Z':
+                return 2; //nL nH
+            case 'C': case 'b':
+                return 1; //ESC C n (or NUL n), ESC b n then NUL-terminated tab stops
+            case '*': case '^': case '(':
+                return 3; //m nL nH, ESC ( c nL nH
+            case '.':
+                return 6; //c v h m nL nH
+            case '&':
+                return 3; //NUL n m, then the character definitions
+            default:
+                return 0;
+        }
+    }
+
+    private void parameters()
+    {
+        //post: header of a variable length command read, start its data or finish the command
+        int n;
+        switch (command)
+        {
+            case 'C':
+                if (count == 1 && params[0] == 0)
+                {
+                    expected = 2; //ESC C NUL n, page length in inches
+                    return;
+                }
+                complete();
+                return;
+            case '(':
+                if (expected == 3) //c nL nH read, nL nH parameter bytes follow
+                {
+                    n = (params[1] & 0xFF) | (params[2] & 0xFF) << 8;
+                    if (n == 0)
+                    {
+                        complete();
+                    }
+                    else if (n + 3 <= MAX_PARAMS)
+                    {
+                        expected = n + 3;
+                    }
+                    else
+                    {
+                        handler.command(command, params, count);
+                        data(n);
+                    }
+                    return;
+                }
+                complete();
+                return;
+            case 'K': case 'L': case 'Y': case 'Z':
+                handler.command(command, params, count);
+                data((params[0] & 0xFF) | (params[1] & 0xFF) << 8);
+                return;
+            case '*':
+            {
+                int m = params[0] & 0xFF;
+                int bytesPerColumn = m <= 6 && m != 5 ? 1 : m >= 32 && m <= 40 ? 3 : m >= 71 && m <= 73 ? 6 : 0;
+                handler.command(command, params, count);
+                if (bytesPerColumn == 0)
+                {
+                    raw("invalid bit image density ESC * " + m);
+                    return;
+                }
+                data((long) bytesPerColumn * ((params[1] & 0xFF) | (params[2] & 0xFF) << 8));
+                return;
+            }
+            case '^':
+                handler.command(command, params, count);
+                data(2L * ((params[1] & 0xFF) | (params[2] & 0xFF) << 8)); //9-dot columns, 2 bytes each
+                return;
+            case '.':
+            {
+                int c = params[0] & 0xFF;
+                int rows = params[3] & 0xFF;
+                int dots = (params[4] & 0xFF) | (params[5] & 0xFF) << 8;
+                long bytes = (long) rows * ((dots + 7) / 8);
+                handler.command(command, params, count);
+                if (c == 0)
+                {
+                    data(bytes);
+                }
+                else if (c == 1)
+                {
+                    rasterLeft = bytes;
+                    rasterRun = 0;
+                    state = bytes == 0 ? State.TEXT : State.RASTER;
+                }
+                else
+                {
+                    raw("invalid raster compression ESC . " + c);
+                }
+                return;
+            }
+            case '&':
+                //ESC & NUL n m: the size of the character definitions depends on the print head (9 or 24 pins)
+                handler.command(command, params, count);
+                raw("user-defined characters (ESC &)");
+                return;
+            case 'b':
+                state = State.TABS; //dot column list up to NUL
+                return;
+            default:
+                complete();
+        }
+    }
+
+    private void raw(String reason)
+    {
+        //post: the length of what follows is unknown, the rest of the stream is passed as data
+        handler.problem(commandOffset, reason + ", rest of the stream passed unchanged");
+        state = State.RAW;
+    }
+
+    private void data(long bytes)
+    {
+        remaining = bytes;
+        state = bytes == 0 ? State.TEXT : State.DATA;
+    }
+
+    private int raster(byte[] bytes, int i, int end)
+    {
+        //ESC/P2 run-length data: counter 0..127 then counter + 1 literal bytes, counter 129..255 then 1 byte repeated 257 - counter times
+        int start = i;
+        while (i < end && (rasterLeft > 0 || rasterRun != 0))
+        {
+            if (rasterRun > 0)
+            {
+                int n = Math.min(rasterRun, end - i);
+                i += n;
+                rasterRun -= n;
+                rasterLeft -= n;
+            }
+            else if (rasterRun < 0)
+            {
+                i++; //repeated byte
+                rasterLeft += rasterRun;
+                rasterRun = 0;
+            }
+            else
+            {
+                int counter = bytes[i++] & 0xFF;
+                rasterRun = counter < 128 ? counter + 1 : -(257 - counter);
+            }
+        }
+        handler.data(bytes, start, i - start);
+        offset += i - start;
+        if (rasterLeft <= 0 && rasterRun == 0)
+        {
+            if (rasterLeft < 0)
+                handler.problem(commandOffset, "raster data of ESC . overflows its band by " + -rasterLeft + " bytes");
+            state = State.TEXT;
+        }
+        return i;
+    }
+
+    private void complete()
+    {
+        handler.command(command, params, count);
+        state = State.TEXT;
+    }
+
+    private static String printable(int command)
+    {
+        return command > 32 && command < 127 ? String.valueOf((char) command) : "0x" + Integer.toHexString(command);
+    }
+}
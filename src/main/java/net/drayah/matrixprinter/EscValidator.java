@@ -0,0 +1,168 @@
+/*
+ * EscValidator.java
+ *
+ * Checks an ESC/P or ESC/P2 stream token by token: on top of the structural problems found by EscTokenizer, it
+ * reports parameters out of range for the commands EscPrinter and common legacy generators use, and counts the
+ * pages and commands. Nothing is kept but the counters and the first problems, so any size of file can be checked.
+ *
+ * Usage:
+ *     EscStreamReport report = EscValidator.validate(Paths.get("job.prn"));
+ *     if (!report.isValid())
+ *         report.getProblems().forEach(System.err::println);
+ */
+
+package net.drayah.matrixprinter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class EscValidator implements EscTokenizer.Handler
+{
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int FF = 12;
+    private static final int ESC = 27;
+
+    private final EscStreamReport report = new EscStreamReport();
+    private boolean pageStarted; //something was printed since the last form feed
+    private long offset;
+
+    public EscValidator()
+    {
+    }
+
+    /** validates a whole file in one pass */
+    public static EscStreamReport validate(Path file) throws IOException
+    {
+        try (InputStream in = Files.newInputStream(file))
+        {
+            return validate(in);
+        }
+    }
+
+    /** validates {@code in} to its end, does not close it */
+    public static EscStreamReport validate(InputStream in) throws IOException
+    {
+        EscValidator validator = new EscValidator();
+        new EscTokenizer(validator).tokenize(in, BUFFER_SIZE);
+        return validator.finish();
+    }
+
+    /** @return the report, once the tokenizer reached the end of the stream */
+    public EscStreamReport finish()
+    {
+        report.bytesOut = report.bytesIn;
+        if (pageStarted)
+        {
+            report.pages++;
+            pageStarted = false;
+        }
+        return report;
+    }
+
+    @Override
+    public void text(byte[] bytes, int offset, int length)
+    {
+        this.offset += length;
+        report.bytesIn += length;
+        pageStarted = true;
+    }
+
+    @Override
+    public void control(int code)
+    {
+        offset++;
+        report.bytesIn++;
+        if (code == FF)
+        {
+            report.pages++;
+            pageStarted = false;
+        }
+        else if (code != 0 && (code < 7 || code == 16 || code >= 21 && code != 24 && code != ESC && code != 127))
+        {
+            report.problem(offset - 1, "unexpected control code 0x" + Integer.toHexString(code));
+        }
+    }
+
+    @Override
+    public void command(int command, byte[] params, int count)
+    {
+        long start = offset;
+        offset += 2 + count;
+        report.bytesIn += 2 + count;
+        report.commands++;
+
+        String problem = check(command, params, count);
+        if (problem != null)
+            report.problem(start, problem);
+    }
+
+    @Override
+    public void data(byte[] bytes, int offset, int length)
+    {
+        this.offset += length;
+        report.bytesIn += length;
+        pageStarted = true;
+    }
+
+    @Override
+    public void problem(long offset, String message)
+    {
+        report.problem(offset, message);
+    }
+
+    private static String check(int command, byte[] params, int count)
+    {
+        int n = count > 0 ? params[0] & 0xFF : 0;
+        switch (command)
+        {
+            case 'x': case 'p': case '-': case 'W': case 'U': case 'S': case 'w':
+                return onOff(n) ? null : "ESC " + (char) command + " expects 0, 1, 48 or 49, got " + n;
+            case 't':
+                return n <= 3 || n >= 48 && n <= 51 ? null : "ESC t selects character table 0 to 3, got " + n;
+            case 'k':
+            case 'a':
+                return n <= 3 ? null : "ESC " + (char) command + " expects 0 to 3, got " + n;
+            case 'C':
+                if (count == 2)
+                    return (params[1] & 0xFF) >= 1 && (params[1] & 0xFF) <= 22 ? null : "ESC C NUL page length must be 1 to 22 inches";
+                return n >= 1 ? null : "ESC C page length must be at least 1 line";
+            case 'Q':
+                return n >= 1 ? null : "ESC Q right margin must be at least 1 column";
+            case '(':
+                return extended(params, count);
+            default:
+                return null;
+        }
+    }
+
+    private static String extended(byte[] params, int count)
+    {
+        int sub = params[0] & 0xFF;
+        int n = count - 3;
+        switch (sub)
+        {
+            case 't':
+                return n == 3 ? null : "ESC ( t expects 3 parameter bytes, got " + n;
+            case 'C':
+                return n == 2 || n == 4 ? null : "ESC ( C expects 2 or 4 parameter bytes, got " + n;
+            case 'c':
+                return n == 4 || n == 8 ? null : "ESC ( c expects 4 or 8 parameter bytes, got " + n;
+            case 'U':
+                return n == 1 || n == 5 ? null : "ESC ( U expects 1 or 5 parameter bytes, got " + n;
+            case 'G': case 'i':
+                return n == 1 ? null : "ESC ( " + (char) sub + " expects 1 parameter byte, got " + n;
+            case '-':
+                return n == 3 ? null : "ESC ( - expects 3 parameter bytes, got " + n;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean onOff(int n)
+    {
+        return n == 0 || n == 1 || n == 48 || n == 49;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * FormTemplate.java
+ *
+ * Precompiled layout for pre-printed forms. The layout is described once with the usual EscPrinter commands
+ * (positioning, pitch, bold...) and fixed-width fields, and compiled into a byte program where every field is a slot
+ * of spaces. Rendering a record only copies the field values into the slots of a Form: the cm to printer unit maths
+ * and the escape sequences are not computed again, and nothing is allocated per record.
+ *
+ * Usage:
+ *     FormTemplate.Builder builder = FormTemplate.builder(false);
+ *     EscPrinter layout = builder.printer();
+ *     layout.advanceVertical(5);
+ *     layout.setAbsoluteHorizontalPosition(5);
+ *     int name = builder.field(30, FormTemplate.Align.LEFT);
+ *     layout.formFeed();
+ *     FormTemplate template = builder.build();
+ *
+ *     FormTemplate.Form form = template.newForm(); //one per thread, reused for every record
+ *     form.set(name, customer.getName());
+ *     form.writeTo(out);
+ */
+
+package net.drayah.matrixprinter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public final class FormTemplate
+{
+    public enum Align
+    {
+        LEFT, RIGHT
+    }
+
+    private static final byte SPACE = 32;
+
+    private final byte[] program;
+    private final int[] offsets;
+    private final int[] widths;
+    private final Align[] aligns;
+    private final byte[][] tables;
+
+    private FormTemplate(byte[] program, List<Slot> slots)
+    {
+        this.program = program;
+        this.offsets = new int[slots.size()];
+        this.widths = new int[slots.size()];
+        this.aligns = new Align[slots.size()];
+        this.tables = new byte[slots.size()][];
+        for (int i = 0; i < slots.size(); i++)
+        {
+            offsets[i] = slots.get(i).offset;
+            widths[i] = slots.get(i).width;
+            aligns[i] = slots.get(i).align;
+            tables[i] = slots.get(i).table.map;
+        }
+    }
+
+    /**
+     *  @param escp24pin indicates whether the forms are printed on a 24 pin esc/p2 epson (vertical units differ)
+     *  @return a builder recording the layout of a new template
+     */
+    public static Builder builder(boolean escp24pin)
+    {
+        return new Builder(escp24pin);
+    }
+
+    public int slotCount()
+    {
+        return offsets.length;
+    }
+
+    /** @return the length in bytes of every rendered form */
+    public int length()
+    {
+        return program.length;
+    }
+
+    /** @return a new form with blank fields, to be reused for many records by a single thread */
+    public Form newForm()
+    {
+        return new Form();
+    }
+
+    public static final class Builder
+    {
+        private final EscCommandBuffer buffer = new EscCommandBuffer();
+        private final EscPrinter printer;
+        private final List<Slot> slots = new ArrayList<>();
+
+        private Builder(boolean escp24pin)
+        {
+            this.printer = new EscPrinter(escp24pin, buffer);
+        }
+
+        /** @return the printer recording the fixed part of the layout, do not initialize() nor close() it */
+        public EscPrinter printer()
+        {
+            return printer;
+        }
+
+        /**
+         *  adds a field at the current position of the layout
+         *  @param width number of characters printed for the field, values are padded with spaces or truncated
+         *  @param align side of the field the value sticks to
+         *  @return the slot number used to set the field of a Form
+         */
+        public int field(int width, Align align)
+        {
+            if (width <= 0)
+                throw new IllegalArgumentException("field width must be positive");
+            if (align == null)
+                throw new IllegalArgumentException("alignment cannot be null");
+
+            printer.flushMotion(); //in optimizing mode the moves to the field are still held back
+            slots.add(new Slot(buffer.size(), width, align, printer.getCharacterTable()));
+            buffer.fill(SPACE, width);
+            return slots.size() - 1;
+        }
+
+        public FormTemplate build()
+        {
+            printer.flushMotion();
+            return new FormTemplate(buffer.toByteArray(), slots);
+        }
+    }
+
+    /** One rendered form: a private copy of the program whose slots are overwritten for each record */
+    public final class Form
+    {
+        private final byte[] bytes = program.clone();
+
+        /** sets field {@code slot} to {@code value}, translated with the character table selected in the layout when the field was added */
+        public Form set(int slot, CharSequence value)
+        {
+            int offset = offsets[slot];
+            int width = widths[slot];
+            int length = value == null ? 0 : Math.min(value.length(), width);
+            int start = aligns[slot] == Align.LEFT ? offset : offset + width - length;
+            byte[] table = tables[slot];
+
+            Arrays.fill(bytes, offset, offset + width, SPACE);
+            for (int i = 0; i < length; i++)
+                bytes[start + i] = table[value.charAt(i)];
+            return this;
+        }
+
+        /** sets field {@code slot} to the decimal digits of {@code value}, without creating a String */
+        public Form set(int slot, long value)
+        {
+            int offset = offsets[slot];
+            int width = widths[slot];
+            int length = digits(value);
+
+            Arrays.fill(bytes, offset, offset + width, SPACE);
+            if (length > width) //does not fit, mark the field instead of printing a wrong number
+            {
+                Arrays.fill(bytes, offset, offset + width, (byte) '*');
+                return this;
+            }
+
+            int end = (aligns[slot] == Align.LEFT ? offset + length : offset + width) - 1;
+            long rest = value;
+            do
+            {
+                bytes[end--] = (byte) ('0' + Math.abs(rest % 10));
+                rest /= 10;
+            }
+            while (rest != 0);
+            if (value < 0)
+                bytes[end] = '-';
+            return this;
+        }
+
+        /** blanks every field */
+        public Form clear()
+        {
+            for (int slot = 0; slot < offsets.length; slot++)
+                Arrays.fill(bytes, offsets[slot], offsets[slot] + widths[slot], SPACE);
+            return this;
+        }
+
+        public void writeTo(OutputStream out) throws IOException
+        {
+            out.write(bytes, 0, bytes.length);
+        }
+
+        public void writeTo(EscCommandBuffer out)
+        {
+            out.write(bytes, 0, bytes.length);
+        }
+
+        public byte[] toByteArray()
+        {
+            return bytes.clone();
+        }
+
+        private int digits(long value)
+        {
+            int length = value < 0 ? 2 : 1;
+            for (long rest = value / 10; rest != 0; rest /= 10)
+                length++;
+            return length;
+        }
+    }
+
+    private static final class Slot
+    {
+        final int offset;
+        final int width;
+        final Align align;
+        final CharacterTable table;
+
+        Slot(int offset, int width, Align align, CharacterTable table)
+        {
+            this.offset = offset;
+            this.width = width;
+            this.align = align;
+            this.table = table;
+        }
+    }
+}
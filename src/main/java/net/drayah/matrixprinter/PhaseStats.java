@@ -0,0 +1,71 @@
+/*
+ * PhaseStats.java
+ *
+ * Snapshot of the latency statistics of one phase for one printer. Percentiles are approximate: they are the upper
+ * bound of a power of two bucket, so they are at most twice the real value.
+ */
+
+package net.drayah.matrixprinter;
+
+import java.beans.ConstructorProperties;
+
+public final class PhaseStats
+{
+    private final long count;
+    private final long failures;
+    private final long meanMicros;
+    private final long p50Micros;
+    private final long p99Micros;
+    private final long maxMicros;
+
+    @ConstructorProperties({ "count", "failures", "meanMicros", "p50Micros", "p99Micros", "maxMicros" })
+    public PhaseStats(long count, long failures, long meanMicros, long p50Micros, long p99Micros, long maxMicros)
+    {
+        this.count = count;
+        this.failures = failures;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public long getFailures()
+    {
+        return failures;
+    }
+
+    public long getMeanMicros()
+    {
+        return meanMicros;
+    }
+
+    public long getP50Micros()
+    {
+        return p50Micros;
+    }
+
+    public long getP99Micros()
+    {
+        return p99Micros;
+    }
+
+    public long getMaxMicros()
+    {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder strb = new StringBuilder();
+        strb.append("<PhaseStats[count=").append(count).append(", failures=").append(failures)
+            .append(", mean=").append(meanMicros).append("us, p50=").append(p50Micros)
+            .append("us, p99=").append(p99Micros).append("us, max=").append(maxMicros).append("us]>");
+        return strb.toString();
+    }
+}
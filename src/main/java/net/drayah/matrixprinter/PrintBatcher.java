@@ -0,0 +1,258 @@
+/*
+ * PrintBatcher.java
+ *
+ * Coalesces many small documents (labels, receipts) for the same printer into one print job, so the per-job cost of
+ * javax.print/CUPS is paid once per batch instead of once per document. Documents are gathered until the batch holds
+ * maxDocuments documents or maxBytes bytes, or maxDelay elapsed since its first document, then the batch is handed to an
+ * EscSpooler as one job. Every document is followed by the terminator (by default CR FF ESC @, i.e. formFeed() and a
+ * printer reset), so each one starts on a new page whichever batch it ends up in.
+ *
+ * Every document gets its own future, completed with the outcome of the job it was printed in. A failed batch fails all
+ * of its documents: the printer may have printed part of it, so resending documents one by one could print them twice.
+ *
+ * Batches are sent when they are full on the submitting thread, when their delay elapses on a sender thread: a printer
+ * whose spooler queue is full (OverflowPolicy.BLOCK) only holds up the batches of that printer.
+ */
+
+package net.drayah.matrixprinter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class PrintBatcher implements AutoCloseable
+{
+    private static final byte[] DEFAULT_TERMINATOR = { 13, 12, 27, 64 }; //CR FF ESC @
+
+    private final EscSpooler spooler;
+    private final int maxDocuments;
+    private final int maxBytes;
+    private final long maxDelayMillis;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService sender; //sends the batches whose delay elapsed, the timer never waits for the spooler
+    private final Map<String, Batch> open = new HashMap<>(); //guarded by this
+    private final ConcurrentMap<String, Object> sendLocks = new ConcurrentHashMap<>(); //per printer, held from taking a batch to queuing it, taken before this
+    private volatile byte[] terminator = DEFAULT_TERMINATOR;
+    private boolean closed; //guarded by this
+
+    /** Creates a batcher submitting its batches to {@code spooler}
+     *  @param spooler spooler receiving the joined jobs, keeps batches of one printer in order
+     *  @param maxDocuments a batch is sent once it holds this many documents
+     *  @param maxBytes a batch is sent once it holds this many bytes (a larger single document is sent alone)
+     *  @param maxDelayMillis a batch is sent at the latest this long after its first document was added
+     */
+    public PrintBatcher(EscSpooler spooler, int maxDocuments, int maxBytes, long maxDelayMillis)
+    {
+        if (spooler == null)
+            throw new IllegalArgumentException("the spooler cannot be null");
+        if (maxDocuments <= 0 || maxBytes <= 0 || maxDelayMillis < 0)
+            throw new IllegalArgumentException("batch limits must be positive");
+
+        this.spooler = spooler;
+        this.maxDocuments = maxDocuments;
+        this.maxBytes = maxBytes;
+        this.maxDelayMillis = maxDelayMillis;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "print-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sender = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "print-batcher-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     *  sets the bytes appended to every document, the last one of a batch included.
+     *  Use only ESC @ when the documents already end with a form feed
+     */
+    public void setTerminator(byte[] terminator)
+    {
+        if (terminator == null)
+            throw new IllegalArgumentException("the terminator cannot be null");
+
+        this.terminator = terminator.clone();
+    }
+
+    /**
+     *  adds a document to the current batch of the printer named {@code printerName}
+     *  @param document complete ESC/P content of the document
+     *  @return a future completed when the batch holding the document is printed, or exceptionally if that batch failed
+     */
+    public CompletableFuture<Void> submit(String printerName, byte[] document)
+    {
+        if (printerName == null || document == null)
+            throw new IllegalArgumentException("the printer name and document cannot be null");
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        List<Batch> ready = new ArrayList<>(2);
+
+        synchronized (sendLock(printerName)) //the batches taken are queued before another one of this printer
+        {
+            synchronized (this)
+            {
+                if (closed)
+                {
+                    result.completeExceptionally(new RejectedExecutionException("batcher is closed"));
+                    return result;
+                }
+
+                Batch batch = open.get(printerName);
+                if (batch != null && batch.size() + document.length + terminator.length > maxBytes)
+                {
+                    ready.add(take(printerName)); //the document does not fit, send what we have and start a new batch
+                    batch = null;
+                }
+                if (batch == null)
+                    batch = open(printerName);
+
+                batch.add(document, result);
+                if (batch.documents.size() >= maxDocuments || batch.size() >= maxBytes || maxDelayMillis == 0)
+                    ready.add(take(printerName));
+            }
+
+            for (Batch batch : ready) //outside the batcher lock, the spooler may block when its queue is full
+                send(batch);
+        }
+        return result;
+    }
+
+    /** sends every open batch now */
+    public void flush()
+    {
+        List<String> printerNames;
+        synchronized (this)
+        {
+            printerNames = new ArrayList<>(open.keySet());
+        }
+
+        for (String printerName : printerNames)
+        {
+            synchronized (sendLock(printerName))
+            {
+                Batch batch;
+                synchronized (this)
+                {
+                    batch = take(printerName);
+                }
+                send(batch);
+            }
+        }
+    }
+
+    /** sends every open batch and stops accepting documents, the spooler is left running */
+    @Override
+    public void close()
+    {
+        synchronized (this)
+        {
+            closed = true;
+        }
+        flush();
+        timer.shutdown();
+        sender.shutdown();
+    }
+
+    private void flush(String printerName, Batch expected)
+    {
+        //post: timer expired, sends the batch unless it was already sent because it got full
+        synchronized (sendLock(printerName))
+        {
+            Batch batch;
+            synchronized (this)
+            {
+                if (open.get(printerName) != expected)
+                    return;
+                batch = take(printerName);
+            }
+            send(batch);
+        }
+    }
+
+    private void sendLater(String printerName, Batch batch)
+    {
+        try
+        {
+            sender.execute(() -> flush(printerName, batch));
+        }
+        catch (RejectedExecutionException ex)
+        {
+            //closed, close() sent every open batch
+        }
+    }
+
+    private Object sendLock(String printerName)
+    {
+        return sendLocks.computeIfAbsent(printerName, name -> new Object());
+    }
+
+    private Batch open(String printerName)
+    {
+        Batch batch = new Batch(printerName);
+        open.put(printerName, batch);
+        if (maxDelayMillis > 0)
+            batch.timeout = timer.schedule(() -> sendLater(printerName, batch), maxDelayMillis, TimeUnit.MILLISECONDS);
+        return batch;
+    }
+
+    private Batch take(String printerName)
+    {
+        Batch batch = open.remove(printerName);
+        if (batch != null && batch.timeout != null)
+            batch.timeout.cancel(false);
+        return batch;
+    }
+
+    private void send(Batch batch)
+    {
+        if (batch == null)
+            return;
+
+        spooler.submit(batch.printerName, batch.data.toByteArray()).whenComplete((ignored, failure) -> {
+            for (CompletableFuture<Void> document : batch.documents)
+            {
+                if (failure == null)
+                    document.complete(null);
+                else
+                    document.completeExceptionally(failure);
+            }
+        });
+    }
+
+    private final class Batch
+    {
+        final String printerName;
+        final EscCommandBuffer data = new EscCommandBuffer();
+        final List<CompletableFuture<Void>> documents = new ArrayList<>();
+        ScheduledFuture<?> timeout;
+
+        Batch(String printerName)
+        {
+            this.printerName = printerName;
+        }
+
+        void add(byte[] document, CompletableFuture<Void> result)
+        {
+            data.write(document);
+            data.write(terminator);
+            documents.add(result);
+        }
+
+        int size()
+        {
+            return data.size();
+        }
+    }
+}
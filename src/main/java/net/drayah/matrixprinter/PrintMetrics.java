@@ -0,0 +1,34 @@
+/*
+ * PrintMetrics.java
+ *
+ * Listener notified of the bytes and commands sent to each printer and of how long each phase of the print path took.
+ * Calls happen on the printing threads, implementations must be thread safe and cheap (see DefaultPrintMetrics).
+ */
+
+package net.drayah.matrixprinter;
+
+public interface PrintMetrics
+{
+    /** ignores everything, used until metrics are configured */
+    PrintMetrics NONE = new PrintMetrics()
+    {
+    };
+
+    /**
+     *  called after pending commands were written to the printer
+     *  @param bytes number of bytes written
+     *  @param commands number of EscPrinter command calls encoded in those bytes
+     */
+    default void bytesWritten(String printerName, long bytes, long commands)
+    {
+    }
+
+    /**
+     *  called after a phase of the print path completed
+     *  @param nanos time spent, in nanoseconds
+     *  @param success false if the phase failed (the failure itself is logged or thrown as before)
+     */
+    default void phase(String printerName, PrintPhase phase, long nanos, boolean success)
+    {
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * PrintPhase.java
+ *
+ * Steps of the print path timed by PrintMetrics.
+ */
+
+package net.drayah.matrixprinter;
+
+public enum PrintPhase
+{
+    /** opening the printer device and sending the default settings (EscPrinter.initialize) */
+    INITIALIZE,
+    /**
+     *  rendering into memory: a whole job for printCached and BulkRenderer, a bit image for printImage. Text and
+     *  single commands are not timed, reading the clock would cost about as much as encoding them
+     */
+    ENCODE,
+    /** resolving the print service of a printer name */
+    LOOKUP,
+    /** handing a job to javax.print (createPrintJob().print) */
+    SUBMIT,
+    /** writing buffered commands to the device or stream */
+    DEVICE_WRITE
+}
@@ -0,0 +1,203 @@
+/*
+ * PrintServiceRegistry.java
+ *
+ * Cache of the registered print services, indexed by printer name ignoring case (as String.equalsIgnoreCase).
+ * PrinterJob.lookupPrintServices() is slow on hosts with many queues (CUPS), so it is done once lazily, then again only
+ * when the snapshot is older than the time to live. A stale snapshot keeps being served while it is reloaded in the background.
+ * A printer name that is not found triggers a synchronous reload, at most once per miss interval, so new queues show up quickly.
+ * The background thread stops after a minute without reloads, close() stops it for good.
+ */
+
+package net.drayah.matrixprinter;
+
+import java.awt.print.PrinterJob;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.print.PrintService;
+
+public class PrintServiceRegistry implements AutoCloseable
+{
+    private static final long DEFAULT_TTL_MILLIS = 30000;
+    private static final long DEFAULT_MISS_INTERVAL_MILLIS = 1000;
+    private static final long IDLE_THREAD_SECONDS = 60;
+
+    private static final PrintServiceRegistry DEFAULT = new PrintServiceRegistry(PrinterJob::lookupPrintServices, DEFAULT_TTL_MILLIS);
+
+    private final Supplier<PrintService[]> lookup;
+    private final ThreadPoolExecutor revalidator;
+    private final AtomicBoolean revalidating = new AtomicBoolean();
+    private volatile long ttlNanos;
+    private volatile long missIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MISS_INTERVAL_MILLIS);
+    private volatile Snapshot snapshot; //null until first use
+
+    /** Creates a registry
+     *  @param lookup the (slow) source of print services, usually {@code PrinterJob::lookupPrintServices}
+     *  @param ttlMillis time after which the services are looked up again, in milliseconds
+     */
+    public PrintServiceRegistry(Supplier<PrintService[]> lookup, long ttlMillis)
+    {
+        if (lookup == null)
+            throw new IllegalArgumentException("the print service lookup cannot be null");
+        if (ttlMillis < 0)
+            throw new IllegalArgumentException("time to live cannot be negative");
+
+        this.lookup = lookup;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.revalidator = new ThreadPoolExecutor(1, 1, IDLE_THREAD_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "print-service-registry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.revalidator.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     *  @return the registry shared by all EscPrinter instances
+     */
+    public static PrintServiceRegistry getDefault()
+    {
+        return DEFAULT;
+    }
+
+    public void setTimeToLive(long ttlMillis)
+    {
+        if (ttlMillis < 0)
+            throw new IllegalArgumentException("time to live cannot be negative");
+
+        ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /** minimum time between two synchronous reloads caused by unknown printer names, 0 to disable them */
+    public void setMissRefreshInterval(long intervalMillis)
+    {
+        missIntervalNanos = intervalMillis <= 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    /**
+     *  @return a possibly empty array of PrintService (service of all registered printers), never reloads synchronously once loaded
+     */
+    public PrintService[] services()
+    {
+        return current().services.clone();
+    }
+
+    /**
+     *  find the PrintService of the printer named {@code printerName}, ignoring case
+     *  @param printerName the name of the printer to find
+     *  @return a PrintService of the printer printerName if found, else null.
+     */
+    public PrintService lookup(String printerName)
+    {
+        if (printerName == null)
+            return null;
+
+        Snapshot current = current();
+        PrintService service = current.byName.get(printerName);
+
+        if (service == null && System.nanoTime() - current.loadedAt >= missIntervalNanos)
+            service = reloadUnlessNewer(current).byName.get(printerName);
+
+        return service;
+    }
+
+    /** discards the cached services and looks them up again now */
+    public void refresh()
+    {
+        reload();
+    }
+
+    /** stops the background reloads, stale services are then reloaded on the calling thread */
+    @Override
+    public void close()
+    {
+        revalidator.shutdown();
+    }
+
+    private Snapshot current()
+    {
+        Snapshot current = snapshot;
+
+        if (current == null)
+            return load();
+
+        if (System.nanoTime() - current.loadedAt >= ttlNanos)
+            revalidate();
+
+        return current;
+    }
+
+    private synchronized Snapshot load()
+    {
+        //post: first lookup, concurrent callers wait for the same one
+        if (snapshot == null)
+            snapshot = new Snapshot(lookup.get());
+        return snapshot;
+    }
+
+    private synchronized Snapshot reload()
+    {
+        snapshot = new Snapshot(lookup.get());
+        return snapshot;
+    }
+
+    private synchronized Snapshot reloadUnlessNewer(Snapshot seen)
+    {
+        //post: callers missing the same name at once share a single reload
+        if (snapshot != seen)
+            return snapshot;
+        return reload();
+    }
+
+    private void revalidate()
+    {
+        //post: reloads in the background, only one reload at a time
+        if (!revalidating.compareAndSet(false, true))
+            return;
+
+        Runnable reload = () -> {
+            try
+            {
+                reload();
+            }
+            catch (RuntimeException ex)
+            {
+                Logger.getLogger(PrintServiceRegistry.class.getName()).log(Level.WARNING, null, ex);
+            }
+            finally
+            {
+                revalidating.set(false);
+            }
+        };
+        try
+        {
+            revalidator.execute(reload);
+        }
+        catch (RejectedExecutionException ex)
+        {
+            reload.run(); //closed
+        }
+    }
+
+    private static final class Snapshot
+    {
+        final PrintService[] services;
+        final Map<String, PrintService> byName;
+        final long loadedAt = System.nanoTime();
+
+        Snapshot(PrintService[] services)
+        {
+            this.services = services == null ? new PrintService[0] : services;
+            this.byName = new TreeMap<>(String.CASE_INSENSITIVE_ORDER); //same matching as equalsIgnoreCase
+            for (PrintService service : this.services)
+                byName.putIfAbsent(service.getName(), service); //first match wins, as the linear scan did
+        }
+    }
+}
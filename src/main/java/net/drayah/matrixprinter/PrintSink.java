@@ -0,0 +1,20 @@
+/*
+ * PrintSink.java
+ *
+ * Destination of complete, already encoded print jobs (ESC/P byte streams), addressed by printer name.
+ */
+
+package net.drayah.matrixprinter;
+
+@FunctionalInterface
+public interface PrintSink
+{
+    /** sends jobs through javax.print to the registered print service of the printer, see {@link EscPrinter#printData} */
+    PrintSink JAVAX_PRINT = (printerName, data) -> new EscPrinter(printerName, false).printData(data, null);
+
+    /**
+     *  sends {@code data} to the printer named {@code printerName} as one job
+     *  @throws Exception if the job could not be delivered
+     */
+    void print(String printerName, byte[] data) throws Exception;
+}
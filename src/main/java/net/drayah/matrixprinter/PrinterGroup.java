@@ -0,0 +1,384 @@
+/*
+ * PrinterGroup.java
+ *
+ * Farm of interchangeable printers behind one name. Jobs are spread over the members through their EscSpooler queues
+ * (so members print in parallel and throughput grows with their number) with one of three policies: round-robin,
+ * least queued (fewest jobs waiting in the spooler queue of the member, whoever submitted them, members with a full
+ * queue are only chosen when every queue is full), or sticky by key (jobs with the same key, e.g. a picking zone, always
+ * go to the same printer while it is up; rendezvous hashing moves only the keys of a printer that goes down).
+ *
+ * A member leaves the rotation when one of its jobs fails or when the periodic health check fails, and comes back once
+ * the check succeeds again. The default check always succeeds, so a member taken down by a failed job is tried again
+ * every 10 seconds. EscPrinter::printerExists only suits members installed as print services; for device files such as
+ * /dev/lp0 check the file (e.g. Files.isWritable), for network printers probe their socket.
+ *
+ * A job refused by the queue of a member is sent to another one. A job that failed while printing is not, unless
+ * failover is turned on: the member may have printed part of it, so failover can print a job twice. Members must be
+ * compatible: same 9/24 pin model and character table, as the jobs are encoded once for all of them (see render).
+ */
+
+package net.drayah.matrixprinter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class PrinterGroup implements AutoCloseable
+{
+    public enum Policy
+    {
+        ROUND_ROBIN, LEAST_QUEUED, STICKY
+    }
+
+    private static final long DEFAULT_CHECK_INTERVAL_MILLIS = 10000;
+
+    private final String name;
+    private final EscSpooler spooler;
+    private final Policy policy;
+    private final boolean escp24pin;
+    private final char charset;
+    private final Map<String, Member> members = new ConcurrentHashMap<>();
+    private final AtomicLong next = new AtomicLong();
+    private final ScheduledExecutorService checker;
+    private volatile Member[] available = new Member[0];
+    private volatile Predicate<String> healthCheck = printerName -> true;
+    private volatile boolean failover;
+    private ScheduledFuture<?> checks; //guarded by this, started by the first member
+
+    /** Creates an empty group, the health checks start with its first member
+     *  @param name group name, used in messages
+     *  @param spooler queues of the member printers
+     *  @param escp24pin the members are 24 pin esc/p2 printers
+     *  @param charset registered character table of the members, e.g. EscPrinter.BRAZIL
+     */
+    public PrinterGroup(String name, EscSpooler spooler, Policy policy, boolean escp24pin, char charset)
+    {
+        if (name == null || spooler == null || policy == null)
+            throw new IllegalArgumentException("the name, spooler and policy cannot be null");
+
+        this.name = name;
+        this.spooler = spooler;
+        this.policy = policy;
+        this.escp24pin = escp24pin;
+        this.charset = charset;
+        this.checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "printer-group-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     *  adds {@code printer} to the rotation, it only needs a name: the group does not initialize nor close it
+     *  @throws IllegalArgumentException if its pins or selected character table differ from the group's
+     */
+    public void add(EscPrinter printer)
+    {
+        if (printer.isEscp24pin() != escp24pin)
+            throw new IllegalArgumentException("printer " + printer.getShare() + " is not a " + (escp24pin ? "24" : "9") + " pin printer like group " + name);
+        if (printer.getCharacterTable().getRegisteredTable() != charset)
+            throw new IllegalArgumentException("printer " + printer.getShare() + " does not use the character table of group " + name);
+
+        add(printer.getShare());
+    }
+
+    /** adds the printer named {@code printerName}, assumed compatible */
+    public void add(String printerName)
+    {
+        if (printerName == null)
+            throw new IllegalArgumentException("the printer name cannot be null");
+
+        members.putIfAbsent(printerName, new Member(printerName));
+        rebuild();
+        startChecks();
+    }
+
+    public void remove(String printerName)
+    {
+        members.remove(printerName);
+        rebuild();
+    }
+
+    /**
+     *  replaces the health check, run for every member each {@code intervalMillis}
+     *  @param check returns true when the printer can print, e.g. {@code name -> Files.isWritable(Paths.get(name))} for
+     *  device files or EscPrinter::printerExists for print services
+     */
+    public synchronized void setHealthCheck(Predicate<String> check, long intervalMillis)
+    {
+        if (check == null)
+            throw new IllegalArgumentException("the health check cannot be null");
+        if (intervalMillis <= 0)
+            throw new IllegalArgumentException("check interval must be positive");
+
+        healthCheck = check;
+        if (checks != null)
+            checks.cancel(false);
+        checks = checker.scheduleWithFixedDelay(this::checkHealth, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     *  send the jobs that failed while printing on a member to another one, off by default: the failed member may have
+     *  printed part of the job, which is then printed twice. Jobs refused by the queue of a member are always sent on
+     */
+    public void setFailover(boolean failover)
+    {
+        this.failover = failover;
+    }
+
+    /**
+     *  encodes a document once for every member: {@code document} writes to a printer reset to the defaults and the
+     *  character table of the group
+     */
+    public byte[] render(Consumer<EscPrinter> document)
+    {
+        EscCommandBuffer buffer = new EscCommandBuffer();
+        EscPrinter printer = new EscPrinter(escp24pin, buffer);
+        printer.reset();
+        printer.setCharacterSet(charset);
+        document.accept(printer);
+        printer.flush();
+        return buffer.toByteArray();
+    }
+
+    /** @see #submit(String, byte[]) */
+    public CompletableFuture<String> submit(byte[] data)
+    {
+        return submit(null, data);
+    }
+
+    /**
+     *  queues {@code data} on a member chosen by the policy
+     *  @param key jobs with equal keys go to the same member with the STICKY policy, may be null (any member)
+     *  @return completed with the name of the printer that printed the job, or exceptionally when it failed on every
+     *  member tried or no member is available (RejectedExecutionException)
+     */
+    public CompletableFuture<String> submit(String key, byte[] data)
+    {
+        if (data == null)
+            throw new IllegalArgumentException("the job data cannot be null");
+
+        CompletableFuture<String> result = new CompletableFuture<>();
+        dispatch(key, data, new HashSet<>(), result);
+        return result;
+    }
+
+    private void dispatch(String key, byte[] data, Set<String> tried, CompletableFuture<String> result)
+    {
+        Member member = choose(key, tried);
+        if (member == null)
+        {
+            result.completeExceptionally(new RejectedExecutionException("no printer of group " + name + " is available"));
+            return;
+        }
+
+        tried.add(member.printerName);
+        member.outstanding.incrementAndGet();
+        spooler.submit(member.printerName, data).whenComplete((ignored, ex) -> {
+            member.outstanding.decrementAndGet();
+            if (ex == null)
+            {
+                result.complete(member.printerName);
+                return;
+            }
+            boolean rejected = ex instanceof RejectedExecutionException || ex.getCause() instanceof RejectedExecutionException;
+            if (!rejected)
+                markDown(member, ex);
+            if ((rejected || failover) && !spooler.isShutdown() && choose(key, tried) != null) //refused: not a byte was sent
+                dispatch(key, data, tried, result);
+            else
+                result.completeExceptionally(ex);
+        });
+    }
+
+    private Member choose(String key, Set<String> excluded)
+    {
+        Member[] candidates = available;
+        if (!excluded.isEmpty())
+        {
+            List<Member> left = new ArrayList<>(candidates.length);
+            for (Member member : candidates)
+            {
+                if (!excluded.contains(member.printerName))
+                    left.add(member);
+            }
+            candidates = left.toArray(new Member[0]);
+        }
+        if (candidates.length == 0)
+            return null;
+
+        switch (policy)
+        {
+            case LEAST_QUEUED:
+            {
+                Member best = null;
+                long fewest = Long.MAX_VALUE;
+                int start = (int) (next.getAndIncrement() % candidates.length); //ties are shared round-robin
+                for (int i = 0; i < candidates.length; i++)
+                {
+                    Member member = candidates[(start + i) % candidates.length];
+                    int queued = spooler.queued(member.printerName); //jobs of every submitter, not only this group's
+                    long jobs = (long) queued << 32 | member.outstanding.get(); //then the jobs this group has printing
+                    if (queued >= spooler.getCapacity())
+                        jobs |= 1L << 62; //full, submitting would block or be refused
+                    if (jobs < fewest)
+                    {
+                        best = member;
+                        fewest = jobs;
+                    }
+                }
+                return best;
+            }
+            case STICKY:
+                if (key != null)
+                    return rendezvous(key, candidates);
+                return candidates[(int) (next.getAndIncrement() % candidates.length)]; //no key: any member will do
+            case ROUND_ROBIN:
+            default:
+                return candidates[(int) (next.getAndIncrement() % candidates.length)];
+        }
+    }
+
+    private static Member rendezvous(String key, Member[] candidates)
+    {
+        //post: the member with the highest weight for the key, the same as long as that member stays available
+        Member best = null;
+        long highest = Long.MIN_VALUE;
+        for (Member member : candidates)
+        {
+            long weight = mix(member.hash ^ key.hashCode() * 0x9E3779B97F4A7C15L);
+            if (best == null || weight > highest)
+            {
+                best = member;
+                highest = weight;
+            }
+        }
+        return best;
+    }
+
+    private static long mix(long z)
+    {
+        //splitmix64 finalizer, spreads the combined hashes evenly
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private void markDown(Member member, Throwable cause)
+    {
+        if (member.up)
+        {
+            member.up = false;
+            Logger.getLogger(PrinterGroup.class.getName()).log(Level.WARNING, "printer " + member.printerName + " leaves group " + name, cause);
+            rebuild();
+        }
+    }
+
+    /** runs the health check of every member now, members out of rotation come back when it succeeds */
+    public void checkHealth()
+    {
+        boolean changed = false;
+        for (Member member : members.values())
+        {
+            boolean up;
+            try
+            {
+                up = healthCheck.test(member.printerName);
+            }
+            catch (RuntimeException ex)
+            {
+                up = false;
+            }
+            if (up != member.up)
+            {
+                member.up = up;
+                changed = true;
+            }
+        }
+        if (changed)
+            rebuild();
+    }
+
+    private synchronized void startChecks()
+    {
+        if (checks == null && !checker.isShutdown()) //setHealthCheck may have started them already
+            checks = checker.scheduleWithFixedDelay(this::checkHealth, DEFAULT_CHECK_INTERVAL_MILLIS, DEFAULT_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void rebuild()
+    {
+        List<Member> up = new ArrayList<>();
+        for (Member member : members.values())
+        {
+            if (member.up)
+                up.add(member);
+        }
+        up.sort((a, b) -> a.printerName.compareTo(b.printerName));
+        available = up.toArray(new Member[0]);
+    }
+
+    /** @return the names of the members in rotation */
+    public List<String> available()
+    {
+        List<String> names = new ArrayList<>();
+        for (Member member : available)
+            names.add(member.printerName);
+        return names;
+    }
+
+    /** @return the jobs waiting or printing on the member named {@code printerName}, sent through this group */
+    public int outstanding(String printerName)
+    {
+        Member member = members.get(printerName);
+        return member == null ? 0 : member.outstanding.get();
+    }
+
+    /** stops the health checks, the spooler is left running */
+    @Override
+    public void close()
+    {
+        checker.shutdownNow();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder strb = new StringBuilder();
+        strb.append("<PrinterGroup[name=").append(name).append(", policy=").append(policy);
+        strb.append(", members=").append(members.size()).append(", available=").append(available.length).append("]>");
+        return strb.toString();
+    }
+
+    private static final class Member
+    {
+        final String printerName;
+        final long hash;
+        final AtomicInteger outstanding = new AtomicInteger();
+        volatile boolean up = true;
+
+        Member(String printerName)
+        {
+            this.printerName = printerName;
+            long h = 1125899906842597L;
+            for (byte b : printerName.getBytes(StandardCharsets.UTF_8))
+                h = 31 * h + b;
+            this.hash = mix(h);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * PrinterSessionPool.java
+ *
+ * Pool of open printers keyed by printer name (device path or Windows share), so high-frequency printers do not open
+ * the device and send the whole setup for every job. A released session keeps its device open; the next job gets it
+ * back after a reset (ESC @ and the initialize() defaults, a few bytes in the same write as the job).
+ * Settings of the borrower (optimizing mode, metrics) are reset on release, the next job starts from the same printer.
+ * Sessions that failed to write, or stayed idle longer than maxIdle, are closed instead of being reused.
+ * The number of sessions open at once on a device is capped, acquire waits for a free one.
+ *
+ * Usage:
+ *     try (PrinterSessionPool.Session session = pool.acquire("/dev/usb/lp0", 5, TimeUnit.SECONDS))
+ *     {
+ *         EscPrinter escp = session.printer();
+ *         escp.print("receipt");
+ *         escp.formFeed();
+ *     }
+ */
+
+package net.drayah.matrixprinter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class PrinterSessionPool implements AutoCloseable
+{
+    private final int maxSessions;
+    private final boolean escp24pin;
+    private final long maxIdleNanos;
+    private final ConcurrentMap<String, Device> devices = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    /** Creates a pool
+     *  @param maxSessions maximum number of sessions open at once on one device
+     *  @param escp24pin indicates whether the printers are 24 pin esc/p2 epson
+     *  @param maxIdleMillis an idle session older than this is closed instead of being reused
+     */
+    public PrinterSessionPool(int maxSessions, boolean escp24pin, long maxIdleMillis)
+    {
+        if (maxSessions <= 0)
+            throw new IllegalArgumentException("maximum number of sessions must be positive");
+        if (maxIdleMillis <= 0)
+            throw new IllegalArgumentException("maximum idle time must be positive");
+
+        this.maxSessions = maxSessions;
+        this.escp24pin = escp24pin;
+        this.maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleMillis);
+    }
+
+    /**
+     *  get an open session on the printer {@code printerName}, waiting at most {@code timeout} for one to be free
+     *  @return a session in the default state of a freshly initialized printer, close it to give it back
+     *  @throws TimeoutException if every session of the device stayed in use
+     *  @throws IOException if the device could not be opened
+     */
+    public Session acquire(String printerName, long timeout, TimeUnit unit) throws InterruptedException, TimeoutException, IOException
+    {
+        if (closed)
+            throw new IllegalStateException("session pool is closed");
+
+        Device device = devices.computeIfAbsent(printerName, name -> new Device());
+        if (!device.permits.tryAcquire(timeout, unit))
+            throw new TimeoutException("no free session on printer \"" + printerName + '"');
+
+        try
+        {
+            Idle idle;
+            while ((idle = device.idle.pollFirst()) != null)
+            {
+                if (idle.isStale())
+                {
+                    idle.printer.close();
+                    continue;
+                }
+                idle.printer.reset();
+                return new Session(printerName, device, idle.printer);
+            }
+
+            EscPrinter printer = new EscPrinter(printerName, escp24pin);
+            if (!printer.initialize())
+                throw new IOException("could not open printer \"" + printerName + '"');
+            return new Session(printerName, device, printer);
+        }
+        catch (RuntimeException | IOException ex)
+        {
+            device.permits.release();
+            throw ex;
+        }
+    }
+
+    /** closes every session idle for longer than the maximum idle time */
+    public void evictIdle()
+    {
+        for (Device device : devices.values())
+            device.evict(false);
+    }
+
+    /** closes the idle sessions, sessions in use are closed when released */
+    @Override
+    public void close()
+    {
+        closed = true;
+        for (Device device : devices.values())
+            device.evict(true);
+    }
+
+    private void release(Session session)
+    {
+        EscPrinter printer = session.printer;
+        printer.setOptimizing(false); //writes the moves it held back
+        printer.flush();
+        printer.setMetrics(EscPrinter.getDefaultMetrics());
+
+        if (closed || session.invalid || printer.checkError())
+        {
+            printer.close();
+        }
+        else
+        {
+            session.device.idle.offerFirst(new Idle(printer)); //most recently used first, the others can expire
+            if (closed)
+                session.device.evict(true); //close() may have evicted the idle sessions before this one was offered
+        }
+
+        session.device.permits.release();
+        session.device.evict(false);
+    }
+
+    /** An open printer lent by the pool */
+    public final class Session implements AutoCloseable
+    {
+        private final String printerName;
+        private final Device device;
+        private final EscPrinter printer;
+        private boolean invalid;
+        private boolean released;
+
+        private Session(String printerName, Device device, EscPrinter printer)
+        {
+            this.printerName = printerName;
+            this.device = device;
+            this.printer = printer;
+        }
+
+        public EscPrinter printer()
+        {
+            if (released)
+                throw new IllegalStateException("session was released");
+            return printer;
+        }
+
+        public String getPrinterName()
+        {
+            return printerName;
+        }
+
+        /** the device is closed on release instead of being reused (e.g. after a paper jam) */
+        public void invalidate()
+        {
+            invalid = true;
+        }
+
+        /** writes what is pending and gives the session back to the pool */
+        @Override
+        public void close()
+        {
+            if (released)
+                return;
+
+            released = true;
+            release(this);
+        }
+    }
+
+    private final class Device
+    {
+        final Semaphore permits = new Semaphore(maxSessions, true);
+        final Deque<Idle> idle = new ConcurrentLinkedDeque<>();
+
+        void evict(boolean all)
+        {
+            List<Idle> expired = new ArrayList<>();
+            for (Idle session : idle)
+            {
+                if ((all || session.isStale()) && idle.remove(session))
+                    expired.add(session);
+            }
+            for (Idle session : expired)
+                session.printer.close();
+        }
+    }
+
+    private final class Idle
+    {
+        final EscPrinter printer;
+        final long since = System.nanoTime();
+
+        Idle(EscPrinter printer)
+        {
+            this.printer = printer;
+        }
+
+        boolean isStale()
+        {
+            return System.nanoTime() - since > maxIdleNanos || printer.checkError();
+        }
+    }
+}
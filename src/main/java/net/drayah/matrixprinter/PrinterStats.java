@@ -0,0 +1,150 @@
+/*
+ * PrinterStats.java
+ *
+ * Counters and latency histograms of one printer, kept by DefaultPrintMetrics. Recording only touches LongAdders and
+ * an atomic bucket, so many threads can print to the same printer without contending on a lock.
+ */
+
+package net.drayah.matrixprinter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class PrinterStats implements PrinterStatsMXBean
+{
+    private final String printerName;
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder commands = new LongAdder();
+    private final Histogram[] phases = new Histogram[PrintPhase.values().length];
+
+    PrinterStats(String printerName)
+    {
+        this.printerName = printerName;
+        for (int i = 0; i < phases.length; i++)
+            phases[i] = new Histogram();
+    }
+
+    void bytesWritten(long count, long commandCount)
+    {
+        bytes.add(count);
+        commands.add(commandCount);
+    }
+
+    void phase(PrintPhase phase, long nanos, boolean success)
+    {
+        phases[phase.ordinal()].record(TimeUnit.NANOSECONDS.toMicros(nanos), success);
+    }
+
+    @Override
+    public String getPrinterName()
+    {
+        return printerName;
+    }
+
+    @Override
+    public long getBytesWritten()
+    {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getCommands()
+    {
+        return commands.sum();
+    }
+
+    /** @return the statistics of {@code phase}, all zero if it never happened */
+    public PhaseStats getPhase(PrintPhase phase)
+    {
+        return phases[phase.ordinal()].snapshot();
+    }
+
+    @Override
+    public Map<String, PhaseStats> getPhases()
+    {
+        Map<String, PhaseStats> result = new LinkedHashMap<>();
+        for (PrintPhase phase : PrintPhase.values())
+        {
+            PhaseStats stats = getPhase(phase);
+            if (stats.getCount() > 0)
+                result.put(phase.name(), stats);
+        }
+        return result;
+    }
+
+    @Override
+    public void reset()
+    {
+        bytes.reset();
+        commands.reset();
+        for (Histogram histogram : phases)
+            histogram.reset();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder strb = new StringBuilder();
+        strb.append("<PrinterStats[printer=").append(printerName).append(", bytes=").append(getBytesWritten())
+            .append(", commands=").append(getCommands()).append(", phases=").append(getPhases()).append("]>");
+        return strb.toString();
+    }
+
+    private static final class Histogram
+    {
+        //bucket i counts latencies in [2^(i-1), 2^i) microseconds, bucket 0 is below 1 microsecond
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder totalMicros = new LongAdder();
+        private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+        void record(long micros, boolean success)
+        {
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(micros));
+            count.increment();
+            totalMicros.add(micros);
+            maxMicros.accumulate(micros);
+            if (!success)
+                failures.increment();
+        }
+
+        PhaseStats snapshot()
+        {
+            long n = count.sum();
+            if (n == 0)
+                return new PhaseStats(0, 0, 0, 0, 0, 0);
+
+            long max = maxMicros.get();
+            return new PhaseStats(n, failures.sum(), totalMicros.sum() / n,
+                Math.min(percentile(n, 0.50), max), Math.min(percentile(n, 0.99), max), max);
+        }
+
+        private long percentile(long n, double fraction)
+        {
+            long rank = (long) Math.ceil(n * fraction);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++)
+            {
+                seen += buckets.get(i);
+                if (seen >= rank)
+                    return i == 0 ? 0 : 1L << i;
+            }
+            return Long.MAX_VALUE;
+        }
+
+        void reset()
+        {
+            for (int i = 0; i < buckets.length(); i++)
+                buckets.set(i, 0);
+            count.reset();
+            failures.reset();
+            totalMicros.reset();
+            maxMicros.reset();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * PrinterStatsMXBean.java
+ *
+ * JMX view of the statistics DefaultPrintMetrics keeps for one printer.
+ */
+
+package net.drayah.matrixprinter;
+
+import java.util.Map;
+
+public interface PrinterStatsMXBean
+{
+    String getPrinterName();
+
+    long getBytesWritten();
+
+    long getCommands();
+
+    /** @return the latency statistics of every phase seen so far, keyed by PrintPhase name */
+    Map<String, PhaseStats> getPhases();
+
+    void reset();
+}
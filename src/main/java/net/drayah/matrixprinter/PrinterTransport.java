@@ -0,0 +1,24 @@
+/*
+ * PrinterTransport.java
+ *
+ * Opens the byte stream an EscPrinter writes its commands to, see EscPrinter.initialize(PrinterTransport).
+ */
+
+package net.drayah.matrixprinter;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+@FunctionalInterface
+public interface PrinterTransport
+{
+    /** the printer device file or share, as opened by EscPrinter.initialize() */
+    PrinterTransport DEVICE = FileOutputStream::new;
+
+    /**
+     *  opens a stream to the printer named {@code printerName}, closing the stream ends the job
+     *  @throws IOException if the printer cannot be reached
+     */
+    OutputStream open(String printerName) throws IOException;
+}
@@ -0,0 +1,99 @@
+/*
+ * RawFileTransfer.java
+ *
+ * Copies a file of ESC/P or ESC/P2 sequences straight to a printer device or spool file. FileChannel.transferTo lets
+ * the kernel move the bytes (no copy through Java buffers); targets that do not support it get the file through a
+ * memory-mapped region instead. The copy is done in chunks so progress can be reported for files of many megabytes.
+ */
+
+package net.drayah.matrixprinter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public final class RawFileTransfer
+{
+    public static final long DEFAULT_CHUNK_SIZE = 1 << 20; //1 MiB
+
+    /** Receives the progress of a transfer after every chunk */
+    @FunctionalInterface
+    public interface ProgressListener
+    {
+        void progress(long transferred, long total);
+    }
+
+    private RawFileTransfer()
+    {
+    }
+
+    /**
+     *  check if {@code printerName} designates something we can write raw data to directly:
+     *  an existing writable device or spool file, or a Windows printer share (\\computername\printername)
+     */
+    public static boolean isDirectTarget(String printerName)
+    {
+        if (printerName.startsWith("\\\\"))
+            return true;
+
+        File file = new File(printerName);
+        return file.exists() && !file.isDirectory() && file.canWrite();
+    }
+
+    /**
+     *  copies the file {@code source} to the device or spool file {@code device}
+     *  @param chunkSize maximum number of bytes copied between two progress reports
+     *  @param listener receives the progress, may be null
+     *  @return the number of bytes copied
+     */
+    public static long transfer(Path source, String device, long chunkSize, ProgressListener listener) throws IOException
+    {
+        try (FileOutputStream ostream = new FileOutputStream(device))
+        {
+            return transfer(source, ostream.getChannel(), chunkSize, listener);
+        }
+    }
+
+    /**
+     *  copies the file {@code source} to {@code target}
+     *  @param chunkSize maximum number of bytes copied between two progress reports
+     *  @param listener receives the progress, may be null
+     *  @return the number of bytes copied
+     */
+    public static long transfer(Path source, WritableByteChannel target, long chunkSize, ProgressListener listener) throws IOException
+    {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunk size must be positive");
+
+        try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ))
+        {
+            long total = input.size();
+            long position = 0;
+
+            while (position < total)
+            {
+                long length = Math.min(chunkSize, total - position);
+                long copied = input.transferTo(position, length, target);
+
+                if (copied <= 0) //target refused a zero-copy transfer, write the chunk from a mapped region
+                {
+                    MappedByteBuffer region = input.map(FileChannel.MapMode.READ_ONLY, position, length);
+                    while (region.hasRemaining())
+                        target.write(region);
+                    copied = length;
+                }
+
+                position += copied;
+                if (listener != null)
+                    listener.progress(position, total);
+            }
+
+            return position;
+        }
+    }
+}
@@ -0,0 +1,705 @@
+/*
+ * RawTcpTransport.java
+ *
+ * Raw TCP transport to network print servers (JetDirect style, port 9100 by default). Printer names are host names or
+ * addresses, optionally followed by a port: "192.168.0.20", "lpt-server:9101", "[fe80::1]:9100".
+ *
+ * One non-blocking socket channel is kept per printer and reused by every job sent to it until it has been idle for
+ * the idle timeout; a single selector thread serves all printers. Jobs are pipelined: they are queued on the connection
+ * and written back to back without waiting for the previous job to be acknowledged. A stream (open) holds the connection
+ * from its first write until it is closed: jobs and streams arriving meanwhile wait for it, so two EscPrinters printing to
+ * the same printer do not interleave their jobs on the socket. Connecting and writing are bounded
+ * by timeouts. When the connection fails it is reopened with exponential backoff and the jobs not started yet are sent
+ * on the new connection; the job being written when the failure happened is failed, not sent again, as the printer may
+ * already have printed part of it.
+ *
+ * Host names are resolved on a resolver thread, so a slow DNS server does not hold up the jobs of the other printers.
+ *
+ * Usable below an EscPrinter (initialize(PrinterTransport)) or as the PrintSink of an EscSpooler.
+ */
+
+package net.drayah.matrixprinter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class RawTcpTransport implements PrinterTransport, PrintSink, AutoCloseable
+{
+    public static final int DEFAULT_PORT = 9100;
+
+    private static final int READ_BUFFER = 512; //status bytes sent back by the printer are read and discarded
+
+    private volatile long connectTimeoutNanos = TimeUnit.SECONDS.toNanos(5);
+    private volatile long writeTimeoutNanos = TimeUnit.SECONDS.toNanos(30);
+    private volatile long idleTimeoutNanos = TimeUnit.SECONDS.toNanos(30);
+    private volatile long initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(200);
+    private volatile long maxBackoffNanos = TimeUnit.SECONDS.toNanos(10);
+    private volatile int maxAttempts = 5;
+    private volatile int sendBufferSize; //0: system default
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); //run by the selector thread
+    private final Map<String, Connection> connections = new HashMap<>(); //selector thread only
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER); //selector thread only
+    private final ExecutorService resolver = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "raw-tcp-resolver");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Selector selector; //opened with the selector thread on first use, guarded by this
+    private volatile boolean closed;
+
+    /** Creates a transport, the selector thread is started by the first job */
+    public RawTcpTransport()
+    {
+    }
+
+    public void setConnectTimeout(long timeoutMillis)
+    {
+        connectTimeoutNanos = toNanos(timeoutMillis, "connect timeout");
+    }
+
+    /** longest time a job may wait for the printer to accept more bytes, e.g. while it is out of paper */
+    public void setWriteTimeout(long timeoutMillis)
+    {
+        writeTimeoutNanos = toNanos(timeoutMillis, "write timeout");
+    }
+
+    /** time after which an unused connection is closed, print servers often accept a single connection at a time */
+    public void setIdleTimeout(long timeoutMillis)
+    {
+        idleTimeoutNanos = toNanos(timeoutMillis, "idle timeout");
+    }
+
+    /**
+     *  @param maxAttempts connection attempts before the queued jobs of a printer are failed
+     *  @param initialMillis wait before the first reconnection, doubled after each failure up to {@code maxMillis}
+     */
+    public void setReconnect(int maxAttempts, long initialMillis, long maxMillis)
+    {
+        if (maxAttempts < 1)
+            throw new IllegalArgumentException("at least one connection attempt is needed");
+
+        this.initialBackoffNanos = toNanos(initialMillis, "backoff");
+        this.maxBackoffNanos = Math.max(initialBackoffNanos, toNanos(maxMillis, "backoff"));
+        this.maxAttempts = maxAttempts;
+    }
+
+    /** SO_SNDBUF of new connections in bytes, 0 for the system default */
+    public void setSendBufferSize(int bytes)
+    {
+        if (bytes < 0)
+            throw new IllegalArgumentException("send buffer size cannot be negative");
+        sendBufferSize = bytes;
+    }
+
+    private static long toNanos(long millis, String what)
+    {
+        if (millis <= 0)
+            throw new IllegalArgumentException(what + " must be positive");
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     *  queues {@code data} on the connection to {@code printerName}, behind the jobs already queued
+     *  @param data the complete job, not copied: it must not be modified until the returned future is done
+     *  @return completed once the last byte has been handed to the network, or failed with an IOException
+     */
+    public CompletableFuture<Void> send(String printerName, byte[] data)
+    {
+        if (printerName == null)
+            throw new IllegalArgumentException("the printer name cannot be null");
+        return send(printerName, ByteBuffer.wrap(data), new CompletableFuture<>(), null);
+    }
+
+    private CompletableFuture<Void> send(String printerName, ByteBuffer data, CompletableFuture<Void> job, ChannelOutputStream stream)
+    {
+        try
+        {
+            start();
+        }
+        catch (IOException ex)
+        {
+            job.completeExceptionally(ex);
+            return job;
+        }
+
+        tasks.add(() -> connection(printerName).add(new Job(data, job, stream)));
+        selector.wakeup();
+        if (closed) //lost the race with close(), the task may never run
+            job.completeExceptionally(new IOException("transport closed"));
+        return job;
+    }
+
+    /** sends {@code data} as one job and waits until it is written, for EscSpooler and PrintBatcher */
+    @Override
+    public void print(String printerName, byte[] data) throws Exception
+    {
+        try
+        {
+            send(printerName, data).get();
+        }
+        catch (ExecutionException ex)
+        {
+            throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+        }
+    }
+
+    /**
+     *  @return a stream queuing every write on the connection to {@code printerName}; flush() waits until the writes
+     *  are sent and reports their failure, close() flushes but keeps the connection open for the next job. The stream
+     *  holds the connection from its first write until it is closed or failed, other jobs to the printer wait for it, so
+     *  it must be closed once its job is written. Once a write
+     *  failed the stream stays failed: the writes queued behind it are dropped and later ones throw, the caller has to
+     *  open a new stream (EscPrinter.initialize) to start the job over
+     */
+    @Override
+    public OutputStream open(String printerName) throws IOException
+    {
+        if (closed)
+            throw new IOException("transport closed");
+        parse(printerName); //fail early on malformed names
+        return new ChannelOutputStream(printerName);
+    }
+
+    /** closes every connection and fails the jobs not written yet */
+    @Override
+    public void close()
+    {
+        closed = true;
+        synchronized (this)
+        {
+            if (selector != null)
+                selector.wakeup();
+        }
+        resolver.shutdown();
+    }
+
+    private synchronized void start() throws IOException
+    {
+        if (closed)
+            throw new IOException("transport closed");
+        if (selector != null)
+            return;
+
+        selector = Selector.open();
+        Thread thread = new Thread(this::run, "raw-tcp-transport");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run()
+    {
+        while (!closed)
+        {
+            try
+            {
+                long now = System.nanoTime();
+                long next = Long.MAX_VALUE;
+                for (Connection connection : connections.values())
+                    next = Math.min(next, connection.deadline);
+
+                if (next == Long.MAX_VALUE)
+                    selector.select();
+                else if (next > now)
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(next - now)));
+                else
+                    selector.selectNow();
+
+                Runnable task;
+                while ((task = tasks.poll()) != null)
+                    task.run();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    ((Connection) key.attachment()).ready(key);
+                }
+
+                now = System.nanoTime();
+                for (Iterator<Connection> it = connections.values().iterator(); it.hasNext(); )
+                {
+                    Connection connection = it.next();
+                    if (connection.deadline <= now)
+                        connection.expired(now);
+                    if (connection.unused())
+                        it.remove();
+                }
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                Logger.getLogger(RawTcpTransport.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+
+        IOException ex = new IOException("transport closed");
+        Runnable task;
+        while ((task = tasks.poll()) != null)
+            task.run();
+        for (Connection connection : connections.values())
+            connection.abort(ex);
+        connections.clear();
+        try
+        {
+            selector.close();
+        }
+        catch (IOException ignored)
+        {
+            //nothing left to release
+        }
+    }
+
+    private Connection connection(String printerName)
+    {
+        return connections.computeIfAbsent(printerName, Connection::new);
+    }
+
+    static InetSocketAddress parse(String printerName) throws IOException
+    {
+        String host = printerName.trim();
+        int port = DEFAULT_PORT;
+        int colon = host.lastIndexOf(':');
+        if (colon > 0 && host.indexOf(':') == colon || host.startsWith("[") && colon > host.indexOf(']'))
+        {
+            try
+            {
+                port = Integer.parseInt(host.substring(colon + 1));
+            }
+            catch (NumberFormatException ex)
+            {
+                throw new IOException("invalid port in printer address " + printerName);
+            }
+            host = host.substring(0, colon);
+        }
+        if (host.startsWith("[") && host.endsWith("]"))
+            host = host.substring(1, host.length() - 1);
+        if (host.isEmpty() || port <= 0 || port > 65535)
+            throw new IOException("invalid printer address " + printerName);
+
+        return InetSocketAddress.createUnresolved(host, port);
+    }
+
+    private static final class Job
+    {
+        final ByteBuffer data;
+        final CompletableFuture<Void> future;
+        final ChannelOutputStream stream; //null for jobs queued by send()
+
+        Job(ByteBuffer data, CompletableFuture<Void> future, ChannelOutputStream stream)
+        {
+            this.data = data;
+            this.future = future;
+            this.stream = stream;
+        }
+    }
+
+    /** state of one printer, only used by the selector thread */
+    private final class Connection
+    {
+        final String printerName;
+        final ArrayDeque<Job> jobs = new ArrayDeque<>();
+        SocketChannel channel;
+        SelectionKey key;
+        boolean connected;
+        boolean resolving;
+        ChannelOutputStream owner; //stream whose job is being written, the jobs of others are held until it is released
+        final ArrayDeque<Job> held = new ArrayDeque<>();
+        int attempts;
+        long deadline = Long.MAX_VALUE; //connect, write, idle or backoff deadline depending on the state
+
+        Connection(String printerName)
+        {
+            this.printerName = printerName;
+        }
+
+        void add(Job job)
+        {
+            if (owner != null && job.stream != owner)
+            {
+                held.add(job); //another stream holds the connection
+                return;
+            }
+            if (job.stream != null)
+                owner = job.stream;
+            jobs.add(job);
+            if (channel == null && attempts == 0 && !resolving)
+                connect();
+            else if (connected)
+                writeInterest();
+        }
+
+        void release(ChannelOutputStream stream)
+        {
+            //post: the jobs held for the stream are queued in order, the first stream among them holds the connection next
+            if (owner != stream)
+                return;
+            owner = null;
+            List<Job> waiting = new ArrayList<>(held);
+            held.clear();
+            for (Job job : waiting)
+                add(job);
+        }
+
+        boolean unused()
+        {
+            return channel == null && jobs.isEmpty() && held.isEmpty() && owner == null && deadline == Long.MAX_VALUE;
+        }
+
+        private void connect()
+        {
+            //pre: not connected, the name is resolved on the resolver thread, then connect(address, failure) runs here
+            resolving = true;
+            deadline = Long.MAX_VALUE;
+            try
+            {
+                resolver.execute(() -> {
+                    try
+                    {
+                        InetSocketAddress unresolved = parse(printerName);
+                        InetSocketAddress address = new InetSocketAddress(unresolved.getHostString(), unresolved.getPort()); //blocks on DNS
+                        tasks.add(() -> connect(address, null));
+                    }
+                    catch (IOException ex)
+                    {
+                        tasks.add(() -> connect(null, ex));
+                    }
+                    selector.wakeup();
+                });
+            }
+            catch (RejectedExecutionException ex) //closing
+            {
+                resolving = false;
+                failed(new IOException("transport closed"), System.nanoTime());
+            }
+        }
+
+        private void connect(InetSocketAddress address, IOException failure)
+        {
+            long now = System.nanoTime();
+            resolving = false;
+            if (jobs.isEmpty()) //aborted while resolving
+                return;
+            if (failure != null)
+            {
+                failed(failure, now);
+                return;
+            }
+
+            try
+            {
+                if (address.isUnresolved())
+                    throw new UnresolvedAddressException();
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                if (sendBufferSize > 0)
+                    channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+                channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+                key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+                deadline = now + connectTimeoutNanos;
+                if (channel.connect(address))
+                    connected(now);
+            }
+            catch (IOException ex)
+            {
+                failed(ex, now);
+            }
+            catch (UnresolvedAddressException ex)
+            {
+                failed(new IOException("unknown printer host " + printerName), now);
+            }
+        }
+
+        private void connected(long now)
+        {
+            connected = true;
+            attempts = 0;
+            deadline = now + writeTimeoutNanos;
+            writeInterest();
+        }
+
+        void ready(SelectionKey key)
+        {
+            long now = System.nanoTime();
+            try
+            {
+                if (key.isConnectable() && channel.finishConnect())
+                    connected(now);
+                if (connected && key.isReadable())
+                    read();
+                if (connected && key.isValid() && key.isWritable())
+                    write(now);
+            }
+            catch (IOException ex)
+            {
+                failed(ex, now);
+            }
+        }
+
+        private void read() throws IOException
+        {
+            readBuffer.clear();
+            if (channel.read(readBuffer) < 0)
+                throw new EOFException("connection closed by printer " + printerName);
+        }
+
+        private void write(long now) throws IOException
+        {
+            Job job;
+            while ((job = jobs.peek()) != null)
+            {
+                if (job.stream != null && job.stream.failure != null && job.data.position() == 0)
+                {
+                    jobs.poll(); //an earlier write of its stream failed, the printer must not get the rest of the job
+                    job.future.completeExceptionally(job.stream.failure);
+                    continue;
+                }
+                if (channel.write(job.data) > 0)
+                    deadline = now + writeTimeoutNanos; //progress, the printer is accepting data
+                if (job.data.hasRemaining())
+                    return; //socket buffer full, wait for OP_WRITE
+                jobs.poll();
+                job.future.complete(null);
+            }
+            writeInterest();
+        }
+
+        private void writeInterest()
+        {
+            if (jobs.isEmpty())
+            {
+                key.interestOps(SelectionKey.OP_READ);
+                deadline = System.nanoTime() + idleTimeoutNanos;
+            }
+            else
+            {
+                if (key.interestOps() == SelectionKey.OP_READ) //was idle, the write timeout starts now
+                    deadline = System.nanoTime() + writeTimeoutNanos;
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        void expired(long now)
+        {
+            if (channel == null)
+            {
+                deadline = Long.MAX_VALUE;
+                if (resolving)
+                    return;
+                if (!jobs.isEmpty())
+                    connect(); //end of backoff
+                else
+                    attempts = 0;
+            }
+            else if (!connected)
+            {
+                failed(new SocketTimeoutException("connect to printer " + printerName + " timed out"), now);
+            }
+            else if (!jobs.isEmpty())
+            {
+                failed(new SocketTimeoutException("write to printer " + printerName + " timed out"), now);
+            }
+            else
+            {
+                disconnect(); //idle
+                deadline = Long.MAX_VALUE;
+            }
+        }
+
+        private void failed(IOException ex, long now)
+        {
+            disconnect();
+
+            Job job = jobs.peek();
+            if (job != null && job.data.position() > 0) //partly sent, resending could print it twice
+            {
+                jobs.poll();
+                job.future.completeExceptionally(ex);
+            }
+
+            if (jobs.isEmpty())
+            {
+                attempts = 0;
+                deadline = Long.MAX_VALUE;
+                return;
+            }
+
+            attempts++;
+            if (attempts >= maxAttempts)
+            {
+                Logger.getLogger(RawTcpTransport.class.getName()).log(Level.WARNING, "giving up on printer " + printerName, ex);
+                abort(ex);
+                attempts = 0;
+                deadline = Long.MAX_VALUE;
+                return;
+            }
+            long backoff = Math.min(maxBackoffNanos, initialBackoffNanos << Math.min(attempts - 1, 30));
+            deadline = now + backoff;
+        }
+
+        private void disconnect()
+        {
+            connected = false;
+            if (key != null)
+                key.cancel();
+            if (channel != null)
+            {
+                try
+                {
+                    channel.close();
+                }
+                catch (IOException ignored)
+                {
+                    //the connection is dropped anyway
+                }
+            }
+            channel = null;
+            key = null;
+        }
+
+        void abort(IOException ex)
+        {
+            disconnect();
+            List<Job> failed = new ArrayList<>(jobs);
+            failed.addAll(held);
+            jobs.clear();
+            held.clear();
+            owner = null;
+            for (Job job : failed)
+                job.future.completeExceptionally(ex);
+        }
+    }
+
+    /** EscPrinter side of a connection: writes are queued as jobs, flush() waits for them */
+    private final class ChannelOutputStream extends OutputStream
+    {
+        private final String printerName;
+        private final List<CompletableFuture<Void>> pending = new ArrayList<>();
+        private volatile boolean written; //a write was queued, the stream may hold the connection
+        private boolean closed;
+        volatile IOException failure; //first failed write, set on the selector thread
+
+        ChannelOutputStream(String printerName)
+        {
+            this.printerName = printerName;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            checkFailure();
+            if (closed)
+                throw new IOException("stream to printer " + printerName + " is closed");
+            if (len == 0)
+                return;
+            byte[] copy = new byte[len]; //the caller reuses its buffer, e.g. EscCommandBuffer after writeTo
+            System.arraycopy(b, off, copy, 0, len);
+            CompletableFuture<Void> write = new CompletableFuture<>();
+            write.whenComplete((ignored, ex) -> {
+                if (ex != null && failure == null)
+                {
+                    failure = ex instanceof IOException ? (IOException) ex : new IOException(ex);
+                    release(); //the rest of the job is dropped, the other jobs can go
+                }
+            });
+            written = true;
+            pending.add(send(printerName, ByteBuffer.wrap(copy), write, this));
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            checkFailure();
+            try
+            {
+                for (CompletableFuture<Void> write : pending)
+                    write.get();
+            }
+            catch (ExecutionException ex)
+            {
+                throw ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException(ex.getCause());
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while writing to printer " + printerName);
+            }
+            finally
+            {
+                pending.removeIf(CompletableFuture::isDone);
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (closed)
+                return;
+            try
+            {
+                flush();
+            }
+            finally
+            {
+                closed = true;
+                release();
+            }
+        }
+
+        private void release()
+        {
+            Selector running;
+            synchronized (RawTcpTransport.this)
+            {
+                running = selector;
+            }
+            if (!written || running == null)
+                return; //never held the connection
+            tasks.add(() -> {
+                Connection connection = connections.get(printerName);
+                if (connection != null)
+                    connection.release(this);
+            });
+            running.wakeup();
+        }
+
+        private void checkFailure() throws IOException
+        {
+            IOException ex = failure;
+            if (ex != null)
+                throw new IOException("an earlier write to printer " + printerName + " failed, the job is incomplete", ex);
+        }
+    }
+}
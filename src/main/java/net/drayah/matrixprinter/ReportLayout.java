@@ -0,0 +1,348 @@
+/*
+ * ReportLayout.java
+ *
+ * Paginated tabular reports printed straight from a stream of rows. The layout (pitch, columns, page length, title
+ * and footer) is described once; print() then pulls the rows one at a time, pads or truncates every cell to its column
+ * and sends each line to the printer as it goes. A page is flushed to the device as soon as it is complete, so the
+ * first pages are printing while later rows are still being produced, and memory use does not depend on the number of
+ * rows: only one line buffer is kept per print() call.
+ *
+ * Usage:
+ *     ReportLayout layout = ReportLayout.builder()
+ *         .pitch(ReportLayout.Pitch.CPI_15)
+ *         .title("Fechamento do dia")
+ *         .column("Codigo", 8, FormTemplate.Align.LEFT)
+ *         .column("Descricao", 40, FormTemplate.Align.LEFT)
+ *         .column("Valor", 12, FormTemplate.Align.RIGHT)
+ *         .footer(page -> "Pagina " + page)
+ *         .build();
+ *     layout.print(printer, rows); //rows is an Iterator or a Stream of Object[], one element per column
+ *
+ * Layouts are immutable and can be shared between threads.
+ */
+
+package net.drayah.matrixprinter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+public final class ReportLayout
+{
+    /** character pitch of the report, column widths are counted in characters of this pitch */
+    public enum Pitch
+    {
+        CPI_10(10),
+        CPI_15(15),
+        /** proportional characters, columns are placed at 10 cpi character positions and must be aligned left */
+        PROPORTIONAL(10);
+
+        private final int charactersPerInch;
+
+        Pitch(int charactersPerInch)
+        {
+            this.charactersPerInch = charactersPerInch;
+        }
+
+        public int getCharactersPerInch()
+        {
+            return charactersPerInch;
+        }
+    }
+
+    private static final char SPACE = ' ';
+    private static final char RULE = '-';
+    private static final int UNITS_PER_INCH = 60; //ESC $ units
+
+    private final Pitch pitch;
+    private final int pageLength;
+    private final String title;
+    private final IntFunction<String> footer;
+    private final String[] headings;
+    private final int[] starts; //first character of every column
+    private final int[] widths;
+    private final FormTemplate.Align[] aligns;
+    private final float[] positions; //left edge of every column in cm, proportional pitch only
+    private final int lineWidth;
+    private final int bodyLines;
+
+    private ReportLayout(Builder builder)
+    {
+        int columns = builder.columns.size();
+        this.pitch = builder.pitch;
+        this.pageLength = builder.pageLength;
+        this.title = builder.title;
+        this.footer = builder.footer;
+        this.headings = new String[columns];
+        this.starts = new int[columns];
+        this.widths = new int[columns];
+        this.aligns = new FormTemplate.Align[columns];
+        this.positions = new float[columns];
+
+        int start = 0;
+        for (int i = 0; i < columns; i++)
+        {
+            Column column = builder.columns.get(i);
+            if (pitch == Pitch.PROPORTIONAL && column.align != FormTemplate.Align.LEFT)
+                throw new IllegalArgumentException("column " + column.heading + ": proportional text cannot be aligned right, its width is not known");
+            headings[i] = column.heading;
+            starts[i] = start;
+            widths[i] = column.width;
+            aligns[i] = column.align;
+            //half a unit more so the cm -> 1/60 inch conversion of setAbsoluteHorizontalPosition does not truncate to the previous unit
+            positions[i] = (start * (float) UNITS_PER_INCH / pitch.charactersPerInch + 0.5f) / UNITS_PER_INCH * 2.54f;
+            start += column.width + builder.gap;
+        }
+        this.lineWidth = start - builder.gap;
+
+        int headerLines = (title != null ? 2 : 0) + 2; //title and a blank line, headings and a rule
+        int footerLines = footer != null ? 2 : 0; //a blank line and the footer
+        this.bodyLines = pageLength - headerLines - footerLines;
+        if (bodyLines < 1)
+            throw new IllegalArgumentException("page length of " + pageLength + " lines leaves no room for rows");
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /** @return the number of rows printed on every page */
+    public int getRowsPerPage()
+    {
+        return bodyLines;
+    }
+
+    /** @return the width of a line in characters */
+    public int getLineWidth()
+    {
+        return lineWidth;
+    }
+
+    /** @see #print(EscPrinter, Iterator) */
+    public int print(EscPrinter printer, Stream<? extends Object[]> rows)
+    {
+        return print(printer, rows.iterator());
+    }
+
+    /**
+     *  prints the report, pulling {@code rows} as the pages are printed
+     *  @param printer an initialized printer, the report starts at the top of a page
+     *  @param rows one element per column, printed with String.valueOf (null cells are blank)
+     *  @return the number of pages printed, at least one
+     */
+    public int print(EscPrinter printer, Iterator<? extends Object[]> rows)
+    {
+        char[] line = new char[Math.max(lineWidth, 1)];
+        int pages = 0;
+
+        printer.setPageLength(pageLength);
+        applyPitch(printer);
+        do
+        {
+            pages++;
+            header(printer, line);
+
+            int printed = 0;
+            for (; printed < bodyLines && rows.hasNext(); printed++)
+            {
+                Object[] row = rows.next();
+                if (pitch == Pitch.PROPORTIONAL)
+                    printCells(printer, row);
+                else
+                    printLine(printer, line, row);
+                printer.lineFeed();
+            }
+
+            if (footer != null)
+            {
+                for (; printed < bodyLines; printed++)
+                    printer.lineFeed();
+                printer.lineFeed();
+                printer.print(footer.apply(pages));
+            }
+            if (footer != null || printed < bodyLines)
+                printer.formFeed(); //a full page without footer already ends at the top of the next one
+            printer.flush(); //the page leaves for the printer before the next rows are pulled
+        }
+        while (rows.hasNext());
+
+        return pages;
+    }
+
+    private void applyPitch(EscPrinter printer)
+    {
+        if (pitch == Pitch.CPI_15)
+            printer.select15CPI();
+        else
+            printer.select10CPI();
+        printer.proportionalMode(pitch == Pitch.PROPORTIONAL);
+    }
+
+    private void header(EscPrinter printer, char[] line)
+    {
+        if (title != null)
+        {
+            printer.bold(true);
+            printer.print(title);
+            printer.bold(false);
+            printer.lineFeed();
+            printer.lineFeed();
+        }
+
+        if (pitch == Pitch.PROPORTIONAL)
+            printCells(printer, headings);
+        else
+            printLine(printer, line, headings);
+        printer.lineFeed();
+
+        Arrays.fill(line, 0, lineWidth, RULE);
+        printer.print(line, 0, lineWidth);
+        printer.lineFeed();
+    }
+
+    private void printLine(EscPrinter printer, char[] line, Object[] cells)
+    {
+        //fixed pitch: the whole line is padded in one buffer and sent as a single text command
+        Arrays.fill(line, 0, lineWidth, SPACE);
+        for (int i = 0; i < widths.length && i < cells.length; i++)
+            fill(line, starts[i], i, cells[i]);
+
+        int length = lineWidth;
+        while (length > 0 && line[length - 1] == SPACE)
+            length--;
+        if (length > 0)
+            printer.print(line, 0, length);
+    }
+
+    private void printCells(EscPrinter printer, Object[] cells)
+    {
+        //proportional pitch: character widths vary, every cell is placed at its column position
+        for (int i = 0; i < widths.length && i < cells.length; i++)
+        {
+            if (cells[i] == null)
+                continue;
+
+            String value = String.valueOf(cells[i]);
+            printer.setAbsoluteHorizontalPosition(positions[i]);
+            printer.print(value, 0, Math.min(value.length(), widths[i])); //aligned left, see the constructor
+        }
+    }
+
+    private void fill(char[] line, int start, int column, Object cell)
+    {
+        if (cell == null)
+            return;
+
+        String value = String.valueOf(cell);
+        int width = widths[column];
+        int length = Math.min(value.length(), width);
+        if (aligns[column] == FormTemplate.Align.RIGHT)
+            value.getChars(value.length() - length, value.length(), line, start + width - length); //keep the rightmost digits
+        else
+            value.getChars(0, length, line, start);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder strb = new StringBuilder();
+        strb.append("<ReportLayout[pitch=").append(pitch).append(", columns=").append(widths.length);
+        strb.append(", pageLength=").append(pageLength).append(", rowsPerPage=").append(bodyLines).append("]>");
+        return strb.toString();
+    }
+
+    private static final class Column
+    {
+        final String heading;
+        final int width;
+        final FormTemplate.Align align;
+
+        Column(String heading, int width, FormTemplate.Align align)
+        {
+            this.heading = heading;
+            this.width = width;
+            this.align = align;
+        }
+    }
+
+    public static final class Builder
+    {
+        private final List<Column> columns = new ArrayList<>();
+        private Pitch pitch = Pitch.CPI_10;
+        private int pageLength = 66; //11 inch continuous paper at 6 lines per inch
+        private int gap = 1;
+        private String title;
+        private IntFunction<String> footer;
+
+        private Builder()
+        {
+        }
+
+        public Builder pitch(Pitch pitch)
+        {
+            if (pitch == null)
+                throw new IllegalArgumentException("pitch cannot be null");
+            this.pitch = pitch;
+            return this;
+        }
+
+        /** lines per page at the default 1/6 inch line spacing, 66 (11 inch) by default */
+        public Builder pageLength(int lines)
+        {
+            if (lines < 1 || lines > 127)
+                throw new IllegalArgumentException("page length must be between 1 and 127 lines");
+            this.pageLength = lines;
+            return this;
+        }
+
+        /** blank characters between two columns, 1 by default */
+        public Builder gap(int characters)
+        {
+            if (characters < 0)
+                throw new IllegalArgumentException("column gap cannot be negative");
+            this.gap = characters;
+            return this;
+        }
+
+        /** bold line printed at the top of every page */
+        public Builder title(String title)
+        {
+            this.title = title;
+            return this;
+        }
+
+        /** line printed at the bottom of every page, given the page number (from 1) */
+        public Builder footer(IntFunction<String> footer)
+        {
+            this.footer = footer;
+            return this;
+        }
+
+        /**
+         *  adds a column to the right of the previous ones
+         *  @param width number of characters, longer values are truncated (keeping their end when aligned right)
+         *  @param align LEFT or RIGHT in fixed pitch, only LEFT in proportional pitch (build() rejects the others)
+         */
+        public Builder column(String heading, int width, FormTemplate.Align align)
+        {
+            if (width <= 0)
+                throw new IllegalArgumentException("column width must be positive");
+            if (align == null)
+                throw new IllegalArgumentException("alignment cannot be null");
+
+            columns.add(new Column(heading == null ? "" : heading, width, align));
+            return this;
+        }
+
+        public ReportLayout build()
+        {
+            if (columns.isEmpty())
+                throw new IllegalStateException("a report needs at least one column");
+            return new ReportLayout(this);
+        }
+    }
+}
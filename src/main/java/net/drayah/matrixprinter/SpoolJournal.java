@@ -0,0 +1,734 @@
+/*
+ * SpoolJournal.java
+ *
+ * Append-only journal keeping the queued jobs across restarts. Records go to memory-mapped segment files in a directory
+ * (journal-<sequence>.seg): appending a job is a copy into mapped memory, with no file created nor synced per job.
+ * A sync thread forces the written pages to disk for every job appended meanwhile at once (group commit), the futures
+ * returned by append complete once their job is durable. A new segment file only counts as durable once the directory
+ * holding it is synced as well, which the sync thread does once per segment, before completing its first jobs.
+ *
+ * Each job is journaled as QUEUED with its printer name and encoded bytes, then as SENT or FAILED. On startup the
+ * segments are replayed: the jobs never finished are returned by pending() (see resubmitPending), a record torn by a
+ * crash ends the replay of its segment. Segments whose jobs all finished are deleted, oldest first, so a finished mark
+ * is never lost while the job it finishes is still on disk. Printing is at least once: a job printed just before a
+ * crash, whose SENT mark was not synced yet, is printed again.
+ *
+ * Record layout, big endian: length (int, of the body), body: type (byte), job id (long), for QUEUED the printer name
+ * length (short), name (UTF-8) and data; then the CRC32C of the body (int).
+ *
+ * Usage:
+ *     SpoolJournal journal = SpoolJournal.open(Paths.get("/var/spool/escprinter"));
+ *     journal.resubmitPending(spooler);
+ *     journal.submit(spooler, "LPT1", job);
+ */
+
+package net.drayah.matrixprinter;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+public class SpoolJournal implements AutoCloseable
+{
+    private static final int MAGIC = 0x45534A31; //ESJ1
+    private static final int SEGMENT_HEADER = 4;
+    private static final int RECORD_OVERHEAD = 8; //length and crc
+    private static final int STATE_BODY = 9; //type and job id
+    private static final int MAX_NAME = Short.MAX_VALUE;
+    private static final byte QUEUED = 1, SENT = 2, FAILED = 3;
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".seg";
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final long DEFAULT_SYNC_DELAY_MILLIS = 2;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long syncDelayMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appendedCondition = lock.newCondition();
+    private final List<Segment> segments = new ArrayList<>(); //guarded by lock, oldest first, the last one is active
+    private final List<Segment> retired = new ArrayList<>(); //guarded by lock, compacted but not deleted yet
+    private final Map<Long, Location> live = new TreeMap<>(); //guarded by lock, jobs queued and not finished
+    private final Deque<Waiter> waiters = new ArrayDeque<>(); //guarded by lock, in append order
+    private Thread syncer; //started by open
+    private long nextId = 1; //guarded by lock
+    private long appended; //guarded by lock, records written
+    private long synced; //guarded by lock, records forced to disk
+    private long syncs; //guarded by lock
+    private long directorySyncs; //guarded by lock
+    private boolean closed; //guarded by lock
+
+    private SpoolJournal(Path directory, int segmentSize, long syncDelayMillis)
+    {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncDelayMillis = syncDelayMillis;
+    }
+
+    /** Opens the journal in {@code directory} with 64 MiB segments, synced 2 ms after the first unsynced write */
+    public static SpoolJournal open(Path directory) throws IOException
+    {
+        return open(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_SYNC_DELAY_MILLIS);
+    }
+
+    /** Opens the journal in {@code directory}, created if needed, and replays its segments
+     *  @param segmentSize size of a segment file, a larger job gets a segment of its own
+     *  @param syncDelayMillis how long the sync thread lets writes gather before forcing them, 0 to sync at once
+     */
+    public static SpoolJournal open(Path directory, int segmentSize, long syncDelayMillis) throws IOException
+    {
+        if (directory == null)
+            throw new IllegalArgumentException("the directory cannot be null");
+        if (segmentSize < 4096)
+            throw new IllegalArgumentException("segment size must be at least 4096 bytes");
+        if (syncDelayMillis < 0)
+            throw new IllegalArgumentException("sync delay cannot be negative");
+
+        SpoolJournal journal = new SpoolJournal(Files.createDirectories(directory), segmentSize, syncDelayMillis);
+        long sequence = journal.recover();
+        journal.segments.add(journal.createSegment(sequence, segmentSize));
+        journal.compact();
+
+        journal.syncer = new Thread(journal::syncLoop, "spool-journal-sync");
+        journal.syncer.setDaemon(true);
+        journal.syncer.start();
+        return journal;
+    }
+
+    /**
+     *  journals a job as queued
+     *  @return completed with the job id once the job is on disk, or exceptionally if syncing failed
+     *  @throws IOException if a new segment cannot be created
+     *  @throws IllegalStateException if the journal is closed
+     */
+    public CompletableFuture<Long> append(String printerName, byte[] data) throws IOException
+    {
+        CompletableFuture<Long> durable = new CompletableFuture<>();
+        append(printerName, data, durable);
+        return durable;
+    }
+
+    private long append(String printerName, byte[] data, CompletableFuture<Long> durable) throws IOException
+    {
+        //post: returns the job id, {@code durable} completes once the job is synced
+        if (printerName == null || data == null)
+            throw new IllegalArgumentException("the printer name and data cannot be null");
+
+        byte[] name = printerName.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME)
+            throw new IllegalArgumentException("printer name is too long");
+
+        lock.lock();
+        try
+        {
+            long id = nextId++;
+            Segment segment = reserve(STATE_BODY + 2 + name.length + data.length);
+            int start = segment.position;
+            int body = start + 4;
+            MappedByteBuffer map = segment.map;
+            map.put(body, QUEUED);
+            map.putLong(body + 1, id);
+            map.putShort(body + 9, (short) name.length);
+            map.put(body + 11, name);
+            map.put(body + 11 + name.length, data);
+            seal(segment, start, STATE_BODY + 2 + name.length + data.length);
+
+            live.put(id, new Location(segment, body + 11 + name.length, data.length, printerName));
+            segment.live++;
+            waiters.add(new Waiter(appended, id, durable));
+            return id;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** journals job {@code id} as printed, it will not be replayed once this mark is synced */
+    public void markSent(long id) throws IOException
+    {
+        finish(id, SENT);
+    }
+
+    /** journals job {@code id} as failed, it is finished for the journal: submit it again to retry it */
+    public void markFailed(long id) throws IOException
+    {
+        finish(id, FAILED);
+    }
+
+    private void finish(long id, byte state) throws IOException
+    {
+        lock.lock();
+        try
+        {
+            Location location = live.get(id);
+            if (location == null)
+                return; //unknown or already finished
+
+            Segment segment = reserve(STATE_BODY);
+            live.remove(id);
+            int start = segment.position;
+            segment.map.put(start + 4, state);
+            segment.map.putLong(start + 5, id);
+            seal(segment, start, STATE_BODY);
+            if (--location.segment.live == 0)
+                location.segment.finished = appended;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private Segment reserve(int body) throws IOException
+    {
+        //pre: lock held
+        //post: returns the active segment, with room for a record of {@code body} bytes at its position
+        if (closed)
+            throw new IllegalStateException("journal is closed");
+
+        Segment active = segments.get(segments.size() - 1);
+        int size = body + RECORD_OVERHEAD;
+        if (active.position + size <= active.map.capacity())
+            return active;
+
+        active = createSegment(active.sequence + 1, Math.max(segmentSize, SEGMENT_HEADER + size));
+        segments.add(active);
+        return active;
+    }
+
+    private void seal(Segment segment, int start, int body)
+    {
+        //pre: lock held, body written after the length
+        //post: length and crc written, the record counts as appended and the sync thread is woken
+        CRC32C crc = new CRC32C();
+        crc.update(segment.map.slice(start + 4, body));
+        segment.map.putInt(start + 4 + body, (int) crc.getValue());
+        segment.map.putInt(start, body);
+        segment.position = start + body + RECORD_OVERHEAD;
+        appended++;
+        appendedCondition.signal();
+    }
+
+    /**
+     *  journals {@code data}, queues it on {@code printerName} and marks it sent or failed when the spooler is done with
+     *  it. The job prints while its record is synced
+     *  @return completed once the job is printed and journaled, exceptionally if either failed
+     */
+    public CompletableFuture<Void> submit(EscSpooler spooler, String printerName, byte[] data) throws IOException
+    {
+        CompletableFuture<Long> durable = new CompletableFuture<>();
+        long id = append(printerName, data, durable);
+        return track(spooler.submit(printerName, data), id, durable);
+    }
+
+    private CompletableFuture<Void> track(CompletableFuture<Void> printed, long id, CompletableFuture<Long> durable)
+    {
+        //post: the job is finished once printed, whether its record could be synced or not, so it never pins compaction
+        return printed.handle((ignored, ex) -> ex).thenCombine(durable.handle((ignored, ex) -> ex), (printEx, syncEx) -> {
+            try
+            {
+                if (printEx == null)
+                    markSent(id);
+                else
+                    markFailed(id);
+            }
+            catch (IOException | IllegalStateException markEx)
+            {
+                Logger.getLogger(SpoolJournal.class.getName()).log(Level.WARNING, "job " + id + " stays pending", markEx);
+            }
+            Throwable ex = printEx != null ? printEx : syncEx;
+            if (ex != null)
+                throw ex instanceof RuntimeException ? (RuntimeException) ex : new CompletionException(ex);
+            return null;
+        });
+    }
+
+    /** @return the jobs queued and not finished, in journal order: those of the last run first after a restart */
+    public List<Job> pending()
+    {
+        lock.lock();
+        try
+        {
+            List<Job> jobs = new ArrayList<>(live.size());
+            for (Map.Entry<Long, Location> entry : live.entrySet())
+            {
+                Location location = entry.getValue();
+                byte[] data = new byte[location.length];
+                location.segment.map.get(location.offset, data);
+                jobs.add(new Job(entry.getKey(), location.printerName, data));
+            }
+            return jobs;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *  queues every pending job on {@code spooler} again, each is marked sent or failed when done.
+     *  Call it once after opening the journal, before submitting new jobs
+     *  @return the number of jobs resubmitted
+     */
+    public int resubmitPending(EscSpooler spooler)
+    {
+        List<Job> jobs = pending();
+        for (Job job : jobs)
+            track(spooler.submit(job.printerName, job.data), job.id, CompletableFuture.completedFuture(job.id));
+        return jobs.size();
+    }
+
+    /** forces everything appended so far to disk now, without waiting for the sync thread */
+    public void sync() throws IOException
+    {
+        long target;
+        List<Segment> dirty = new ArrayList<>();
+        List<int[]> ranges = new ArrayList<>();
+        List<Segment> created = new ArrayList<>(); //segment files whose directory entry may not be on disk yet
+        lock.lock();
+        try
+        {
+            target = appended;
+            for (Segment segment : segments)
+            {
+                if (!segment.linked)
+                    created.add(segment);
+                if (segment.forced < segment.position)
+                {
+                    dirty.add(segment);
+                    ranges.add(new int[] { segment.forced, segment.position });
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        for (int i = 0; i < dirty.size(); i++)
+        {
+            int[] range = ranges.get(i);
+            dirty.get(i).map.force(range[0], range[1] - range[0]);
+        }
+        if (!created.isEmpty())
+            syncDirectory(); //forcing the mapped pages does not make the entry of a new file durable
+
+        List<Waiter> done = new ArrayList<>();
+        lock.lock();
+        try
+        {
+            if (!created.isEmpty())
+            {
+                for (Segment segment : created)
+                    segment.linked = true;
+                directorySyncs++;
+            }
+            for (int i = 0; i < dirty.size(); i++)
+                dirty.get(i).forced = Math.max(dirty.get(i).forced, ranges.get(i)[1]);
+            if (target > synced)
+            {
+                synced = target;
+                syncs++;
+            }
+            while (!waiters.isEmpty() && waiters.peekFirst().sequence <= target)
+                done.add(waiters.pollFirst());
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        for (Waiter waiter : done)
+            waiter.durable.complete(waiter.id);
+    }
+
+    private void syncDirectory() throws IOException
+    {
+        if (System.getProperty("os.name", "").startsWith("Windows"))
+            return; //directories cannot be opened there, NTFS journals the file creation itself
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ))
+        {
+            channel.force(true);
+        }
+    }
+
+    private void syncLoop()
+    {
+        while (true)
+        {
+            lock.lock();
+            try
+            {
+                while (!closed && appended == synced)
+                    appendedCondition.awaitUninterruptibly();
+                if (closed && appended == synced)
+                    return;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            try
+            {
+                if (syncDelayMillis > 0)
+                    TimeUnit.MILLISECONDS.sleep(syncDelayMillis); //let more writes join this sync
+                sync();
+                compact();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                Logger.getLogger(SpoolJournal.class.getName()).log(Level.SEVERE, null, ex);
+                failWaiters(ex);
+            }
+        }
+    }
+
+    private void failWaiters(Exception ex)
+    {
+        List<Waiter> failed;
+        lock.lock();
+        try
+        {
+            failed = new ArrayList<>(waiters);
+            waiters.clear();
+            synced = appended; //do not retry forever, the failure is reported to every waiting job
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        for (Waiter waiter : failed)
+            waiter.durable.completeExceptionally(ex);
+    }
+
+    /** deletes the oldest segments while all their jobs are finished and their marks are synced */
+    public void compact()
+    {
+        List<Segment> delete;
+        lock.lock();
+        try
+        {
+            while (segments.size() > 1 && segments.get(0).live == 0 && segments.get(0).finished <= synced)
+                retired.add(segments.remove(0));
+            delete = new ArrayList<>(retired);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        for (Segment segment : delete)
+        {
+            try
+            {
+                Files.deleteIfExists(segment.path);
+                lock.lock();
+                try
+                {
+                    retired.remove(segment);
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+            }
+            catch (IOException ex)
+            {
+                //still mapped on platforms that lock mapped files, retried at the next compaction
+                Logger.getLogger(SpoolJournal.class.getName()).log(Level.FINE, null, ex);
+            }
+        }
+    }
+
+    private long recover() throws IOException
+    {
+        //post: returns the sequence number of the next segment
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX))
+        {
+            stream.forEach(files::add);
+        }
+        files.sort(null); //zero padded sequence numbers
+
+        long next = 0;
+        for (Path file : files)
+        {
+            String fileName = file.getFileName().toString();
+            long sequence;
+            try
+            {
+                sequence = Long.parseLong(fileName.substring(PREFIX.length(), fileName.length() - SUFFIX.length()));
+            }
+            catch (NumberFormatException ex)
+            {
+                continue; //not named by the journal
+            }
+            next = Math.max(next, sequence + 1);
+            MappedByteBuffer map;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+            {
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            Segment segment = new Segment(file, sequence, map);
+            if (map.capacity() < SEGMENT_HEADER || map.getInt(0) != MAGIC)
+            {
+                Logger.getLogger(SpoolJournal.class.getName()).log(Level.WARNING, "{0} is not a journal segment, ignored", file);
+                continue;
+            }
+            replay(segment);
+            segment.forced = segment.position;
+            segments.add(segment);
+        }
+        return next;
+    }
+
+    private void replay(Segment segment)
+    {
+        //post: jobs of the segment added to live, finished ones removed, position at the end of the last valid record
+        MappedByteBuffer map = segment.map;
+        int position = SEGMENT_HEADER;
+        CRC32C crc = new CRC32C();
+        while (position + RECORD_OVERHEAD + STATE_BODY <= map.capacity())
+        {
+            int body = map.getInt(position);
+            if (body < STATE_BODY || (long) position + RECORD_OVERHEAD + body > map.capacity())
+                break; //end of the records, or a torn length
+
+            crc.reset();
+            crc.update(map.slice(position + 4, body));
+            if ((int) crc.getValue() != map.getInt(position + 4 + body))
+            {
+                Logger.getLogger(SpoolJournal.class.getName()).log(Level.WARNING, "torn record at byte {0} of {1}, rest of the segment ignored", new Object[] { position, segment.path });
+                break;
+            }
+
+            byte type = map.get(position + 4);
+            long id = map.getLong(position + 5);
+            nextId = Math.max(nextId, id + 1);
+            if (type == QUEUED)
+            {
+                int nameLength = map.getShort(position + 13);
+                byte[] name = new byte[nameLength];
+                map.get(position + 15, name);
+                int offset = position + 15 + nameLength;
+                live.put(id, new Location(segment, offset, body - STATE_BODY - 2 - nameLength, new String(name, StandardCharsets.UTF_8)));
+                segment.live++;
+            }
+            else
+            {
+                Location location = live.remove(id);
+                if (location != null)
+                    location.segment.live--;
+            }
+            position += RECORD_OVERHEAD + body;
+        }
+        segment.position = position;
+    }
+
+    private Segment createSegment(long sequence, int size) throws IOException
+    {
+        Path file = directory.resolve(String.format("%s%016d%s", PREFIX, sequence, SUFFIX));
+        MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size); //the mapping outlives the channel
+        }
+        map.putInt(0, MAGIC);
+        Segment segment = new Segment(file, sequence, map);
+        segment.position = SEGMENT_HEADER;
+        segment.linked = false;
+        return segment;
+    }
+
+    /** @return the number of segment files in use */
+    public int segments()
+    {
+        lock.lock();
+        try
+        {
+            return segments.size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** @return the number of group syncs done, compared to the jobs appended it shows how many jobs share a sync */
+    public long getSyncCount()
+    {
+        lock.lock();
+        try
+        {
+            return syncs;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** @return the number of directory syncs done, one for each sync that found new segments */
+    long getDirectorySyncCount()
+    {
+        lock.lock();
+        try
+        {
+            return directorySyncs;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** syncs what was appended and stops the sync thread, pending jobs stay in the journal for the next run */
+    @Override
+    public void close() throws IOException
+    {
+        lock.lock();
+        try
+        {
+            if (closed)
+                return;
+            closed = true;
+            appendedCondition.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        try
+        {
+            syncer.join();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        sync();
+    }
+
+    @Override
+    public String toString()
+    {
+        lock.lock();
+        try
+        {
+            StringBuilder strb = new StringBuilder();
+            strb.append("<SpoolJournal[directory=").append(directory).append(", segments=").append(segments.size());
+            strb.append(", pending=").append(live.size()).append(", appended=").append(appended);
+            strb.append(", syncs=").append(syncs).append("]>");
+            return strb.toString();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** a job read back from the journal */
+    public static final class Job
+    {
+        private final long id;
+        private final String printerName;
+        private final byte[] data;
+
+        Job(long id, String printerName, byte[] data)
+        {
+            this.id = id;
+            this.printerName = printerName;
+            this.data = data;
+        }
+
+        public long getId()
+        {
+            return id;
+        }
+
+        public String getPrinterName()
+        {
+            return printerName;
+        }
+
+        public byte[] getData()
+        {
+            return data;
+        }
+    }
+
+    private static final class Segment
+    {
+        final Path path;
+        final long sequence;
+        final MappedByteBuffer map;
+        int position; //end of the records
+        int forced; //end of the records known to be on disk
+        int live; //jobs queued in this segment and not finished
+        boolean linked = true; //the directory entry of the file is on disk, false from creation to the next directory sync
+        long finished; //records appended when the last job of this segment finished
+
+        Segment(Path path, long sequence, MappedByteBuffer map)
+        {
+            this.path = path;
+            this.sequence = sequence;
+            this.map = map;
+        }
+    }
+
+    private static final class Location
+    {
+        final Segment segment;
+        final int offset;
+        final int length;
+        final String printerName;
+
+        Location(Segment segment, int offset, int length, String printerName)
+        {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.printerName = printerName;
+        }
+    }
+
+    private static final class Waiter
+    {
+        final long sequence; //records appended up to this job's
+        final long id;
+        final CompletableFuture<Long> durable;
+
+        Waiter(long sequence, long id, CompletableFuture<Long> durable)
+        {
+            this.sequence = sequence;
+            this.id = id;
+            this.durable = durable;
+        }
+    }
+}
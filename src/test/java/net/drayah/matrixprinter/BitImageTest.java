@@ -0,0 +1,100 @@
+/*
+ * BitImageTest.java
+ *
+ * Row padding of BitImage and the band encodings of BitImageEncoder.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+class BitImageTest
+{
+    @Test
+    void paddingBitsAreIgnored()
+    {
+        byte[] full = new byte[8];
+        Arrays.fill(full, (byte) 0xFF);
+        byte[] masked = new byte[8];
+        Arrays.fill(masked, (byte) 0xE0);
+
+        BitImage image = new BitImage(3, 8, full);
+        assertEquals(new BitImage(3, 8, masked), image);
+        assertTrue(image.isSet(2, 7));
+    }
+
+    @ParameterizedTest
+    @EnumSource(BitImageEncoder.Mode.class)
+    void paddedRowsEncodeLikeMaskedRows(BitImageEncoder.Mode mode)
+    {
+        byte[] full = new byte[2 * 24];
+        Arrays.fill(full, (byte) 0xFF);
+        byte[] masked = new byte[2 * 24];
+        for (int i = 0; i < masked.length; i += 2)
+        {
+            masked[i] = (byte) 0xFF;
+            masked[i + 1] = (byte) 0xF0;
+        }
+        BitImageEncoder encoder = new BitImageEncoder(ForkJoinPool.commonPool(), 0);
+
+        byte[] encoded = encoder.encode(new BitImage(12, 24, full), mode, -1);
+        assertArrayEquals(encoder.encode(new BitImage(12, 24, masked), mode, -1), encoded);
+    }
+
+    @Test
+    void blankBandsAreSkipped()
+    {
+        BitImageEncoder encoder = new BitImageEncoder(ForkJoinPool.commonPool(), 0);
+        byte[] blank = encoder.encode(new BitImage(8, 24, new byte[24]), BitImageEncoder.Mode.COLUMN_24PIN, -1);
+        for (int i = 0; i + 1 < blank.length; i++)
+            assertFalse(blank[i] == 27 && blank[i + 1] == '*', "blank band encoded");
+    }
+
+    @Test
+    void runLengthEncodingRoundTrips()
+    {
+        Random random = new Random(12);
+        for (int n = 0; n < 500; n++)
+        {
+            byte[] row = new byte[random.nextInt(400)];
+            for (int i = 0; i < row.length; i++)
+                row[i] = random.nextInt(3) == 0 ? (byte) random.nextInt(256) : (byte) (i / (1 + random.nextInt(40)));
+
+            EscCommandBuffer out = new EscCommandBuffer();
+            BitImageEncoder.compress(row, out);
+            assertArrayEquals(row, expand(out.toByteArray()));
+        }
+    }
+
+    private static byte[] expand(byte[] compressed)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < compressed.length;)
+        {
+            int counter = compressed[i++] & 0xFF;
+            if (counter <= 127)
+            {
+                out.write(compressed, i, counter + 1);
+                i += counter + 1;
+            }
+            else
+            {
+                for (int k = 0; k < 257 - counter; k++)
+                    out.write(compressed[i]);
+                i++;
+            }
+        }
+        return out.toByteArray();
+    }
+}
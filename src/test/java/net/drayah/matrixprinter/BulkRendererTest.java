@@ -0,0 +1,129 @@
+/*
+ * BulkRendererTest.java
+ *
+ * BulkRenderer must print exactly what rendering the records one after the other on the same printer prints.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class BulkRendererTest
+{
+    private static final BiConsumer<EscPrinter, Integer> STATEMENT = (p, i) -> {
+        p.bold(i % 3 == 0);
+        if (i % 2 == 0)
+            p.select15CPI();
+        else
+            p.select10CPI();
+        p.print("statement " + i + " ação");
+        p.advanceVertical(0.5f);
+        p.setAbsoluteHorizontalPosition(2.54f);
+        p.print(String.valueOf(i * 17));
+        p.lineFeed();
+        p.formFeed();
+    };
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @AfterEach
+    void shutdown()
+    {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void outputIsIdenticalToSerialRendering()
+    {
+        ByteArrayOutputStream serial = new ByteArrayOutputStream();
+        EscPrinter printer = printer(serial, false);
+        for (int i = 0; i < 500; i++)
+            STATEMENT.accept(printer, i);
+        printer.flush();
+
+        ByteArrayOutputStream bulk = new ByteArrayOutputStream();
+        BulkRenderer<Integer> renderer = new BulkRenderer<>(STATEMENT, pool, 8);
+        assertEquals(500, renderer.print(printer(bulk, false), IntStream.range(0, 500).boxed()));
+
+        assertArrayEquals(serial.toByteArray(), bulk.toByteArray());
+    }
+
+    @Test
+    void optimizedOutputPrintsLikeSerialRendering()
+    {
+        ByteArrayOutputStream serial = new ByteArrayOutputStream();
+        EscPrinter printer = printer(serial, true);
+        for (int i = 0; i < 200; i++)
+            STATEMENT.accept(printer, i);
+        printer.flush();
+
+        ByteArrayOutputStream bulk = new ByteArrayOutputStream();
+        new BulkRenderer<>(STATEMENT, pool, 8).print(printer(bulk, true), IntStream.range(0, 200).boxed());
+
+        assertEquals(EscOptimizerTest.render(serial.toByteArray(), false), EscOptimizerTest.render(bulk.toByteArray(), false));
+    }
+
+    @Test
+    void jobsReachTheSinkInRecordOrder()
+    {
+        List<byte[]> jobs = new ArrayList<>();
+        BulkRenderer<Integer> renderer = new BulkRenderer<>((p, i) -> p.print(Integer.toString(i)), pool, 3);
+        renderer.render(new EscPrinter("lp", false), IntStream.range(0, 2000).boxed().iterator(), jobs::add);
+
+        assertEquals(2000, jobs.size());
+        for (int i = 0; i < jobs.size(); i++)
+            assertEquals(Integer.toString(i), new String(jobs.get(i)));
+    }
+
+    @Test
+    void oneRendererServesPrintersOfBothPinModels()
+    {
+        BulkRenderer<Integer> shared = new BulkRenderer<>(STATEMENT, pool, 8);
+        for (boolean escp24pin : new boolean[] { false, true, false })
+        {
+            List<byte[]> expected = new ArrayList<>();
+            new BulkRenderer<>(STATEMENT, pool, 8).render(new EscPrinter("lp", escp24pin), IntStream.range(0, 50).boxed().iterator(), expected::add);
+            List<byte[]> jobs = new ArrayList<>();
+            shared.render(new EscPrinter("lp", escp24pin), IntStream.range(0, 50).boxed().iterator(), jobs::add);
+
+            for (int i = 0; i < expected.size(); i++)
+                assertArrayEquals(expected.get(i), jobs.get(i), "record " + i + (escp24pin ? " on 24 pins" : " on 9 pins"));
+        }
+    }
+
+    @Test
+    void renderFailureStopsThePrint()
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BulkRenderer<Integer> renderer = new BulkRenderer<>((p, i) -> {
+            if (i == 5)
+                throw new IllegalStateException("record " + i);
+            p.print("<" + i + ">");
+        }, pool, 4);
+
+        assertThrows(IllegalStateException.class, () -> renderer.print(printer(out, false), IntStream.range(0, 50).boxed()));
+        String printed = out.toString();
+        assertEquals(-1, printed.indexOf("<5>"));
+        assertEquals(-1, printed.indexOf("<6>"), "records after the failed one must not be printed");
+    }
+
+    private static EscPrinter printer(ByteArrayOutputStream out, boolean optimizing)
+    {
+        EscPrinter printer = new EscPrinter("lp", false);
+        printer.setCharacterSet(EscPrinter.BRAZIL);
+        printer.setOptimizing(optimizing);
+        printer.initialize(out);
+        return printer;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * CharacterTableTest.java
+ *
+ * Translation of Java chars by the default and custom CharacterTables: table layout, substitution, fallback, explicit mappings.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class CharacterTableTest
+{
+    @Test
+    void brazilPrintsPortugueseLettersUnchanged()
+    {
+        CharacterTable table = CharacterTable.forCharset(EscPrinter.BRAZIL);
+        String text = "Ação é útil";
+
+        assertEquals(EscPrinter.BRAZIL, table.getRegisteredTable());
+        assertArrayEquals(text.getBytes(StandardCharsets.ISO_8859_1), encode(table, text));
+    }
+
+    @Test
+    void usaUsesThePc437LayoutAndSubstitutesTheRest()
+    {
+        CharacterTable table = CharacterTable.forCharset(EscPrinter.USA);
+
+        assertEquals((byte) 0x82, table.encode('é'));
+        assertEquals((byte) 'a', table.encode('ã'));
+        assertEquals((byte) 'O', table.encode('Õ'));
+        assertEquals((byte) '\'', table.encode('’'));
+        assertEquals((byte) '-', table.encode('—'));
+        assertEquals((byte) '?', table.encode('€'));
+    }
+
+    @Test
+    void customTableFallsBackWithoutSubstitution()
+    {
+        CharacterTable table = CharacterTable.builder(EscPrinter.USA, StandardCharsets.US_ASCII)
+            .substitution(false)
+            .fallback((byte) '*')
+            .map('€', (byte) 'E')
+            .build();
+
+        assertArrayEquals("p*o E".getBytes(StandardCharsets.US_ASCII), encode(table, "pão €"));
+    }
+
+    @Test
+    void unknownTablesAreAsciiAndShared()
+    {
+        CharacterTable table = CharacterTable.forCharset((char) 42);
+
+        assertSame(table, CharacterTable.forCharset((char) 42));
+        assertEquals((char) 42, table.getRegisteredTable());
+        assertEquals((byte) 'a', table.encode('ã'));
+        assertEquals((byte) 'e', table.encode('é'));
+    }
+
+    @Test
+    void encodesIntoArraysAndCommandBuffersAlike()
+    {
+        CharacterTable table = CharacterTable.forCharset(EscPrinter.USA);
+        String text = "«São João»";
+        byte[] dst = new byte[text.length() + 2];
+
+        assertEquals(text.length() - 2, table.encode(text, 1, text.length() - 1, dst, 2));
+        EscCommandBuffer out = new EscCommandBuffer();
+        table.encode(text.toCharArray(), 1, text.length() - 2, out);
+        byte[] expected = out.toByteArray();
+        for (int i = 0; i < expected.length; i++)
+            assertEquals(expected[i], dst[i + 2]);
+    }
+
+    private static byte[] encode(CharacterTable table, String text)
+    {
+        EscCommandBuffer out = new EscCommandBuffer();
+        table.encode(text, 0, text.length(), out);
+        return out.toByteArray();
+    }
+}
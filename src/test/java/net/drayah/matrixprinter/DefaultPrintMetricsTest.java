@@ -0,0 +1,90 @@
+/*
+ * DefaultPrintMetricsTest.java
+ *
+ * Counters and latency histograms of PrinterStats, as recorded by an EscPrinter through DefaultPrintMetrics.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class DefaultPrintMetricsTest
+{
+    @Test
+    void statsAreKeptPerPrinter()
+    {
+        DefaultPrintMetrics metrics = new DefaultPrintMetrics(false);
+        metrics.bytesWritten("lp0", 10, 2);
+        metrics.bytesWritten("lp0", 5, 1);
+        metrics.bytesWritten("lp1", 7, 1);
+
+        assertSame(metrics.stats("lp0"), metrics.stats("lp0"));
+        assertEquals(2, metrics.allStats().size());
+        assertEquals(15, metrics.stats("lp0").getBytesWritten());
+        assertEquals(3, metrics.stats("lp0").getCommands());
+        assertEquals(7, metrics.stats("lp1").getBytesWritten());
+    }
+
+    @Test
+    void percentilesAreBucketBoundsCappedAtTheMaximum()
+    {
+        DefaultPrintMetrics metrics = new DefaultPrintMetrics(false);
+        for (int i = 0; i < 98; i++)
+            metrics.phase("lp", PrintPhase.DEVICE_WRITE, TimeUnit.MICROSECONDS.toNanos(10), true);
+        metrics.phase("lp", PrintPhase.DEVICE_WRITE, TimeUnit.MICROSECONDS.toNanos(1000), false);
+        metrics.phase("lp", PrintPhase.DEVICE_WRITE, TimeUnit.MICROSECONDS.toNanos(1000), true);
+
+        PhaseStats stats = metrics.stats("lp").getPhase(PrintPhase.DEVICE_WRITE);
+        assertEquals(100, stats.getCount());
+        assertEquals(1, stats.getFailures());
+        assertEquals((98 * 10 + 2 * 1000) / 100, stats.getMeanMicros());
+        assertEquals(16, stats.getP50Micros());
+        assertEquals(1000, stats.getP99Micros());
+        assertEquals(1000, stats.getMaxMicros());
+    }
+
+    @Test
+    void onlyPhasesThatHappenedAreListedAndResetClearsAll()
+    {
+        DefaultPrintMetrics metrics = new DefaultPrintMetrics(false);
+        metrics.phase("lp", PrintPhase.LOOKUP, 500, true);
+        metrics.bytesWritten("lp", 3, 1);
+        PrinterStats stats = metrics.stats("lp");
+
+        assertEquals(1, stats.getPhases().size());
+        assertEquals(0, stats.getPhase(PrintPhase.LOOKUP).getMaxMicros(), "below a microsecond");
+        assertEquals(0, stats.getPhase(PrintPhase.SUBMIT).getCount());
+
+        stats.reset();
+        assertTrue(stats.getPhases().isEmpty());
+        assertEquals(0, stats.getBytesWritten());
+        assertEquals(0, stats.getCommands());
+    }
+
+    @Test
+    void printerRecordsEncodeDeviceWriteAndBytes()
+    {
+        DefaultPrintMetrics metrics = new DefaultPrintMetrics(false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EscPrinter printer = new EscPrinter("lp", false);
+        printer.setMetrics(metrics);
+        printer.initialize(out);
+        int initialized = out.size();
+        long initializedBytes = metrics.stats("lp").getBytesWritten();
+        printer.print("abc");
+        printer.printImage(new BitImage(8, 8, new byte[8]));
+        printer.flush();
+
+        PrinterStats stats = metrics.stats("lp");
+        assertEquals(1, stats.getPhase(PrintPhase.ENCODE).getCount(), "the bit image encoding");
+        assertTrue(stats.getPhase(PrintPhase.DEVICE_WRITE).getCount() > 0);
+        assertEquals(out.size() - initialized, stats.getBytesWritten() - initializedBytes);
+        assertTrue(stats.getCommands() >= 2);
+    }
+}
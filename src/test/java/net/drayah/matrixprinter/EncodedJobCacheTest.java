@@ -0,0 +1,92 @@
+/*
+ * EncodedJobCacheTest.java
+ *
+ * Size limit, eviction order and reprints of EncodedJobCache, on and off heap.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class EncodedJobCacheTest
+{
+    @ParameterizedTest
+    @ValueSource(booleans = { false, true })
+    void leastRecentlyUsedJobsAreDropped(boolean offHeap)
+    {
+        EncodedJobCache cache = new EncodedJobCache(10, offHeap);
+        cache.put("a", new byte[4]);
+        cache.put("b", new byte[4]);
+        assertEquals(8, cache.getBytes());
+        cache.get("a"); //b is now the least recently used
+        cache.put("c", new byte[4]);
+
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(8, cache.getBytes());
+
+        cache.put("huge", new byte[11]);
+        assertFalse(cache.contains("huge"));
+        assertEquals(2, cache.size());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = { false, true })
+    void writeToCopiesTheWholeJob(boolean offHeap) throws IOException
+    {
+        EncodedJobCache cache = new EncodedJobCache(1 << 20, offHeap);
+        byte[] job = new byte[20000];
+        for (int i = 0; i < job.length; i++)
+            job[i] = (byte) i;
+        cache.put("job", job);
+
+        for (int n = 0; n < 2; n++) //the cached job is not consumed
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(job.length, cache.writeTo("job", out));
+            assertArrayEquals(job, out.toByteArray());
+        }
+        assertEquals(-1, cache.writeTo("missing", new ByteArrayOutputStream()));
+        assertNull(cache.get("missing"));
+        assertEquals(2.0 / 4, cache.getHitRatio());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = { false, true })
+    void reprintIsTheFirstPrintWithoutEncoding(boolean offHeap)
+    {
+        EncodedJobCache cache = new EncodedJobCache(1 << 20, offHeap);
+        AtomicInteger encoded = new AtomicInteger();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EscPrinter printer = new EscPrinter("lp", false);
+        printer.initialize(out);
+        printer.flush();
+        int start = out.size();
+
+        assertFalse(printer.printCached(cache, "invoice-1", p -> {
+            encoded.incrementAndGet();
+            p.bold(true);
+            p.print("INVOICE 1");
+            p.lineFeed();
+        }));
+        byte[] first = out.toByteArray();
+        assertTrue(printer.printCached(cache, "invoice-1", p -> encoded.incrementAndGet()));
+        byte[] both = out.toByteArray();
+
+        assertEquals(1, encoded.get());
+        assertEquals(first.length - start, both.length - first.length);
+        for (int i = 0; i < first.length - start; i++)
+            assertEquals(first[start + i], both[first.length + i]);
+    }
+}
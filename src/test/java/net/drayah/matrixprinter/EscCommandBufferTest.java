@@ -0,0 +1,106 @@
+/*
+ * EscCommandBufferTest.java
+ *
+ * Growth, bulk writes and the single device write of EscCommandBuffer.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class EscCommandBufferTest
+{
+    @Test
+    void growsPastItsCapacity()
+    {
+        EscCommandBuffer buffer = new EscCommandBuffer(2);
+        buffer.write(27, 'E');
+        buffer.write(new byte[] { 'a', 'b', 'c' });
+        buffer.fill(9, 3);
+        buffer.write(27, 'x', 1);
+
+        assertArrayEquals(new byte[] { 27, 'E', 'a', 'b', 'c', 9, 9, 9, 27, 'x', 1 }, buffer.toByteArray());
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.write(new byte[2], 1, 2));
+    }
+
+    @Test
+    void writeToSendsEverythingInOneCallAndEmpties() throws IOException
+    {
+        AtomicInteger calls = new AtomicInteger();
+        ByteArrayOutputStream device = new ByteArrayOutputStream()
+        {
+            @Override
+            public synchronized void write(byte[] b, int off, int len)
+            {
+                calls.incrementAndGet();
+                super.write(b, off, len);
+            }
+        };
+        EscCommandBuffer buffer = new EscCommandBuffer();
+        for (int i = 0; i < 10000; i++)
+            buffer.write('0' + i % 10);
+
+        buffer.writeTo(device);
+        assertEquals(1, calls.get());
+        assertEquals(10000, device.size());
+        assertEquals(0, buffer.size());
+        buffer.writeTo(device);
+        assertEquals(1, calls.get(), "an empty buffer does not write");
+    }
+
+    @Test
+    void failedWriteKeepsTheContent()
+    {
+        EscCommandBuffer buffer = new EscCommandBuffer();
+        buffer.write(new byte[] { 1, 2, 3 });
+        OutputStream failing = new OutputStream()
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                throw new IOException("device error");
+            }
+        };
+
+        assertThrows(IOException.class, () -> buffer.writeTo(failing));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, buffer.toByteArray());
+    }
+
+    @Test
+    void badTextRangesLeaveTheBufferUntouched()
+    {
+        EscCommandBuffer buffer = new EscCommandBuffer();
+        buffer.write(new byte[] { 1, 2 });
+        byte[] table = CharacterTable.forCharset(EscPrinter.USA).map;
+
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.writeTranslated("abc", 1, 4, table));
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.writeTranslated("abc", -1, 2, table));
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.writeTranslated("abc", 2, 1, table));
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.writeTranslated("abc".toCharArray(), 2, 2, table));
+        assertArrayEquals(new byte[] { 1, 2 }, buffer.toByteArray());
+
+        buffer.writeTranslated("abc", 1, 3, table);
+        assertArrayEquals(new byte[] { 1, 2, 'b', 'c' }, buffer.toByteArray());
+    }
+
+    @Test
+    void printerCommandsEncodeAsEscP()
+    {
+        EscCommandBuffer buffer = new EscCommandBuffer();
+        EscPrinter printer = new EscPrinter(false, buffer);
+        printer.bold(true);
+        printer.print("Ok");
+        printer.lineFeed();
+        printer.flush();
+
+        assertArrayEquals(new byte[] { 27, 'E', 'O', 'k', 13, 10 }, buffer.toByteArray());
+    }
+}
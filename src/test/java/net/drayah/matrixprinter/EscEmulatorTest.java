@@ -0,0 +1,134 @@
+/*
+ * EscEmulatorTest.java
+ *
+ * Head positions, wrapping and pagination of EscEmulator, the oracle of the other printing tests.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class EscEmulatorTest
+{
+    private static final int ESC = 27;
+    private static final int COLUMN = EscEmulator.UNITS_PER_INCH / 10;
+    private static final int LINE = EscEmulator.UNITS_PER_INCH / 6;
+
+    @Test
+    void charactersAreKeptWithTheirPosition()
+    {
+        EscEmulator emulator = new EscEmulator(false);
+        write(emulator, "ab\r\nc\r\tt");
+
+        EscEmulator.Page page = emulator.getCurrentPage();
+        assertEquals("abct", FormTemplateTest.chars(page));
+        assertEquals(COLUMN, page.getX(1));
+        assertEquals(0, page.getX(2));
+        assertEquals(LINE, page.getY(2));
+        assertEquals(8 * COLUMN, page.getX(3));
+    }
+
+    @Test
+    void printerDrivesTheEmulator()
+    {
+        EscEmulator emulator = new EscEmulator(false);
+        EscPrinter printer = new EscPrinter("emulated", false);
+        printer.initialize(emulator);
+        printer.select15CPI();
+        printer.bold(true);
+        printer.print("B");
+        printer.bold(false);
+        printer.print("n");
+        printer.flush();
+
+        EscEmulator.Page page = emulator.getCurrentPage();
+        assertTrue(page.isBold(0));
+        assertFalse(page.isBold(1));
+        assertEquals(EscEmulator.UNITS_PER_INCH / 15, page.getX(1));
+        assertEquals(15, emulator.getCharactersPerInch());
+    }
+
+    @Test
+    void transportViewOpensTheEmulator()
+    {
+        EscEmulator emulator = new EscEmulator(false);
+        EscPrinter printer = new EscPrinter("emulated", false);
+        assertTrue(printer.initialize(emulator.asTransport()));
+        printer.print("t");
+        printer.flush();
+
+        assertEquals('t', emulator.getCurrentPage().charAt(0));
+    }
+
+    @Test
+    void textWrapsAtTheRightMargin()
+    {
+        EscEmulator emulator = new EscEmulator(false);
+        write(emulator, new byte[] { ESC, 'Q', 4 });
+        write(emulator, "abcdef");
+
+        EscEmulator.Page page = emulator.getCurrentPage();
+        assertEquals(0, page.getX(4));
+        assertEquals(LINE, page.getY(4));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = { false, true })
+    void paperAdvanceUsesThePinUnit(boolean escp24pin)
+    {
+        EscEmulator emulator = new EscEmulator(escp24pin);
+        write(emulator, new byte[] { ESC, 'J', (byte) (escp24pin ? 180 : 216) });
+        assertEquals(EscEmulator.UNITS_PER_INCH, emulator.getY());
+
+        write(emulator, new byte[] { ESC, '1', 10 }); //7/72 inch spacing, then LF
+        assertEquals(EscEmulator.UNITS_PER_INCH + EscEmulator.UNITS_PER_INCH * 7 / 72, emulator.getY());
+    }
+
+    @Test
+    void pastThePageLengthThePaperGoesOnToTheNextPage()
+    {
+        EscEmulator emulator = new EscEmulator(false);
+        write(emulator, new byte[] { ESC, 'C', 2 }); //2 lines per page
+        write(emulator, "a\r\nb\r\nc");
+
+        assertEquals(1, emulator.getPageCount());
+        assertEquals("ab", FormTemplateTest.chars(emulator.getPages().get(0)));
+        assertEquals(0, emulator.getCurrentPage().getY(0));
+    }
+
+    @Test
+    void onlyTheLastPagesAreRetained()
+    {
+        List<Long> ejected = new ArrayList<>();
+        EscEmulator emulator = new EscEmulator(false);
+        emulator.setRetainedPages(2);
+        emulator.setPageListener(page -> ejected.add(page.getNumber()));
+        for (int i = 0; i < 5; i++)
+            write(emulator, "p\f");
+
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), ejected);
+        assertEquals(5, emulator.getPageCount());
+        assertEquals(2, emulator.getPages().size());
+        assertEquals(4, emulator.getPages().get(0).getNumber());
+        assertEquals(0, emulator.getCurrentPage().length());
+    }
+
+    private static void write(EscEmulator emulator, String text)
+    {
+        write(emulator, text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static void write(EscEmulator emulator, byte[] data)
+    {
+        emulator.write(data, 0, data.length);
+    }
+}
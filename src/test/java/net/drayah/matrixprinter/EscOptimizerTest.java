@@ -0,0 +1,186 @@
+/*
+ * EscOptimizerTest.java
+ *
+ * EscOptimizer output must print exactly like its input, as seen by an EscEmulator.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class EscOptimizerTest
+{
+    private static final int ESC = 27;
+
+    @Test
+    void lineSpacingOfEsc1IsTracked() throws IOException
+    {
+        ByteArrayOutputStream job = new ByteArrayOutputStream();
+        job.write(new byte[] { ESC, '@' });
+        text(job, "a\r\n");
+        job.write(new byte[] { ESC, '1' });
+        text(job, "b\r\nc\r\n");
+        job.write(new byte[] { ESC, '2' }); //same as the state after ESC @, but not as the state after ESC 1
+        text(job, "d\r\ne");
+
+        assertPrintsTheSame(job.toByteArray());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = { false, true })
+    void optimizedStreamPrintsLikeTheOriginal(boolean escp24pin) throws IOException
+    {
+        Random random = new Random(16);
+        for (int n = 0; n < 300; n++)
+        {
+            ByteArrayOutputStream job = new ByteArrayOutputStream();
+            for (int i = 0; i < 60; i++)
+                randomToken(random, job);
+            byte[] original = job.toByteArray();
+
+            ByteArrayOutputStream optimized = new ByteArrayOutputStream();
+            EscOptimizer.optimize(new ByteArrayInputStream(original), optimized);
+            assertEquals(render(original, escp24pin), render(optimized.toByteArray(), escp24pin), "job " + n);
+        }
+    }
+
+    @Test
+    void redundantSwitchesAreDropped() throws IOException
+    {
+        ByteArrayOutputStream job = new ByteArrayOutputStream();
+        job.write(new byte[] { ESC, '@', ESC, '@', ESC, 'E', ESC, 'E' });
+        text(job, "bold");
+        job.write(new byte[] { ESC, 'J', 10, ESC, 'J', 20 });
+        text(job, "x");
+
+        byte[] original = job.toByteArray();
+        byte[] optimized = assertPrintsTheSame(original);
+        assertTrue(optimized.length < original.length);
+    }
+
+    @Test
+    void switchesAtTheEndAreKept() throws IOException
+    {
+        byte[] optimized = optimize(new byte[] { ESC, 'E', 'b', 'o', 'l', 'd', ESC, 'F' });
+        assertArrayEquals(new byte[] { ESC, 'E', 'b', 'o', 'l', 'd', ESC, 'F' }, optimized); //the next job must not print bold
+    }
+
+    @Test
+    void pitchAfterResetIsNotAssumed() throws IOException
+    {
+        assertArrayEquals(new byte[] { ESC, '@', ESC, 'P', 'x' }, optimize(new byte[] { ESC, '@', ESC, 'P', 'x' }));
+        assertArrayEquals(new byte[] { ESC, '@', ESC, 'p', 0, 'x' }, optimize(new byte[] { ESC, '@', ESC, 'p', 0, 'x' }));
+    }
+
+    @Test
+    void mergedAdvancesStayWithinTheEscPrinterCap() throws IOException
+    {
+        byte[] optimized = optimize(new byte[] { ESC, 'J', (byte) 200, ESC, 'J', (byte) 200, 'x' });
+        int total = 0;
+        for (int i = 0; i + 2 < optimized.length; i++)
+        {
+            if (optimized[i] == ESC && optimized[i + 1] == 'J')
+            {
+                assertTrue((optimized[i + 2] & 0xFF) <= 127, "ESC J " + (optimized[i + 2] & 0xFF));
+                total += optimized[i + 2] & 0xFF;
+            }
+        }
+        assertEquals(400, total);
+    }
+
+    private static byte[] optimize(byte[] original) throws IOException
+    {
+        ByteArrayOutputStream optimized = new ByteArrayOutputStream();
+        EscOptimizer.optimize(new ByteArrayInputStream(original), optimized);
+        return optimized.toByteArray();
+    }
+
+    private static byte[] assertPrintsTheSame(byte[] original) throws IOException
+    {
+        ByteArrayOutputStream optimized = new ByteArrayOutputStream();
+        EscOptimizer.optimize(new ByteArrayInputStream(original), optimized);
+        assertEquals(render(original, false), render(optimized.toByteArray(), false));
+        return optimized.toByteArray();
+    }
+
+    private static void randomToken(Random random, ByteArrayOutputStream job) throws IOException
+    {
+        switch (random.nextInt(14))
+        {
+            case 0:
+                job.write(new byte[] { ESC, '@' });
+                break;
+            case 1:
+                job.write(new byte[] { ESC, (byte) "EFGH45".charAt(random.nextInt(6)) });
+                break;
+            case 2:
+                job.write(new byte[] { ESC, (byte) "PMg".charAt(random.nextInt(3)) });
+                break;
+            case 3:
+                job.write(new byte[] { ESC, (byte) "012".charAt(random.nextInt(3)) });
+                break;
+            case 4:
+                job.write(new byte[] { ESC, (byte) (random.nextBoolean() ? '3' : 'A'), (byte) (10 + random.nextInt(40)) });
+                break;
+            case 5:
+                job.write(new byte[] { ESC, (byte) "xp-".charAt(random.nextInt(3)), (byte) (random.nextInt(2) + (random.nextBoolean() ? '0' : 0)) });
+                break;
+            case 6:
+                job.write(new byte[] { ESC, 'J', (byte) random.nextInt(200) });
+                break;
+            case 7:
+                job.write(new byte[] { ESC, '$', (byte) random.nextInt(256), (byte) random.nextInt(2) });
+                break;
+            case 8:
+                job.write(new byte[] { ESC, '!', (byte) random.nextInt(256) });
+                break;
+            case 9:
+                job.write(new byte[] { 13, 10 });
+                break;
+            case 10:
+                job.write(random.nextInt(8) == 0 ? 12 : 10);
+                break;
+            default:
+                text(job, "ab".repeat(1 + random.nextInt(3)));
+                break;
+        }
+    }
+
+    private static void text(ByteArrayOutputStream job, String text) throws IOException
+    {
+        job.write(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /** every character printed with its page, position and weight */
+    static String render(byte[] job, boolean escp24pin)
+    {
+        EscEmulator emulator = new EscEmulator(escp24pin);
+        emulator.write(job, 0, job.length);
+        StringBuilder strb = new StringBuilder();
+        for (EscEmulator.Page page : emulator.getPages())
+            render(page, strb);
+        render(emulator.getCurrentPage(), strb);
+        return strb.toString();
+    }
+
+    private static void render(EscEmulator.Page page, StringBuilder strb)
+    {
+        strb.append("page ").append(page.getNumber()).append('\n');
+        for (int i = 0; i < page.length(); i++)
+        {
+            strb.append(page.charAt(i)).append(' ').append(page.getX(i)).append(',').append(page.getY(i));
+            strb.append(page.isBold(i) ? " bold\n" : "\n");
+        }
+    }
+}
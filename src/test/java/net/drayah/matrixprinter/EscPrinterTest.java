@@ -0,0 +1,338 @@
+/*
+ * EscPrinterTest.java
+ *
+ * Output paths of EscPrinter: raw file transfers, flushes and their metrics, device writer failures, optimizing mode.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class EscPrinterTest
+{
+    @TempDir
+    Path directory;
+
+    @Test
+    void transferFileGoesThroughTheInitializedStream() throws Exception
+    {
+        Path file = Files.write(directory.resolve("job.prn"), "FILE".getBytes(StandardCharsets.ISO_8859_1));
+        Path named = directory.resolve("printer");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EscPrinter printer = new EscPrinter(named.toString(), false);
+        printer.initialize(out);
+        printer.print("abc");
+
+        assertEquals(4, printer.transferFile(file.toString(), 2, null));
+
+        byte[] written = out.toByteArray();
+        assertEquals("abcFILE", new String(Arrays.copyOfRange(written, written.length - 7, written.length), StandardCharsets.ISO_8859_1));
+        assertFalse(Files.exists(named), "no file may be created under the printer name");
+    }
+
+    @Test
+    void emptyFlushRecordsNoDeviceWrite()
+    {
+        AtomicInteger writes = new AtomicInteger();
+        EscPrinter printer = new EscPrinter("lp", false);
+        printer.setMetrics(new PrintMetrics()
+        {
+            @Override
+            public void phase(String printerName, PrintPhase phase, long nanos, boolean success)
+            {
+                if (phase == PrintPhase.DEVICE_WRITE)
+                    writes.incrementAndGet();
+            }
+        });
+        printer.initialize(new ByteArrayOutputStream());
+        printer.print("abc");
+        printer.flush();
+        printer.flush();
+        printer.flush();
+
+        assertEquals(1, writes.get());
+    }
+
+    @Test
+    void transferFileOpensThePrinterNameWhenNotInitialized() throws Exception
+    {
+        Path file = Files.write(directory.resolve("job.prn"), "FILE".getBytes(StandardCharsets.ISO_8859_1));
+        Path device = Files.createFile(directory.resolve("lp0"));
+        EscPrinter printer = new EscPrinter(device.toString(), false);
+
+        assertEquals(4, printer.transferFile(file.toString(), RawFileTransfer.DEFAULT_CHUNK_SIZE, null));
+        assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(device));
+    }
+
+    @Test
+    void flushTimeoutDropsTheBufferedPartOfTheJob() throws Exception
+    {
+        StalledDevice device = new StalledDevice();
+        EscPrinter printer = new EscPrinter("stalled", false);
+        printer.initialize(new DeviceWriter(device, "stalled", 16, 0, 16, 100));
+        printer.flush();
+        if (device.size() % 16 == 0)
+        {
+            printer.print("A"); //the job below has to wrap around the ring, so part of it stays queued
+            printer.flush();
+        }
+        int before = device.size();
+
+        device.stalled = true;
+        printer.print("B".repeat(40));
+        printer.flush();
+        assertTrue(printer.checkError());
+        assertEquals(DeviceWriter.State.FAILED, printer.getDeviceWriter().getState());
+
+        device.release.countDown();
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            if (thread.getName().equals("device-writer-stalled"))
+                thread.join(5000);
+        }
+        assertEquals(before + 16 - before % 16, device.size(), "only the write in progress may reach the printer");
+    }
+
+    @Test
+    void initializeClosesThePreviousDeviceWriter() throws Exception
+    {
+        Path device = Files.createFile(directory.resolve("lp0"));
+        EscPrinter printer = new EscPrinter(device.toString(), false);
+        assertTrue(printer.initialize());
+        DeviceWriter first = printer.getDeviceWriter();
+
+        assertTrue(printer.initialize());
+        assertEquals(DeviceWriter.State.CLOSED, first.getState());
+        printer.close();
+    }
+
+    @Test
+    void optimizedFileIsAJobOfTheSession() throws Exception
+    {
+        Path file = Files.write(directory.resolve("job.prn"), new byte[] { 27, 'E', 'x' }); //the file leaves bold on
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AtomicInteger writes = new AtomicInteger();
+        EscPrinter printer = new EscPrinter("lp", false);
+        printer.setMetrics(new PrintMetrics()
+        {
+            @Override
+            public void phase(String printerName, PrintPhase phase, long nanos, boolean success)
+            {
+                if (phase == PrintPhase.DEVICE_WRITE && success)
+                    writes.incrementAndGet();
+            }
+        });
+        printer.initialize(out);
+        printer.setOptimizing(true);
+        printer.bold(false);
+        printer.flush();
+        writes.set(0);
+
+        printer.printOptimizedFile(file.toString());
+        assertEquals(1, writes.get());
+        int before = out.size();
+        printer.bold(false);
+        printer.flush();
+        assertArrayEquals(new byte[] { 27, 'F' }, Arrays.copyOfRange(out.toByteArray(), before, out.size()));
+    }
+
+    @Test
+    void optimizedFileFailureAbortsTheDevice() throws Exception
+    {
+        Path file = Files.write(directory.resolve("job.prn"), new byte[64 * 1024]);
+        StalledDevice device = new StalledDevice();
+        EscPrinter printer = new EscPrinter("stalled", false);
+        printer.initialize(new DeviceWriter(device, "stalled", 1024, 0, 1024, 100));
+        printer.flush();
+        device.stalled = true;
+
+        assertThrows(IOException.class, () -> printer.printOptimizedFile(file.toString()));
+        assertTrue(printer.checkError());
+        assertEquals(DeviceWriter.State.FAILED, printer.getDeviceWriter().getState());
+        device.release.countDown();
+    }
+
+    @Test
+    void optimizingResendsModesAfterATransferredFile() throws Exception
+    {
+        Path file = Files.write(directory.resolve("job.prn"), new byte[] { 27, 'E' }); //the file leaves bold on
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EscPrinter printer = new EscPrinter("lp", false);
+        printer.initialize(out);
+        printer.setOptimizing(true);
+        printer.bold(false);
+        printer.flush();
+
+        printer.transferFile(file.toString(), 1024, null);
+        int before = out.size();
+        printer.bold(false);
+        printer.flush();
+        assertArrayEquals(new byte[] { 27, 'F' }, Arrays.copyOfRange(out.toByteArray(), before, out.size()));
+    }
+
+    @Test
+    void largeJobsAreBufferedUntilFlush()
+    {
+        StalledDevice device = new StalledDevice();
+        device.stalled = true;
+        AtomicInteger unwritable = new AtomicInteger();
+        DeviceWriter writer = new DeviceWriter(device, "stalled", 64 * 1024, 16 * 1024, 48 * 1024, 200);
+        writer.setListener(new DeviceWriter.Listener()
+        {
+            @Override
+            public void writabilityChanged(DeviceWriter changed, boolean writable)
+            {
+                if (!writable)
+                    unwritable.incrementAndGet();
+            }
+        });
+        EscPrinter printer = new EscPrinter("stalled", false);
+        printer.initialize(writer);
+        for (int i = 0; i < 500; i++)
+            printer.print("0123456789".repeat(10)); //past the high watermark, each write within the timeout of the previous one
+
+        assertFalse(printer.checkError(), "the threshold writes waited for the stalled device");
+        assertTrue(writer.buffered() >= 48 * 1024);
+        assertEquals(1, unwritable.get());
+
+        device.release.countDown();
+        printer.flush();
+        assertFalse(printer.checkError());
+        assertEquals(0, writer.buffered());
+    }
+
+    @Test
+    void transferFileFailsOnAStalledDevice() throws Exception
+    {
+        Path file = Files.write(directory.resolve("job.prn"), new byte[8192]);
+        StalledDevice device = new StalledDevice();
+        EscPrinter printer = new EscPrinter("stalled", false);
+        printer.initialize(new DeviceWriter(device, "stalled", 1024, 0, 1024, 100));
+        printer.flush();
+        device.stalled = true;
+
+        assertThrows(IOException.class, () -> printer.transferFile(file.toString(), 1024, null));
+        assertTrue(printer.checkError());
+        device.release.countDown();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = { false, true })
+    void optimizingPrintsTheSameWithFewerBytes(boolean escp24pin)
+    {
+        Consumer<EscPrinter> document = printer -> {
+            printer.bold(true);
+            printer.bold(true);
+            printer.select10CPI();
+            printer.select10CPI();
+            printer.selectLQPrinting();
+            printer.setCharacterSet(EscPrinter.BRAZIL);
+            printer.setCharacterSet(EscPrinter.BRAZIL);
+            printer.setMargins(5, 70);
+            printer.setMargins(5, 70);
+            printer.advanceVertical(1.0f);
+            printer.advanceVertical(4.0f);
+            printer.advanceVertical(3.0f);
+            printer.setAbsoluteHorizontalPosition(1.0f);
+            printer.setAbsoluteHorizontalPosition(2.5f);
+            printer.print("Título");
+            printer.bold(false);
+            printer.bold(false);
+            printer.lineFeed();
+            printer.print("açaí");
+            printer.formFeed();
+        };
+        byte[] plain = output(document, escp24pin, false);
+        byte[] optimized = output(document, escp24pin, true);
+
+        assertEquals(EscOptimizerTest.render(plain, escp24pin), EscOptimizerTest.render(optimized, escp24pin));
+        assertTrue(optimized.length < plain.length, optimized.length + " bytes optimized, " + plain.length + " plain");
+    }
+
+    @Test
+    void optimizingDropsRepeatedSwitches()
+    {
+        byte[] once = output(printer -> {
+            printer.bold(true);
+            printer.print("x");
+        }, false, true);
+        byte[] twice = output(printer -> {
+            printer.bold(true);
+            printer.bold(true);
+            printer.print("x");
+        }, false, true);
+
+        assertArrayEquals(once, twice);
+    }
+
+    private static byte[] output(Consumer<EscPrinter> document, boolean escp24pin, boolean optimizing)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EscPrinter printer = new EscPrinter("lp", escp24pin);
+        printer.initialize(out);
+        printer.setOptimizing(optimizing);
+        document.accept(printer);
+        printer.flush();
+        return out.toByteArray();
+    }
+
+    /** takes data until stalled, then blocks every write until released */
+    private static final class StalledDevice extends OutputStream
+    {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile boolean stalled;
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            try
+            {
+                if (stalled)
+                    release.await();
+            }
+            catch (InterruptedException ex)
+            {
+                throw new InterruptedIOException();
+            }
+            synchronized (data)
+            {
+                data.write(b, off, len);
+            }
+        }
+
+        int size()
+        {
+            synchronized (data)
+            {
+                return data.size();
+            }
+        }
+    }
+}
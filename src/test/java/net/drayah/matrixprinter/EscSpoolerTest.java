@@ -0,0 +1,201 @@
+/*
+ * EscSpoolerTest.java
+ *
+ * Per-printer ordering, parallelism, overflow policies and shutdown of EscSpooler, on a sink that can be held.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class EscSpoolerTest
+{
+    private final List<String> printed = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final PrintSink sink = (printerName, data) -> {
+        String job = new String(data, StandardCharsets.ISO_8859_1);
+        if (job.equals("hold"))
+        {
+            started.countDown();
+            release.await();
+        }
+        printed.add(printerName + ":" + job);
+    };
+
+    @Test
+    void jobsOfAPrinterRunInOrder() throws Exception
+    {
+        EscSpooler spooler = new EscSpooler(sink, 1000, EscSpooler.OverflowPolicy.BLOCK);
+        List<CompletableFuture<Void>> jobs = new ArrayList<>();
+        for (int i = 0; i < 500; i++)
+            jobs.add(spooler.submit("lp", bytes(Integer.toString(i))));
+        CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+
+        for (int i = 0; i < 500; i++)
+            assertEquals("lp:" + i, printed.get(i));
+    }
+
+    @Test
+    void printersRunInParallel() throws Exception
+    {
+        EscSpooler spooler = new EscSpooler(sink, 10, EscSpooler.OverflowPolicy.BLOCK);
+        CompletableFuture<Void> held = spooler.submit("slow", bytes("hold"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        spooler.submit("fast", bytes("job")).get(5, TimeUnit.SECONDS); //not stuck behind the other printer
+        release.countDown();
+        held.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("fast:job", "slow:hold"), printed);
+    }
+
+    @Test
+    void fullQueueRejectsTheNewJob() throws Exception
+    {
+        EscSpooler spooler = new EscSpooler(sink, 1, EscSpooler.OverflowPolicy.REJECT);
+        spooler.submit("lp", bytes("hold"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> queued = spooler.submit("lp", bytes("queued"));
+        CompletableFuture<Void> late = spooler.submit("lp", bytes("late"));
+
+        release.countDown();
+        queued.get(5, TimeUnit.SECONDS);
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> late.get(5, TimeUnit.SECONDS));
+        assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        assertEquals(List.of("lp:hold", "lp:queued"), printed);
+    }
+
+    @Test
+    void fullQueueDropsTheOldestJob() throws Exception
+    {
+        EscSpooler spooler = new EscSpooler(sink, 1, EscSpooler.OverflowPolicy.DROP_OLDEST);
+        spooler.submit("lp", bytes("hold"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> oldest = spooler.submit("lp", bytes("oldest"));
+        CompletableFuture<Void> newest = spooler.submit("lp", bytes("newest"));
+
+        release.countDown();
+        newest.get(5, TimeUnit.SECONDS);
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> oldest.get(5, TimeUnit.SECONDS));
+        assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        assertEquals(List.of("lp:hold", "lp:newest"), printed);
+    }
+
+    @Test
+    void shutdownDrainsWhileShutdownNowCancels() throws Exception
+    {
+        EscSpooler spooler = new EscSpooler(sink, 10, EscSpooler.OverflowPolicy.BLOCK);
+        spooler.submit("lp", bytes("hold"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> queued = spooler.submit("lp", bytes("queued"));
+
+        assertEquals(1, spooler.shutdownNow());
+        assertThrows(CancellationException.class, queued::join);
+        assertTrue(spooler.submit("lp", bytes("late")).isCompletedExceptionally());
+        release.countDown();
+        assertTrue(spooler.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(List.of("lp:hold"), printed);
+
+        EscSpooler draining = new EscSpooler(sink, 10, EscSpooler.OverflowPolicy.BLOCK);
+        CompletableFuture<Void> last = draining.submit("lp", bytes("drained"));
+        draining.shutdown();
+        assertTrue(draining.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(last.isDone() && !last.isCompletedExceptionally());
+    }
+
+    @Test
+    void cancelledJobFreesItsPlaceInTheQueue() throws Exception
+    {
+        EscSpooler spooler = new EscSpooler(sink, 1, EscSpooler.OverflowPolicy.REJECT);
+        CompletableFuture<Void> held = spooler.submit("lp", bytes("hold"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> cancelled = spooler.submit("lp", bytes("cancelled"));
+
+        assertTrue(cancelled.cancel(false));
+        assertEquals(0, spooler.queued("lp"));
+        CompletableFuture<Void> next = spooler.submit("lp", bytes("next"));
+        release.countDown();
+        next.get(5, TimeUnit.SECONDS);
+        held.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("lp:hold", "lp:next"), printed);
+    }
+
+    @Test
+    void queuesOfIdlePrintersAreDropped() throws Exception
+    {
+        EscSpooler spooler = new EscSpooler(sink, 10, EscSpooler.OverflowPolicy.BLOCK);
+        List<CompletableFuture<Void>> jobs = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            jobs.add(spooler.submit("lp" + i, bytes("job")));
+        CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (spooler.getLaneCount() > 0 && System.nanoTime() < deadline)
+            Thread.sleep(1);
+        assertEquals(0, spooler.getLaneCount());
+        assertEquals(0, spooler.queued("lp0"));
+    }
+
+    @Test
+    void droppingIdleQueuesKeepsOneJobAtATimePerPrinter() throws Exception
+    {
+        EscSpooler spooler = new EscSpooler(sink, 10, EscSpooler.OverflowPolicy.BLOCK);
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        List<List<Integer>> runs = new ArrayList<>();
+        List<Thread> submitters = new ArrayList<>();
+        for (int t = 0; t < 4; t++)
+        {
+            List<Integer> run = Collections.synchronizedList(new ArrayList<>());
+            runs.add(run);
+            submitters.add(Thread.ofPlatform().start(() -> {
+                List<CompletableFuture<Integer>> jobs = new ArrayList<>();
+                for (int i = 0; i < 2000; i++)
+                {
+                    int number = i;
+                    jobs.add(spooler.submit("lp", () -> {
+                        if (active.incrementAndGet() > 1)
+                            overlaps.incrementAndGet();
+                        run.add(number);
+                        active.decrementAndGet();
+                        return number;
+                    }));
+                    if (i % 100 == 0)
+                        jobs.get(i).join(); //let the queue run dry now and then
+                }
+                CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[0])).join();
+            }));
+        }
+        for (Thread submitter : submitters)
+            submitter.join(10000);
+
+        assertEquals(0, overlaps.get(), "jobs of one printer ran in parallel");
+        for (List<Integer> run : runs)
+        {
+            assertEquals(2000, run.size());
+            for (int i = 0; i < run.size(); i++)
+                assertEquals(i, run.get(i), "jobs of one submitter ran out of order");
+        }
+    }
+
+    private static byte[] bytes(String text)
+    {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
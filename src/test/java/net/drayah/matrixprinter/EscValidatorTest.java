@@ -0,0 +1,94 @@
+/*
+ * EscValidatorTest.java
+ *
+ * Page and command counts of EscValidator and the problems it reports, with their byte offsets.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class EscValidatorTest
+{
+    private static final byte ESC = 27;
+    private static final byte FF = 12;
+
+    @Test
+    void countsPagesAndCommands() throws IOException
+    {
+        EscStreamReport report = validate(new byte[] { ESC, '@', 'a', FF, FF, ESC, 'E', 'b', 13, 10 });
+
+        assertTrue(report.isValid(), report.getProblems().toString());
+        assertEquals(3, report.getPages()); //two form feeds, then a page left open
+        assertEquals(2, report.getCommands());
+        assertEquals(10, report.getBytesIn());
+        assertEquals(10, report.getBytesOut());
+        assertEquals(0, report.getSavedBytes());
+        assertEquals(1, validate(new byte[] { 'a', FF }).getPages());
+        assertEquals(0, validate(new byte[0]).getPages());
+    }
+
+    @Test
+    void reportsUnexpectedControlCodes() throws IOException
+    {
+        EscStreamReport report = validate(new byte[] { 'a', 'b', 3, 9, 10, 13, 0 });
+
+        assertEquals(1, report.getProblemCount());
+        assertEquals(List.of("byte 2: unexpected control code 0x3"), report.getProblems());
+    }
+
+    @Test
+    void reportsParametersOutOfRange() throws IOException
+    {
+        EscStreamReport report = validate(new byte[] {
+            ESC, 'x', 1, ESC, 'x', 2,         //quality: 0, 1, 48 or 49
+            ESC, 't', 51, ESC, 't', 4,        //character table 0 to 3
+            ESC, 'Q', 0,                      //right margin at least 1
+            ESC, 'C', 0, 23                   //page length in inches 1 to 22
+        });
+
+        List<String> problems = report.getProblems();
+        assertEquals(4, report.getProblemCount(), problems.toString());
+        assertTrue(problems.get(0).startsWith("byte 3: ESC x"), problems.get(0));
+        assertTrue(problems.get(1).startsWith("byte 9: ESC t"), problems.get(1));
+        assertTrue(problems.get(2).startsWith("byte 12: ESC Q"), problems.get(2));
+        assertTrue(problems.get(3).startsWith("byte 15: ESC C NUL"), problems.get(3));
+        assertEquals(6, report.getCommands());
+    }
+
+    @Test
+    void checksExtendedCommandLengths() throws IOException
+    {
+        assertTrue(validate(new byte[] { ESC, '(', 't', 3, 0, 1, 25, 0 }).isValid());
+
+        EscStreamReport report = validate(new byte[] { ESC, '(', 't', 2, 0, 1, 25, 'x' });
+        assertFalse(report.isValid());
+        assertEquals("byte 0: ESC ( t expects 3 parameter bytes, got 2", report.getProblems().get(0));
+    }
+
+    @Test
+    void keepsOnlyTheFirstProblems() throws IOException
+    {
+        ByteArrayOutputStream job = new ByteArrayOutputStream();
+        for (int i = 0; i < EscStreamReport.MAX_PROBLEMS + 20; i++)
+            job.write(3);
+
+        EscStreamReport report = validate(job.toByteArray());
+        assertEquals(EscStreamReport.MAX_PROBLEMS + 20, report.getProblemCount());
+        assertEquals(EscStreamReport.MAX_PROBLEMS, report.getProblems().size());
+        assertEquals("byte 0: unexpected control code 0x3", report.getProblems().get(0));
+    }
+
+    private static EscStreamReport validate(byte[] job) throws IOException
+    {
+        return EscValidator.validate(new ByteArrayInputStream(job));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * FormTemplateTest.java
+ *
+ * Field placement and value formatting of FormTemplate, checked on the printed page of an EscEmulator.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class FormTemplateTest
+{
+    @ParameterizedTest
+    @ValueSource(booleans = { false, true })
+    void fieldsPrintWhereTheLayoutPutThem(boolean optimizing)
+    {
+        FormTemplate.Builder builder = FormTemplate.builder(false);
+        EscPrinter layout = builder.printer();
+        layout.setOptimizing(optimizing);
+        layout.advanceVertical(2.54f);
+        layout.setAbsoluteHorizontalPosition(2.54f);
+        int name = builder.field(8, FormTemplate.Align.LEFT);
+        layout.setAbsoluteHorizontalPosition(12.7f);
+        int amount = builder.field(6, FormTemplate.Align.RIGHT);
+        FormTemplate template = builder.build();
+
+        EscEmulator emulator = new EscEmulator(false);
+        FormTemplate.Form form = template.newForm();
+        form.set(name, "ACME").set(amount, 1234L);
+        emulator.write(form.toByteArray(), 0, template.length());
+
+        EscEmulator.Page page = emulator.getCurrentPage();
+        String text = chars(page);
+        int a = text.indexOf('A');
+        assertEquals(EscEmulator.UNITS_PER_INCH, page.getX(a));
+        assertEquals(EscEmulator.UNITS_PER_INCH, page.getY(a));
+        int one = text.indexOf('1');
+        assertEquals(5 * EscEmulator.UNITS_PER_INCH + 2 * EscEmulator.UNITS_PER_INCH / 10, page.getX(one)); //5 inch, then 2 blanks at 10 cpi
+        assertEquals(EscEmulator.UNITS_PER_INCH, page.getY(one));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = { false, true })
+    void buildFlushesTrailingMoves(boolean optimizing)
+    {
+        FormTemplate.Builder builder = FormTemplate.builder(false);
+        EscPrinter layout = builder.printer();
+        layout.setOptimizing(optimizing);
+        builder.field(1, FormTemplate.Align.LEFT);
+        layout.advanceVertical(2.54f);
+        FormTemplate template = builder.build();
+
+        EscEmulator emulator = new EscEmulator(false);
+        emulator.write(template.newForm().toByteArray(), 0, template.length());
+        assertEquals(EscEmulator.UNITS_PER_INCH, emulator.getY());
+    }
+
+    @Test
+    void numbersTooWideAreMarked()
+    {
+        FormTemplate.Builder builder = FormTemplate.builder(false);
+        int slot = builder.field(3, FormTemplate.Align.RIGHT);
+        FormTemplate.Form form = builder.build().newForm();
+
+        assertEquals(" -7", new String(form.set(slot, -7L).toByteArray()));
+        assertEquals("***", new String(form.set(slot, 1234L).toByteArray()));
+        assertEquals(" ab", new String(form.set(slot, "ab").toByteArray()));
+        assertEquals("   ", new String(form.clear().toByteArray()));
+    }
+
+    static String chars(EscEmulator.Page page)
+    {
+        StringBuilder strb = new StringBuilder();
+        for (int i = 0; i < page.length(); i++)
+            strb.append(page.charAt(i));
+        return strb.toString();
+    }
+}
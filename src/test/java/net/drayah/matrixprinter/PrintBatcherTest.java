@@ -0,0 +1,161 @@
+/*
+ * PrintBatcherTest.java
+ *
+ * Batch limits, terminators and per-printer ordering of PrintBatcher, on a spooler recording its jobs.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class PrintBatcherTest
+{
+    private final List<String> jobs = Collections.synchronizedList(new ArrayList<>());
+    private final EscSpooler spooler = new EscSpooler((printerName, data) -> jobs.add(new String(data, StandardCharsets.ISO_8859_1)), 10000, EscSpooler.OverflowPolicy.BLOCK);
+
+    @Test
+    void terminatesEveryDocument() throws Exception
+    {
+        try (PrintBatcher batcher = new PrintBatcher(spooler, 3, 1024, 60000))
+        {
+            batcher.setTerminator("|".getBytes(StandardCharsets.ISO_8859_1));
+            batcher.submit("lp", bytes("a"));
+            batcher.submit("lp", bytes("b"));
+            batcher.submit("lp", bytes("c")).get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(List.of("a|b|c|"), jobs);
+    }
+
+    @Test
+    void sendsAfterTheDelay() throws Exception
+    {
+        try (PrintBatcher batcher = new PrintBatcher(spooler, 100, 1024, 20))
+        {
+            batcher.submit("lp", bytes("late")).get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(List.of("late\r\f\u001b@"), jobs); //CR FF ESC @ after the last document too
+    }
+
+    @Test
+    void fullPrinterQueueDoesNotHoldUpOtherPrinters() throws Exception
+    {
+        CountDownLatch printing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        EscSpooler jammed = new EscSpooler((printerName, data) -> {
+            if (printerName.equals("jam"))
+            {
+                printing.countDown();
+                release.await();
+            }
+            jobs.add(printerName);
+        }, 1, EscSpooler.OverflowPolicy.BLOCK);
+
+        try (PrintBatcher batcher = new PrintBatcher(jammed, 100, 1024, 10))
+        {
+            batcher.submit("jam", bytes("1"));
+            assertTrue(printing.await(5, TimeUnit.SECONDS));
+            batcher.submit("jam", bytes("2"));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (jammed.queued("jam") == 0 && System.nanoTime() < deadline)
+                Thread.sleep(5);
+            batcher.submit("jam", bytes("3")); //its timed send blocks on the full queue
+            Thread.sleep(50);
+
+            batcher.submit("lp", bytes("x")).get(5, TimeUnit.SECONDS);
+            assertEquals(List.of("lp"), jobs);
+            release.countDown();
+        }
+        jammed.shutdown();
+        assertTrue(jammed.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(4, jobs.size());
+    }
+
+    @Test
+    void documentThatDoesNotFitStartsANewBatch() throws Exception
+    {
+        try (PrintBatcher batcher = new PrintBatcher(spooler, 100, 8, 60000))
+        {
+            batcher.setTerminator(new byte[0]);
+            batcher.submit("lp", bytes("12345"));
+            CompletableFuture<Void> first = batcher.submit("lp", bytes("6789"));
+            CompletableFuture<Void> last = batcher.submit("lp", bytes("x"));
+            batcher.flush();
+            CompletableFuture.allOf(first, last).get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(List.of("12345", "6789x"), jobs);
+    }
+
+    @Test
+    void keepsTheDocumentsOfEachSubmitterInOrder() throws Exception
+    {
+        int threads = 4;
+        int documents = 2000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> submitters = new ArrayList<>();
+        List<CompletableFuture<Void>> results = Collections.synchronizedList(new ArrayList<>());
+        try (PrintBatcher batcher = new PrintBatcher(spooler, 3, 1024, 1))
+        {
+            batcher.setTerminator(new byte[] { ',' });
+            for (int t = 0; t < threads; t++)
+            {
+                int thread = t;
+                Thread submitter = new Thread(() -> {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        return;
+                    }
+                    for (int i = 0; i < documents; i++)
+                        results.add(batcher.submit("lp", bytes(thread + ":" + i)));
+                });
+                submitter.start();
+                submitters.add(submitter);
+            }
+            start.countDown();
+            for (Thread submitter : submitters)
+                submitter.join();
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+        int[] next = new int[threads];
+        for (String job : jobs)
+        {
+            for (String document : job.split(","))
+            {
+                String[] parts = document.split(":");
+                int thread = Integer.parseInt(parts[0]);
+                assertEquals(next[thread]++, Integer.parseInt(parts[1]), "document of thread " + thread + " out of order");
+            }
+        }
+        for (int t = 0; t < threads; t++)
+            assertEquals(documents, next[t]);
+    }
+
+    @Test
+    void closedBatcherRejects() throws Exception
+    {
+        PrintBatcher batcher = new PrintBatcher(spooler, 3, 1024, 60000);
+        batcher.close();
+        assertTrue(batcher.submit("lp", bytes("x")).isCompletedExceptionally());
+        assertArrayEquals(new String[0], jobs.toArray(new String[0]));
+    }
+
+    private static byte[] bytes(String text)
+    {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
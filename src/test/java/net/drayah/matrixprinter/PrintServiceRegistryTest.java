@@ -0,0 +1,96 @@
+/*
+ * PrintServiceRegistryTest.java
+ *
+ * Name matching, argument checks and reloads of PrintServiceRegistry, on fake print services.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.print.PrintService;
+import org.junit.jupiter.api.Test;
+
+class PrintServiceRegistryTest
+{
+    static PrintService service(String name)
+    {
+        return (PrintService) Proxy.newProxyInstance(PrintService.class.getClassLoader(), new Class<?>[] { PrintService.class },
+            (proxy, method, args) -> switch (method.getName())
+            {
+                case "getName", "toString" -> name;
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                default -> null;
+            });
+    }
+
+    @Test
+    void matchesNamesIgnoringCase()
+    {
+        PrintService epson = service("Epson-LX300");
+        try (PrintServiceRegistry registry = new PrintServiceRegistry(() -> new PrintService[] { epson }, 60000))
+        {
+            assertSame(epson, registry.lookup("epson-lx300"));
+            assertSame(epson, registry.lookup("EPSON-LX300"));
+            assertNull(registry.lookup("epson"));
+            assertNull(registry.lookup(null));
+        }
+    }
+
+    @Test
+    void firstServiceWinsOnDuplicateNames()
+    {
+        PrintService first = service("LX300");
+        try (PrintServiceRegistry registry = new PrintServiceRegistry(() -> new PrintService[] { first, service("lx300") }, 60000))
+        {
+            assertSame(first, registry.lookup("Lx300"));
+        }
+    }
+
+    @Test
+    void rejectsNegativeTimeToLive()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new PrintServiceRegistry(() -> new PrintService[0], -1));
+        assertThrows(IllegalArgumentException.class, () -> new PrintServiceRegistry(null, 1000));
+    }
+
+    @Test
+    void unknownNameReloadsAtMostOncePerInterval()
+    {
+        AtomicInteger lookups = new AtomicInteger();
+        try (PrintServiceRegistry registry = new PrintServiceRegistry(() -> {
+            lookups.incrementAndGet();
+            return new PrintService[0];
+        }, 60000))
+        {
+            registry.setMissRefreshInterval(60000);
+            registry.lookup("missing");
+            registry.lookup("missing");
+            assertEquals(1, lookups.get());
+
+            registry.refresh();
+            assertEquals(2, lookups.get());
+        }
+    }
+
+    @Test
+    void staleServicesReloadOnTheCallerOnceClosed()
+    {
+        AtomicInteger lookups = new AtomicInteger();
+        PrintServiceRegistry registry = new PrintServiceRegistry(() -> {
+            lookups.incrementAndGet();
+            return new PrintService[0];
+        }, 0);
+        registry.close();
+
+        registry.services();
+        registry.services();
+        assertEquals(2, lookups.get()); //first load, then the stale snapshot is reloaded on this thread
+    }
+}
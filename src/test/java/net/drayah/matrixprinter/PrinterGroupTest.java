@@ -0,0 +1,154 @@
+/*
+ * PrinterGroupTest.java
+ *
+ * Member choice, failover and health checks of PrinterGroup, on a spooler recording the jobs of every printer.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class PrinterGroupTest
+{
+    private final List<String> printed = Collections.synchronizedList(new ArrayList<>());
+    private final Set<String> broken = ConcurrentHashMap.newKeySet();
+    private final EscSpooler spooler = new EscSpooler((printerName, data) -> {
+        if (broken.contains(printerName))
+            throw new IOException("printer " + printerName + " jammed");
+        printed.add(printerName);
+    }, 100, EscSpooler.OverflowPolicy.BLOCK);
+
+    @AfterEach
+    void shutdown()
+    {
+        spooler.shutdownNow();
+    }
+
+    @Test
+    void roundRobinSpreadsTheJobs() throws Exception
+    {
+        try (PrinterGroup group = group(PrinterGroup.Policy.ROUND_ROBIN, "a", "b", "c"))
+        {
+            for (int i = 0; i < 6; i++)
+                group.submit(new byte[] { 'x' }).get(5, TimeUnit.SECONDS);
+        }
+        for (String printerName : List.of("a", "b", "c"))
+            assertEquals(2, Collections.frequency(printed, printerName));
+    }
+
+    @Test
+    void stickyKeysMoveOnlyWithTheirPrinter() throws Exception
+    {
+        try (PrinterGroup group = group(PrinterGroup.Policy.STICKY, "a", "b", "c", "d"))
+        {
+            List<String> before = new ArrayList<>();
+            for (int key = 0; key < 40; key++)
+                before.add(group.submit("zone" + key, new byte[] { 'x' }).get(5, TimeUnit.SECONDS));
+            assertEquals(before.get(7), group.submit("zone7", new byte[] { 'x' }).get(5, TimeUnit.SECONDS));
+
+            String removed = before.get(0);
+            group.remove(removed);
+            for (int key = 0; key < 40; key++)
+            {
+                String printer = group.submit("zone" + key, new byte[] { 'x' }).get(5, TimeUnit.SECONDS);
+                if (before.get(key).equals(removed))
+                    assertNotEquals(removed, printer);
+                else
+                    assertEquals(before.get(key), printer, "zone" + key + " moved");
+            }
+        }
+    }
+
+    @Test
+    void leastQueuedSeesJobsSubmittedOutsideTheGroup() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        EscSpooler held = new EscSpooler((printerName, data) -> {
+            release.await();
+            printed.add(printerName);
+        }, 2, EscSpooler.OverflowPolicy.REJECT);
+        try (PrinterGroup group = new PrinterGroup("test", held, PrinterGroup.Policy.LEAST_QUEUED, false, EscPrinter.USA))
+        {
+            group.add("a");
+            group.add("b");
+            for (int i = 0; i < 3; i++)
+                held.submit("a", new byte[] { 'x' }); //one printing, two queued: a is full
+            CompletableFuture<String> first = group.submit(new byte[] { 'x' });
+            CompletableFuture<String> second = group.submit(new byte[] { 'x' });
+
+            release.countDown();
+            assertEquals("b", first.get(5, TimeUnit.SECONDS));
+            assertEquals("b", second.get(5, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            held.shutdownNow();
+        }
+    }
+
+    @Test
+    void failedJobIsNotSentAgainByDefault() throws Exception
+    {
+        broken.add("a");
+        try (PrinterGroup group = group(PrinterGroup.Policy.ROUND_ROBIN, "a", "b"))
+        {
+            CompletableFuture<String> first = group.submit(new byte[] { 'x' }); //round-robin starts with a
+            ExecutionException ex = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+            assertTrue(ex.getCause() instanceof IOException);
+            assertEquals(List.of(), printed, "a job that may be half printed must not be printed again");
+            assertEquals(List.of("b"), group.available());
+        }
+    }
+
+    @Test
+    void failoverSendsTheJobToAnotherMember() throws Exception
+    {
+        broken.add("a");
+        try (PrinterGroup group = group(PrinterGroup.Policy.ROUND_ROBIN, "a", "b"))
+        {
+            group.setFailover(true);
+            assertEquals("b", group.submit(new byte[] { 'x' }).get(5, TimeUnit.SECONDS));
+            assertEquals(List.of("b"), printed);
+        }
+    }
+
+    @Test
+    void memberComesBackWhenTheHealthCheckSucceeds() throws Exception
+    {
+        broken.add("a");
+        try (PrinterGroup group = group(PrinterGroup.Policy.ROUND_ROBIN, "a", "b"))
+        {
+            group.setHealthCheck(printerName -> !broken.contains(printerName), 60000);
+            assertThrows(ExecutionException.class, () -> group.submit(new byte[] { 'x' }).get(5, TimeUnit.SECONDS));
+            assertEquals(List.of("b"), group.available());
+
+            broken.clear();
+            group.checkHealth();
+            assertEquals(List.of("a", "b"), group.available());
+        }
+    }
+
+    private PrinterGroup group(PrinterGroup.Policy policy, String... printerNames)
+    {
+        PrinterGroup group = new PrinterGroup("test", spooler, policy, false, EscPrinter.USA);
+        for (String printerName : printerNames)
+            group.add(printerName);
+        return group;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * PrinterSessionPoolTest.java
+ *
+ * Reuse, limits and invalidation of the sessions of PrinterSessionPool, on device files in a temporary directory.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PrinterSessionPoolTest
+{
+    @TempDir
+    Path directory;
+
+    @Test
+    void releasedSessionIsReusedWithoutReopeningTheDevice() throws Exception
+    {
+        Path device = Files.createFile(directory.resolve("lp0"));
+        try (PrinterSessionPool pool = new PrinterSessionPool(2, false, 60000))
+        {
+            EscPrinter first;
+            try (PrinterSessionPool.Session session = pool.acquire(device.toString(), 1, TimeUnit.SECONDS))
+            {
+                first = session.printer();
+                first.print("first job");
+            }
+            try (PrinterSessionPool.Session session = pool.acquire(device.toString(), 1, TimeUnit.SECONDS))
+            {
+                assertSame(first, session.printer());
+                session.printer().print("second job");
+            }
+        }
+
+        String written = new String(Files.readAllBytes(device), StandardCharsets.ISO_8859_1);
+        assertTrue(written.contains("first job") && written.contains("second job"), "reopening the device would have truncated it");
+    }
+
+    @Test
+    void sessionsOfADeviceAreCapped() throws Exception
+    {
+        Path device = Files.createFile(directory.resolve("lp0"));
+        try (PrinterSessionPool pool = new PrinterSessionPool(1, false, 60000);
+            PrinterSessionPool.Session session = pool.acquire(device.toString(), 1, TimeUnit.SECONDS))
+        {
+            assertThrows(TimeoutException.class, () -> pool.acquire(device.toString(), 50, TimeUnit.MILLISECONDS));
+            assertEquals(device.toString(), session.getPrinterName());
+        }
+    }
+
+    @Test
+    void invalidatedSessionIsClosed() throws Exception
+    {
+        Path device = Files.createFile(directory.resolve("lp0"));
+        try (PrinterSessionPool pool = new PrinterSessionPool(1, false, 60000))
+        {
+            EscPrinter first;
+            try (PrinterSessionPool.Session session = pool.acquire(device.toString(), 1, TimeUnit.SECONDS))
+            {
+                first = session.printer();
+                session.invalidate();
+            }
+            assertEquals(DeviceWriter.State.CLOSED, first.getDeviceWriter().getState());
+            try (PrinterSessionPool.Session session = pool.acquire(device.toString(), 1, TimeUnit.SECONDS))
+            {
+                assertNotSame(first, session.printer());
+            }
+        }
+    }
+
+    @Test
+    void borrowerSettingsAreResetOnRelease() throws Exception
+    {
+        Path device = Files.createFile(directory.resolve("lp0"));
+        try (PrinterSessionPool pool = new PrinterSessionPool(1, false, 60000))
+        {
+            try (PrinterSessionPool.Session session = pool.acquire(device.toString(), 1, TimeUnit.SECONDS))
+            {
+                session.printer().setOptimizing(true);
+                session.printer().setMetrics(new DefaultPrintMetrics(false));
+            }
+            try (PrinterSessionPool.Session session = pool.acquire(device.toString(), 1, TimeUnit.SECONDS))
+            {
+                assertFalse(session.printer().isOptimizing());
+                assertSame(EscPrinter.getDefaultMetrics(), session.printer().getMetrics());
+            }
+        }
+    }
+
+    @Test
+    void sessionReleasedAfterCloseIsClosed() throws Exception
+    {
+        Path device = Files.createFile(directory.resolve("lp0"));
+        PrinterSessionPool pool = new PrinterSessionPool(1, false, 60000);
+        PrinterSessionPool.Session session = pool.acquire(device.toString(), 1, TimeUnit.SECONDS);
+        EscPrinter printer = session.printer();
+        pool.close();
+        session.close();
+
+        assertEquals(DeviceWriter.State.CLOSED, printer.getDeviceWriter().getState());
+    }
+
+    @Test
+    void failedOpenGivesThePermitBack()
+    {
+        String missing = directory.resolve("missing").resolve("lp0").toString();
+        try (PrinterSessionPool pool = new PrinterSessionPool(1, false, 60000))
+        {
+            assertThrows(IOException.class, () -> pool.acquire(missing, 50, TimeUnit.MILLISECONDS));
+            assertThrows(IOException.class, () -> pool.acquire(missing, 50, TimeUnit.MILLISECONDS)); //not a TimeoutException
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * RawTcpTransportTest.java
+ *
+ * Jobs and streams of RawTcpTransport sent to a print server listening on the loopback interface: ordering, connection
+ * ownership of streams, idle reconnection and backoff.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class RawTcpTransportTest
+{
+    private final RawTcpTransport transport = new RawTcpTransport();
+
+    @AfterEach
+    void close()
+    {
+        transport.close();
+    }
+
+    @Test
+    void pipelinedJobsArriveInOrderOnOneConnection() throws Exception
+    {
+        try (Server server = new Server())
+        {
+            CompletableFuture<Void> first = transport.send(server.printerName(), bytes("first,"));
+            CompletableFuture<Void> second = transport.send(server.printerName(), bytes("second,"));
+            transport.print(server.printerName(), bytes("third"));
+            CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+            transport.close();
+
+            assertEquals("first,second,third", server.received());
+            assertEquals(1, server.connections.get());
+        }
+    }
+
+    @Test
+    void streamWritesReachThePrinter() throws Exception
+    {
+        try (Server server = new Server())
+        {
+            try (OutputStream out = transport.open(server.printerName()))
+            {
+                out.write(bytes("ESC"));
+                out.flush();
+                out.write('/');
+                out.write(bytes("P"));
+            }
+            transport.close();
+
+            assertEquals("ESC/P", server.received());
+        }
+    }
+
+    @Test
+    void streamStaysFailedAfterAFailedWrite() throws Exception
+    {
+        int port = freePort();
+        transport.setReconnect(1, 10, 10);
+        OutputStream out = transport.open("127.0.0.1:" + port);
+
+        out.write(bytes("head"));
+        assertThrows(IOException.class, out::flush);
+        assertThrows(IOException.class, () -> out.write(bytes("tail")), "the rest of a failed job must not be queued");
+        assertThrows(IOException.class, out::flush);
+    }
+
+    @Test
+    void streamsToOnePrinterDoNotInterleave() throws Exception
+    {
+        try (Server server = new Server())
+        {
+            OutputStream first = transport.open(server.printerName());
+            OutputStream second = transport.open(server.printerName());
+            first.write(bytes("A1,"));
+            first.flush();
+            second.write(bytes("B1,"));
+            CompletableFuture<Void> job = transport.send(server.printerName(), bytes("C,"));
+            first.write(bytes("A2,"));
+            first.close();
+            second.write(bytes("B2,"));
+            second.close();
+            job.get(5, TimeUnit.SECONDS);
+            transport.close();
+
+            assertEquals("A1,A2,B1,B2,C,", server.received()); //the job sent while the first stream held the connection waits for both
+        }
+    }
+
+    @Test
+    void initializingAgainReleasesTheConnection() throws Exception
+    {
+        try (Server server = new Server())
+        {
+            EscPrinter printer = new EscPrinter(server.printerName(), false);
+            printer.initialize(transport);
+            printer.print("A,");
+            printer.flush();
+            printer.initialize(transport); //closes the stream holding the connection
+
+            transport.send(server.printerName(), bytes("B,")).get(5, TimeUnit.SECONDS);
+            printer.close();
+            transport.close();
+            assertTrue(server.received().contains("A,B,"));
+        }
+    }
+
+    @Test
+    void idleConnectionIsClosedAndReopened() throws Exception
+    {
+        try (Server server = new Server())
+        {
+            transport.setIdleTimeout(50);
+            transport.print(server.printerName(), bytes("first,"));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (server.closed.get() < 1 && System.nanoTime() < deadline)
+                Thread.sleep(10);
+            assertEquals(1, server.closed.get(), "idle connection not closed");
+
+            transport.print(server.printerName(), bytes("second"));
+            transport.close();
+            assertEquals("first,second", server.received(2));
+            assertEquals(2, server.connections.get());
+        }
+    }
+
+    @Test
+    void jobsWaitForAPrinterStartingLate() throws Exception
+    {
+        int port = freePort();
+        transport.setReconnect(20, 20, 100);
+        CompletableFuture<Void> job = transport.send("127.0.0.1:" + port, bytes("late"));
+        Thread.sleep(150);
+        assertFalse(job.isDone());
+
+        try (Server server = new Server(port))
+        {
+            job.get(5, TimeUnit.SECONDS);
+            transport.close();
+            assertEquals("late", server.received());
+        }
+    }
+
+    @Test
+    void reconnectionBacksOffThenGivesUp() throws Exception
+    {
+        int port = freePort();
+        transport.setReconnect(3, 100, 1000);
+        long start = System.nanoTime();
+        CompletableFuture<Void> job = transport.send("127.0.0.1:" + port, bytes("lost"));
+
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> job.get(5, TimeUnit.SECONDS));
+        assertTrue(ex.getCause() instanceof IOException, ex.getCause().toString());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300), "waited 100 ms, then 200 ms between the attempts");
+    }
+
+    @Test
+    void printerNamesAreParsed() throws Exception
+    {
+        assertEquals(9101, RawTcpTransport.parse("[fe80::1]:9101").getPort());
+        assertEquals("fe80::1", RawTcpTransport.parse("[fe80::1]:9101").getHostString());
+        assertEquals("lpt-server", RawTcpTransport.parse("lpt-server:9101").getHostString());
+        assertEquals(RawTcpTransport.DEFAULT_PORT, RawTcpTransport.parse("192.168.0.20").getPort());
+        assertThrows(IOException.class, () -> RawTcpTransport.parse("lpt-server:x"));
+        assertThrows(IOException.class, () -> RawTcpTransport.parse(" "));
+    }
+
+    private static int freePort() throws IOException
+    {
+        try (ServerSocket unused = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+        {
+            return unused.getLocalPort(); //nothing listens there once closed
+        }
+    }
+
+    private static byte[] bytes(String text)
+    {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /** accepts connections one at a time and keeps every byte received */
+    private static final class Server implements AutoCloseable
+    {
+        final ServerSocket socket;
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicInteger closed = new AtomicInteger(); //connections closed by the transport
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final Thread thread;
+
+        Server() throws IOException
+        {
+            this(0);
+        }
+
+        Server(int port) throws IOException
+        {
+            socket = new ServerSocket(port, 10, InetAddress.getLoopbackAddress());
+            thread = new Thread(this::run, "print-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        String printerName()
+        {
+            return "127.0.0.1:" + socket.getLocalPort();
+        }
+
+        private void run()
+        {
+            byte[] buffer = new byte[256];
+            while (!socket.isClosed())
+            {
+                try (Socket client = socket.accept(); InputStream in = client.getInputStream())
+                {
+                    connections.incrementAndGet();
+                    int n;
+                    while ((n = in.read(buffer)) >= 0)
+                    {
+                        synchronized (data)
+                        {
+                            data.write(buffer, 0, n);
+                        }
+                    }
+                    closed.incrementAndGet();
+                }
+                catch (IOException ex)
+                {
+                    //closed
+                }
+            }
+        }
+
+        /** waits until the transport closed its connection, then stops accepting */
+        String received() throws IOException, InterruptedException
+        {
+            return received(1);
+        }
+
+        /** waits until {@code expected} connections were accepted and closed, then stops accepting */
+        String received(int expected) throws IOException, InterruptedException
+        {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (closed.get() < expected && System.nanoTime() < deadline)
+                Thread.sleep(5); //closing the server socket would reset a connection not accepted yet
+            socket.close();
+            thread.join(5000);
+            synchronized (data)
+            {
+                return new String(data.toByteArray(), StandardCharsets.ISO_8859_1);
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            socket.close();
+        }
+    }
+}
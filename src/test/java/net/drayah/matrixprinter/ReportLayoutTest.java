@@ -0,0 +1,77 @@
+/*
+ * ReportLayoutTest.java
+ *
+ * Pagination of ReportLayout, checked on the pages ejected by an EscEmulator.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ReportLayoutTest
+{
+    @ParameterizedTest
+    @ValueSource(ints = { 1, 11, 12, 13, 24 })
+    void fullPagesWithoutFooterEjectNoBlankPage(int rows)
+    {
+        ReportLayout layout = ReportLayout.builder()
+            .pageLength(16)
+            .title("Report")
+            .column("Code", 6, FormTemplate.Align.LEFT)
+            .column("Value", 8, FormTemplate.Align.RIGHT)
+            .build();
+        assertEquals(12, layout.getRowsPerPage());
+
+        EscEmulator emulator = print(layout, rows);
+        int pages = (rows + 11) / 12;
+        assertEquals(pages, emulator.getPageCount());
+        assertEquals(0, emulator.getCurrentPage().length(), "the head must wait at the top of an empty page");
+        for (EscEmulator.Page page : emulator.getPages())
+            assertTrue(FormTemplateTest.chars(page).startsWith("Report"), "blank page ejected");
+    }
+
+    @Test
+    void footerEndsEveryPage()
+    {
+        ReportLayout layout = ReportLayout.builder()
+            .pageLength(10)
+            .column("Code", 6, FormTemplate.Align.LEFT)
+            .footer(page -> "Page " + page)
+            .build();
+
+        EscEmulator emulator = print(layout, 2 * layout.getRowsPerPage());
+        assertEquals(2, emulator.getPageCount());
+        assertTrue(FormTemplateTest.chars(emulator.getPages().get(1)).endsWith("Page 2"));
+        assertEquals(0, emulator.getCurrentPage().length());
+    }
+
+    @Test
+    void proportionalColumnsMustBeAlignedLeft()
+    {
+        ReportLayout.Builder builder = ReportLayout.builder()
+            .pitch(ReportLayout.Pitch.PROPORTIONAL)
+            .column("Value", 8, FormTemplate.Align.RIGHT);
+        assertThrows(IllegalArgumentException.class, builder::build);
+    }
+
+    private static EscEmulator print(ReportLayout layout, int rows)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EscPrinter printer = new EscPrinter("lp", false);
+        printer.initialize(out);
+        assertEquals((rows + layout.getRowsPerPage() - 1) / layout.getRowsPerPage(),
+            layout.print(printer, IntStream.range(0, rows).mapToObj(i -> new Object[] { "C" + i, i })));
+
+        EscEmulator emulator = new EscEmulator(false);
+        emulator.write(out.toByteArray(), 0, out.size());
+        return emulator;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * SpoolJournalTest.java
+ *
+ * Crash recovery and compaction of SpoolJournal: jobs are journaled in a temporary directory, the journal is reopened
+ * as after a restart, and its segment files are damaged the way a crash leaves them.
+ */
+
+package net.drayah.matrixprinter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SpoolJournalTest
+{
+    @TempDir
+    Path directory;
+
+    private final List<String> printed = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    void newSegmentsSyncTheDirectoryOnce() throws Exception
+    {
+        try (SpoolJournal journal = SpoolJournal.open(directory, 4096, 0))
+        {
+            journal.append("lp", bytes("a")).get(5, TimeUnit.SECONDS);
+            journal.append("lp", bytes("b")).get(5, TimeUnit.SECONDS);
+            assertEquals(1, journal.getDirectorySyncCount(), "the first segment");
+
+            journal.append("lp", new byte[5000]).get(5, TimeUnit.SECONDS); //gets a segment of its own
+            assertEquals(2, journal.getDirectorySyncCount());
+            journal.append("lp", bytes("c")).get(5, TimeUnit.SECONDS);
+            assertEquals(3, journal.getDirectorySyncCount(), "the segment after the large job");
+            journal.append("lp", bytes("d")).get(5, TimeUnit.SECONDS);
+            assertEquals(3, journal.getDirectorySyncCount());
+        }
+    }
+
+    @Test
+    void unfinishedJobsArePendingAfterARestart() throws Exception
+    {
+        try (SpoolJournal journal = SpoolJournal.open(directory))
+        {
+            long first = journal.append("lp1", bytes("first")).get(5, TimeUnit.SECONDS);
+            long second = journal.append("lp2", bytes("second")).get(5, TimeUnit.SECONDS);
+            journal.append("lp1", bytes("third")).get(5, TimeUnit.SECONDS);
+            journal.markSent(second);
+            journal.markFailed(first);
+        }
+
+        try (SpoolJournal journal = SpoolJournal.open(directory))
+        {
+            List<SpoolJournal.Job> pending = journal.pending();
+            assertEquals(1, pending.size());
+            assertEquals("lp1", pending.get(0).getPrinterName());
+            assertArrayEquals(bytes("third"), pending.get(0).getData());
+        }
+    }
+
+    @Test
+    void tornRecordEndsTheReplay() throws Exception
+    {
+        try (SpoolJournal journal = SpoolJournal.open(directory))
+        {
+            journal.append("lp", bytes("complete")).get(5, TimeUnit.SECONDS);
+            journal.append("lp", bytes("torn-by-crash")).get(5, TimeUnit.SECONDS);
+        }
+        Path segment = segmentFiles().get(0);
+        byte[] content = Files.readAllBytes(segment);
+        int torn = indexOf(content, bytes("torn-by-crash"));
+        content[torn + 3] ^= 0x20; //only half of the record reached the disk
+        Files.write(segment, content);
+
+        try (SpoolJournal journal = SpoolJournal.open(directory))
+        {
+            List<SpoolJournal.Job> pending = journal.pending();
+            assertEquals(1, pending.size());
+            assertArrayEquals(bytes("complete"), pending.get(0).getData());
+
+            long id = journal.append("lp", bytes("after")).get(5, TimeUnit.SECONDS);
+            assertTrue(id > pending.get(0).getId());
+        }
+    }
+
+    @Test
+    void resubmittedJobsPrintOnceAndFinish() throws Exception
+    {
+        try (SpoolJournal journal = SpoolJournal.open(directory))
+        {
+            journal.append("lp", bytes("a")).get(5, TimeUnit.SECONDS);
+            journal.append("lp", bytes("b")).get(5, TimeUnit.SECONDS);
+        }
+
+        EscSpooler spooler = spooler();
+        try (SpoolJournal journal = SpoolJournal.open(directory))
+        {
+            assertEquals(2, journal.resubmitPending(spooler));
+            spooler.shutdown();
+            assertTrue(spooler.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(List.of("a", "b"), printed);
+            assertEquals(List.of(), journal.pending());
+        }
+
+        try (SpoolJournal journal = SpoolJournal.open(directory))
+        {
+            assertEquals(List.of(), journal.pending(), "finished jobs must not print again");
+        }
+    }
+
+    @Test
+    void finishedSegmentsAreDeleted() throws Exception
+    {
+        EscSpooler spooler = spooler();
+        byte[] job = new byte[1000];
+        try (SpoolJournal journal = SpoolJournal.open(directory, 4096, 0))
+        {
+            List<CompletableFuture<Void>> jobs = new ArrayList<>();
+            for (int i = 0; i < 40; i++)
+                jobs.add(journal.submit(spooler, "lp", job));
+            CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+            journal.sync();
+            journal.compact();
+            assertEquals(1, journal.segments());
+            List<Path> files = segmentFiles();
+            assertEquals(1, files.size());
+            assertTrue(files.get(0).getFileName().toString().compareTo("journal-0000000000000005.seg") > 0, "the jobs filled several segments");
+        }
+        finally
+        {
+            spooler.shutdownNow();
+        }
+    }
+
+    private EscSpooler spooler()
+    {
+        return new EscSpooler((printerName, data) -> printed.add(new String(data, StandardCharsets.UTF_8)), 100, EscSpooler.OverflowPolicy.BLOCK);
+    }
+
+    private List<Path> segmentFiles() throws Exception
+    {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "journal-*.seg"))
+        {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private static int indexOf(byte[] content, byte[] part)
+    {
+        for (int i = 0; i + part.length <= content.length; i++)
+        {
+            if (Arrays.equals(content, i, i + part.length, part, 0, part.length))
+                return i;
+        }
+        throw new AssertionError("record not found");
+    }
+
+    private static byte[] bytes(String text)
+    {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}